@@ -0,0 +1,139 @@
+package matchmaking;
+
+import networking.MessageHandler;
+import networking.NioConnection;
+import networking.NioNetwork;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Memory footprint and join latency of a Matchmaker holding N idle clients, on platform threads and on virtual
+// threads (-Dtetris.threads). Run it with the `matchmakerScale` task, e.g. `gradle matchmakerScale -Pclients=1000,10000`.
+// Not a JMH benchmark: the Matchmaker runs in a JVM of its own so its resident memory and thread count can be read
+// from /proc (Linux only), while the simulated clients join one after another from this JVM over a single
+// NioNetwork and then sit idle. A join is timed from connecting to the Matchmaker's "done", so it includes the
+// CONNECT_TO for every client already there.
+public class MatchmakerScaleBenchmark {
+    private static final int PORT = 26900;
+    private static final int JOIN_TIMEOUT_S = 30;
+    private static final String[] MODES = {"platform", "virtual"};
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = args.length == 0 ? new int[]{1000, 10000}
+                : Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray();
+        System.out.println("mode     | clients | join p50 ms | join p99 ms | last join ms | total s | rss MB | rss KB/client | threads");
+        for (int clients : counts) {
+            for (String mode : MODES) {
+                run(mode, clients);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, int clients) throws Exception {
+        Process matchmaker = startMatchmaker(mode);
+        NioNetwork network = new NioNetwork();
+        Semaphore done = new Semaphore(0);
+        NioNetwork.Handler handler = new NioNetwork.Handler() {
+            @Override
+            public void accepted(NioConnection connection) {
+            }
+
+            @Override
+            public void closed(NioConnection connection) {
+            }
+        };
+        MessageHandler messages = new MessageHandler() {
+            @Override
+            public void onNormal(String text, int from) {
+                if (text.equals("done")) {
+                    done.release();
+                }
+            }
+        };
+        try {
+            long baseline = status(matchmaker, "VmRSS:");
+            List<NioConnection> idle = new ArrayList<>(clients);
+            long[] joins = new long[clients];
+            long start = System.nanoTime();
+            for (int i = 0; i < clients; i++) {
+                long joinStart = System.nanoTime();
+                NioConnection connection = network.connect(new InetSocketAddress("localhost", PORT), -1, handler, messages);
+                network.start(connection);
+                if (!done.tryAcquire(JOIN_TIMEOUT_S, TimeUnit.SECONDS)) {
+                    throw new IOException("client " + i + " wasn't done joining after " + JOIN_TIMEOUT_S + " s");
+                }
+                joins[i] = System.nanoTime() - joinStart;
+                idle.add(connection);
+            }
+            double total = (System.nanoTime() - start) / 1e9;
+            long rss = status(matchmaker, "VmRSS:");
+            long last = joins[clients - 1];
+            Arrays.sort(joins);
+            System.out.printf("%-8s | %7d | %11.2f | %11.2f | %12.2f | %7.1f | %6d | %13.1f | %d%n",
+                    mode, clients, joins[clients / 2] / 1e6, joins[clients * 99 / 100] / 1e6, last / 1e6, total,
+                    rss / 1024, (double) (rss - baseline) / clients, status(matchmaker, "Threads:"));
+            for (NioConnection connection : idle) {
+                connection.close();
+            }
+        } finally {
+            matchmaker.destroy();
+            matchmaker.waitFor();
+        }
+    }
+
+    // a Matchmaker in a JVM of its own, listening once this returns
+    private static Process startMatchmaker(String mode) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-Dtetris.threads=" + mode,
+                "-cp", System.getProperty("java.class.path"),
+                "matchmaking.Matchmaker", "-port", Integer.toString(PORT), "-addr", "localhost")
+                .redirectErrorStream(true)
+                .start();
+        CountDownLatch listening = new CountDownLatch(1);
+        Thread output = new Thread(() -> {
+            // drained for as long as it runs, it prints a line per client
+            try (BufferedReader lines = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                    if (line.startsWith("Matchmaker listening")) {
+                        listening.countDown();
+                    }
+                }
+            } catch (IOException ignored) {
+                // the process is gone
+            }
+        }, "matchmaker-output");
+        output.setDaemon(true);
+        output.start();
+        if (!listening.await(JOIN_TIMEOUT_S, TimeUnit.SECONDS)) {
+            process.destroy();
+            throw new IOException("the matchmaker didn't start listening");
+        }
+        return process;
+    }
+
+    // a field of /proc/<pid>/status (kB for memory), -1 where there's no /proc
+    private static long status(Process process, String field) {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc", Long.toString(process.pid()), "status"))) {
+                if (line.startsWith(field)) {
+                    return Long.parseLong(line.substring(field.length()).trim().split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            // not Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,94 @@
+package networking;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import tetris.BenchmarkBoards;
+import tetris.BoardCodec;
+import tetris.GameLoop;
+import tetris.Rotation;
+import tetris.Tetris;
+import tetris.TetrisEngine;
+import tetris.Tetromino;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// A received frame's content decoded by MessageDecoder into RealClient's callbacks, for each message type a running
+// game receives, plus the random event vote.
+// HOST_ON and CONNECT_TO open sockets, START_RANDOM_EVENT starts a vote and SHUTDOWN logs to the console on every
+// call, so they aren't measured here.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MessageBenchmark {
+    private static final int FROM = 3;
+
+    @Param({"NORMAL", "SET_PROC_ID", "TETRIS_EVENT", "UPDATE_BOARD_STATE", "UPDATE_BOARD_PACKED", "DEATH", "ATTACK", "PROPOSE"})
+    public String type;
+
+    @Param({"4", "16", "128"})
+    public int proposals;
+
+    private RealClient client;
+    private final MessageDecoder decoder = new MessageDecoder();
+    private int opcode;
+    private byte[] content;
+    private ArrayList<Integer> proposalList;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        client = new RealClient();
+        client.underlying = new TetrisEngine(random);
+        client.underlying.init();
+        client.view = new Tetris(new GameLoop(client.underlying));
+        // client.loop stays null: nothing drains it here, so DEATH is parsed and then dropped
+
+        MessageType messageType = MessageType.valueOf(type);
+        String content = switch (messageType) {
+            case NORMAL -> "hello there";
+            case SET_PROC_ID -> "7";
+            case TETRIS_EVENT -> "LINE_CLEAR DOUBLE";
+            case UPDATE_BOARD_STATE -> client.underlying.BoardToString(BenchmarkBoards.realistic(random));
+            case UPDATE_BOARD_PACKED -> new BoardCodec().encode(BenchmarkBoards.realistic(random));
+            case ATTACK -> 5 + " " + 0 + " " + Rotation._90.toInt() + " " + Tetromino.T_PIECE.legacyInt;
+            case PROPOSE -> "3";
+            default -> "";
+        };
+        this.opcode = messageType.opcode;
+        this.content = content.getBytes(StandardCharsets.UTF_8);
+
+        proposalList = new ArrayList<>();
+        for (int i = 0; i < proposals; i++) {
+            proposalList.add(random.nextInt(8));
+        }
+    }
+
+    @Benchmark
+    public RealClient decode() {
+        decoder.decode(opcode, content, 0, content.length, FROM, client);
+        if (client.underlying.getAttackQueueSize() > 32) {
+            client.underlying.getAttackQueue().clear(); // keep ATTACK from measuring the overflow path
+        }
+        return client;
+    }
+
+    @Benchmark
+    public int mostFrequent() {
+        return RealClient.mostFrequent(proposalList);
+    }
+}
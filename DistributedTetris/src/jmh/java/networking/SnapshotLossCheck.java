@@ -0,0 +1,192 @@
+package networking;
+
+import tetris.Board;
+import tetris.BoardCodec;
+import tetris.TColor;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Board snapshots over a SnapshotChannel through a lossy link on loopback: a relay that drops a share of the
+// datagrams and delays the rest by a latency plus random jitter (so they also arrive out of order). Not a JMH
+// benchmark; run it with the `snapshotLoss` task, e.g. `gradle snapshotLoss -Ploss=0,0.05,0.2 -Platency=20 -Pjitter=10`.
+// For each loss rate it sends SNAPSHOTS versions at a game-like rate, then refreshes the last one the way RealClient
+// does until it lands, and reports how many were applied, how many arrived stale, the latency of the applied ones
+// and the longest run of versions the receiver never saw. It fails if the receiver ever goes back a version.
+public class SnapshotLossCheck {
+    private static final int SNAPSHOTS = 2_000;
+    private static final long SEND_INTERVAL_NANOS = 5_000_000L; // about the rate a busy board changes
+    private static final long REFRESH_NANOS = 250_000_000L; // as RealClient
+    private static final long CONVERGE_TIMEOUT_NANOS = 5_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        double[] losses = args.length > 0 ? Arrays.stream(args[0].split(",")).mapToDouble(Double::parseDouble).toArray()
+                : new double[]{0, 0.05, 0.2, 0.5};
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        long jitter = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        System.out.printf("%d snapshots every %.0f ms, link latency %d ms +- %d ms%n", SNAPSHOTS, SEND_INTERVAL_NANOS / 1e6,
+                latency, jitter);
+        System.out.println("loss  | applied | stale | p50 ms | p99 ms | longest gap | last applied after");
+        for (double loss : losses) {
+            run(loss, latency, jitter);
+        }
+        System.exit(0);
+    }
+
+    private static void run(double loss, long latency, long jitter) throws Exception {
+        long[] sentAt = new long[SNAPSHOTS + 1];
+        long[] latencies = new long[SNAPSHOTS];
+        int[] applied = new int[2]; // count, last version
+        int[] longestGap = new int[1];
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        MessageHandler board = new MessageHandler() {
+            @Override
+            public synchronized void onPackedBoard(CharSequence packed, int version, int from) {
+                if (version <= applied[1]) {
+                    throw new AssertionError("went back from version " + applied[1] + " to " + version);
+                }
+                longestGap[0] = Math.max(longestGap[0], version - applied[1] - 1);
+                latencies[applied[0]++] = System.nanoTime() - sentAt[version];
+                applied[1] = version;
+            }
+        };
+        InetSocketAddress[] relay = new InetSocketAddress[1]; // the snapshots arrive from the link, not the sender
+        try (SnapshotChannel receiver = new SnapshotChannel(loopback, board, from -> relay[0]);
+             SnapshotChannel sender = new SnapshotChannel(loopback, new MessageHandler() {
+             }, from -> null);
+             LossyLink link = new LossyLink(new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.port()),
+                     loss, latency, jitter)) {
+            relay[0] = link.sendsFrom();
+            receiver.start();
+            String keyframe = new BoardCodec().encode(sampleBoard());
+            long next = System.nanoTime();
+            for (int version = 1; version <= SNAPSHOTS; version++) {
+                while (System.nanoTime() < next) {
+                    Thread.onSpinWait();
+                }
+                next += SEND_INTERVAL_NANOS;
+                sentAt[version] = System.nanoTime();
+                sender.send(link.address(), 1, keyframe + " " + version);
+            }
+            // the board sits still from here: only refreshes of the last version until it's applied
+            long finished = System.nanoTime();
+            long refreshed = finished;
+            while (lastApplied(board, applied) < SNAPSHOTS && System.nanoTime() - finished < CONVERGE_TIMEOUT_NANOS) {
+                Thread.sleep(1);
+                if (System.nanoTime() - refreshed >= REFRESH_NANOS) {
+                    refreshed = System.nanoTime();
+                    sentAt[SNAPSHOTS] = refreshed;
+                    sender.send(link.address(), 1, keyframe + " " + SNAPSHOTS);
+                }
+            }
+            String converged = lastApplied(board, applied) == SNAPSHOTS
+                    ? String.format("%.0f ms", (System.nanoTime() - finished) / 1e6) : "never";
+            Thread.sleep(latency + jitter + 50); // stragglers
+            synchronized (board) {
+                long[] applyLatencies = Arrays.copyOf(latencies, applied[0]);
+                Arrays.sort(applyLatencies);
+                System.out.printf("%.2f  | %6.1f%% | %5d | %6.1f | %6.1f | %11d | %s%n",
+                        loss, 100.0 * applied[0] / SNAPSHOTS, link.forwarded() - applied[0],
+                        applyLatencies[applyLatencies.length / 2] / 1e6,
+                        applyLatencies[applyLatencies.length * 99 / 100] / 1e6, longestGap[0], converged);
+            }
+        }
+    }
+
+    private static int lastApplied(Object board, int[] applied) {
+        synchronized (board) {
+            return applied[1];
+        }
+    }
+
+    // a half-full well, so a snapshot is the size a game in progress sends
+    private static Board sampleBoard() {
+        Board board = new Board();
+        Random random = new Random(1);
+        TColor[] colors = TColor.values();
+        for (int y = Board.HEIGHT / 2; y < Board.HEIGHT; y++) {
+            for (int x = 1; x < Board.WIDTH; x++) {
+                if (random.nextInt(4) != 0) {
+                    board.set(x, y, colors[1 + random.nextInt(colors.length - 1)]);
+                }
+            }
+        }
+        return board;
+    }
+
+    // Forwards datagrams to `target`, dropping `loss` of them and delaying the rest by latency +- jitter ms
+    private static final class LossyLink implements AutoCloseable {
+        private final DatagramChannel channel;
+        private final DatagramChannel out;
+        private final ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor();
+        private final Random random = new Random(42);
+        private final Thread thread;
+        private volatile long forwarded;
+
+        LossyLink(InetSocketAddress target, double loss, long latency, long jitter) throws IOException {
+            channel = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            out = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            thread = new Thread(() -> {
+                ByteBuffer in = ByteBuffer.allocate(SnapshotChannel.MAX_DATAGRAM_BYTES);
+                while (channel.isOpen()) {
+                    in.clear();
+                    try {
+                        channel.receive(in);
+                    } catch (ClosedChannelException e) {
+                        return;
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                    if (random.nextDouble() < loss) {
+                        continue;
+                    }
+                    in.flip();
+                    ByteBuffer datagram = ByteBuffer.allocate(in.remaining()).put(in).flip();
+                    long delay = Math.max(0, latency + (jitter == 0 ? 0 : random.nextLong(-jitter, jitter + 1)));
+                    delays.schedule(() -> forward(datagram, target), delay, TimeUnit.MILLISECONDS);
+                }
+            }, "lossy-link");
+            thread.start();
+        }
+
+        private void forward(ByteBuffer datagram, SocketAddress target) {
+            try {
+                out.send(datagram, target);
+                forwarded++; // only the delay thread writes it
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        InetSocketAddress address() throws IOException {
+            return (InetSocketAddress) channel.getLocalAddress();
+        }
+
+        InetSocketAddress sendsFrom() throws IOException {
+            return (InetSocketAddress) out.getLocalAddress();
+        }
+
+        long forwarded() {
+            return forwarded;
+        }
+
+        @Override
+        public void close() throws Exception {
+            channel.close();
+            delays.shutdownNow();
+            out.close();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package tetris;
+
+import java.util.Random;
+
+// Shared board fixtures for the benchmarks
+public final class BenchmarkBoards {
+    public static final int GARBAGE_ROWS = 12;
+
+    private BenchmarkBoards() {
+    }
+
+    // Bottom half of the well filled with ragged, never-complete garbage rows, like a mid-game board
+    public static Board realistic(Random random) {
+        Board board = new Board();
+        TColor[] colors = {TColor.CYAN, TColor.ORANGE, TColor.BLUE, TColor.YELLOW, TColor.GREEN, TColor.PINK, TColor.RED};
+        for (int y = Board.BOTTOM_PLAYABLE_ROW; y > Board.BOTTOM_PLAYABLE_ROW - GARBAGE_ROWS; y--) {
+            int hole = 1 + random.nextInt(Board.WIDTH - 2);
+            for (int x = 1; x < Board.WIDTH - 1; x++) {
+                if (x != hole && random.nextInt(4) != 0) {
+                    board.set(x, y, colors[random.nextInt(colors.length)]);
+                }
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,90 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// The well operations the game runs on every input, tick and lock, on a mid-game board
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BoardBenchmark {
+    private static final int FULL_ROWS = 4;
+
+    private Board template;
+    private Board withFullRows;
+    private TetrisEngine engine;
+
+    @Setup
+    public void setUp() {
+        template = BenchmarkBoards.realistic(new Random(42));
+        withFullRows = new Board();
+        withFullRows.copyFrom(template);
+        for (int y = Board.BOTTOM_PLAYABLE_ROW; y > Board.BOTTOM_PLAYABLE_ROW - FULL_ROWS; y--) {
+            for (int x = 1; x < Board.WIDTH - 1; x++) {
+                withFullRows.set(x, y, TColor.CYAN);
+            }
+        }
+        engine = new TetrisEngine(new Random(42));
+        engine.init();
+    }
+
+    // collision test for every piece, rotation and column at spawn height
+    @Benchmark
+    public int collidesAt() {
+        int hits = 0;
+        for (Tetromino piece : Tetromino.ORDER) {
+            for (Rotation rotation : Rotation.ORDER) {
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (template.collides(piece, rotation, x, 4)) {
+                        hits++;
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    // ghost / hard drop position for every piece, rotation and column
+    @Benchmark
+    public int checkTheoreticalPos() {
+        engine.getBoard().copyFrom(template);
+        int total = 0;
+        for (Tetromino piece : Tetromino.ORDER) {
+            for (Rotation rotation : Rotation.ORDER) {
+                for (int x = 1; x + piece.width(rotation) < Board.WIDTH; x++) {
+                    total += engine.checkTheoreticalPos(piece, rotation, x, 0);
+                }
+            }
+        }
+        return total;
+    }
+
+    // a tetris (four full rows at the bottom) being cleared; includes copying the board back in
+    @Benchmark
+    public long clearRows() {
+        engine.getBoard().copyFrom(withFullRows);
+        engine.clearRows();
+        return engine.getScore();
+    }
+
+    // the copy clearRows() pays for, to subtract from it
+    @Benchmark
+    public Board copyBaseline() {
+        engine.getBoard().copyFrom(withFullRows);
+        return engine.getBoard();
+    }
+}
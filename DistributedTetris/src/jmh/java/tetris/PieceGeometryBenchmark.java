@@ -0,0 +1,122 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Placement tests over every piece x rotation x column: the precomputed row masks / column bottoms in Tetromino
+// against walking Point[] offsets over a TColor[][] well, which is what Tetris did before.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PieceGeometryBenchmark {
+    private static final Tetromino[] PIECES = Tetromino.values();
+    private static final int SPAWN_Y = 4;
+
+    private Board board;
+    private TColor[][] legacyWell;
+
+    @Setup
+    public void setUp() {
+        board = BenchmarkBoards.realistic(new Random(42));
+        legacyWell = board.toArray();
+    }
+
+    @Benchmark
+    public int collidesMasks() {
+        int hits = 0;
+        for (Tetromino piece : PIECES) {
+            for (Rotation rotation : Rotation.ORDER) {
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (board.collides(piece, rotation, x, SPAWN_Y)) {
+                        hits++;
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int collidesPoints() {
+        int hits = 0;
+        for (Tetromino piece : PIECES) {
+            for (Rotation rotation : Rotation.ORDER) {
+                for (int x = 0; x < Board.WIDTH; x++) {
+                    if (legacyCollides(piece, rotation, x, SPAWN_Y)) {
+                        hits++;
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public int dropDistanceMasks() {
+        int total = 0;
+        for (Tetromino piece : PIECES) {
+            for (Rotation rotation : Rotation.ORDER) {
+                for (int x = 1; x + piece.width(rotation) < Board.WIDTH; x++) {
+                    total += board.dropDistance(piece, rotation, x, 0);
+                }
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int dropDistancePoints() {
+        int total = 0;
+        for (Tetromino piece : PIECES) {
+            for (Rotation rotation : Rotation.ORDER) {
+                for (int x = 1; x + piece.width(rotation) < Board.WIDTH; x++) {
+                    total += legacyDropDistance(piece, rotation, x, 0);
+                }
+            }
+        }
+        return total;
+    }
+
+    // the old Tetris.collidesAt body
+    private boolean legacyCollides(Tetromino piece, Rotation rotation, int x, int y) {
+        if (x < 0 || x > Board.WIDTH - 1) {
+            return true;
+        }
+        for (Point p : piece.inRotation(rotation)) {
+            if (p.x + x >= Board.WIDTH || legacyWell[p.x + x][p.y + y] != TColor.OPEN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the old Tetris.checkTheoreticalPos body, minus the boxing
+    private int legacyDropDistance(Tetromino piece, Rotation rotation, int xPos, int yPos) {
+        int min = Integer.MAX_VALUE;
+        for (Point p : piece.inRotation(rotation)) {
+            int theoreticalVal = 0;
+            for (int j = p.y + yPos + 1; j < Board.FLOOR_ROW; j++) {
+                if (legacyWell[p.x + xPos][j] == TColor.OPEN) {
+                    theoreticalVal++;
+                } else break;
+            }
+            min = Math.min(min, theoreticalVal);
+        }
+        return min;
+    }
+}
@@ -0,0 +1,79 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// paintComponent into an offscreen image with a growing number of opponent boards: the full frame, and the clip a
+// piece move repaints now that only dirty regions are painted (which shouldn't grow with the opponents); cells blitted
+// from the tile atlas against plain setColor/fillRect
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param({"1", "4", "16"})
+    public int opponents;
+
+    @Param({"atlas", "fillRect"})
+    public String cells;
+
+    private Tetris view;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private Graphics2D pieceMoveGraphics;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        TetrisEngine engine = new TetrisEngine(random);
+        engine.init();
+        engine.getBoard().copyFrom(BenchmarkBoards.realistic(random));
+        view = new Tetris(new GameLoop(engine));
+        view.setUseTileAtlas(cells.equals("atlas"));
+        for (int i = 0; i < opponents; i++) {
+            view.handleRecvBoard(engine.BoardToString(BenchmarkBoards.realistic(random)), i);
+        }
+        int boardWidthPx = Tetris.BOARD_WIDTH_CELLS * Tetris.CELL_SIZE + 10;
+        image = new BufferedImage(boardWidthPx * (opponents + 1), Tetris.CELL_SIZE * (Tetris.BOARD_HEIGHT_CELLS + 2),
+                BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+        pieceMoveGraphics = image.createGraphics();
+        pieceMoveGraphics.setClip((engine.getPieceX() - 1) * Tetris.CELL_SIZE, engine.getPieceY() * Tetris.CELL_SIZE,
+                6 * Tetris.CELL_SIZE, 4 * Tetris.CELL_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+        pieceMoveGraphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paintComponent() {
+        view.paintComponent(graphics);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage paintPieceMove() {
+        view.paintComponent(pieceMoveGraphics);
+        return image;
+    }
+}
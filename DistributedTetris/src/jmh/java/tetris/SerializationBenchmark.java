@@ -0,0 +1,109 @@
+package tetris;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Board encodings: UPDATE_BOARD_STATE's text (BoardToString on the sender, StringToBoard on every receiver) against
+// UPDATE_BOARD_PACKED's BoardCodec (decoded into a reused array), and BOARD_DELTA's BoardDelta for a placed piece
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class SerializationBenchmark {
+    private static final int[] NO_ROWS = new int[0];
+
+    private Board board;
+    private String encoded;
+    private TetrisEngine engine;
+    private Tetris view;
+    private BoardCodec codec;
+    private String packed;
+    private TColor[][] decoded;
+    private Board placed;
+    private BoardDelta delta;
+    private boolean deltaToggle;
+    private String deltaRows;
+    private String deltaCells;
+
+    @Setup
+    public void setUp() {
+        board = BenchmarkBoards.realistic(new Random(42));
+        engine = new TetrisEngine(new Random(42));
+        view = new Tetris(new GameLoop(engine));
+        encoded = engine.BoardToString(board);
+        codec = new BoardCodec();
+        packed = codec.encode(board);
+        decoded = new TColor[Board.WIDTH][Board.HEIGHT];
+
+        placed = new Board();
+        placed.copyFrom(board);
+        int y = placed.dropDistance(Tetromino.T_PIECE, Rotation._0, 4, 0);
+        placed.place(Tetromino.T_PIECE, Rotation._0, 4, y);
+        delta = new BoardDelta();
+        for (int i = 0; i < 2; i++) {
+            delta.next(i == 0 ? board : placed, NO_ROWS, 0); // the first one is always a keyframe
+        }
+        String[] fields = delta.delta().split(" ");
+        deltaRows = fields[1];
+        deltaCells = fields[2];
+    }
+
+    @Benchmark
+    public String boardToString() {
+        return engine.BoardToString(board);
+    }
+
+    @Benchmark
+    public TColor[][] stringToBoard() {
+        return view.StringToBoard(encoded);
+    }
+
+    @Benchmark
+    public TColor[][] roundTrip() {
+        return view.StringToBoard(engine.BoardToString(board));
+    }
+
+    @Benchmark
+    public String packedEncode() {
+        return codec.encode(board);
+    }
+
+    @Benchmark
+    public TColor[][] packedDecode() {
+        BoardCodec.decode(packed, decoded);
+        return decoded;
+    }
+
+    @Benchmark
+    public TColor[][] packedRoundTrip() {
+        BoardCodec.decode(codec.encode(board), decoded);
+        return decoded;
+    }
+
+    // alternates between the board and the board with a T placed on it, so every call is a 4 cell delta
+    @Benchmark
+    public String deltaEncode() {
+        deltaToggle = !deltaToggle;
+        delta.next(deltaToggle ? board : placed, NO_ROWS, 0);
+        return delta.delta();
+    }
+
+    @Benchmark
+    public TColor[][] deltaApply() {
+        BoardDelta.apply(deltaRows, deltaCells, decoded);
+        return decoded;
+    }
+}
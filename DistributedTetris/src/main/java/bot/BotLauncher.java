@@ -0,0 +1,147 @@
+package bot;
+
+import matchmaking.Matchmaker;
+import networking.Connection;
+import networking.NioNetwork;
+import networking.RealClient;
+import networking.SnapshotChannel;
+import networking.TaskThreads;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Inet4Address;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+// Load generator: a Matchmaker and N bot clients in one JVM, talking the normal protocol over loopback sockets.
+// Once everyone is connected the bots start playing, and every few seconds this prints message rates and CPU time
+// per player, e.g. to compare 8, 32 and 128 players.
+// With -Dtetris.network=nio all the bots share one NioNetwork selector thread instead of a thread per connection.
+public class BotLauncher {
+    private static final int REPORT_INTERVAL_MS = 5000;
+    private static final int MESH_TIMEOUT_MS = 60_000;
+
+    private static final com.sun.management.OperatingSystemMXBean OS =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 8) {
+            System.err.println("must specify port and address to host the matchmaking server on, number of bots and how long to run");
+            System.err.println("usage: -port [portNumber] -addr [ipAddress] -bots [count] -seconds [duration]");
+            System.err.println("ex: -port 26000 -addr localhost -bots 32 -seconds 60");
+            return;
+        }
+        int port = Integer.parseInt(args[1]);
+        String address = args[3];
+        int botCount = Integer.parseInt(args[5]);
+        int seconds = Integer.parseInt(args[7]);
+
+        ServerSocket matchmakerSocket = new ServerSocket(port, 50, Inet4Address.getByName(address));
+        TaskThreads.DEFAULT.start("matchmaker", () -> {
+            try {
+                Matchmaker.acceptPeers(matchmakerSocket);
+            } catch (IOException e) {
+                System.out.println("Matchmaker stopped: " + e.getMessage());
+            }
+        });
+
+        NioNetwork network = RealClient.USE_NIO ? new NioNetwork() : null;
+        List<RealClient> clients = new ArrayList<>();
+        for (int i = 0; i < botCount; i++) {
+            RealClient client = new RealClient(network);
+            if (!client.connect(address, port)) {
+                throw new IOException("bot " + i + " could not reach the matchmaker");
+            }
+            waitForHosting(client);
+            clients.add(client);
+        }
+        waitForMesh(clients);
+
+        List<BotPlayer> bots = new ArrayList<>();
+        for (int i = 0; i < clients.size(); i++) {
+            BotPlayer bot = new BotPlayer(clients.get(i).startHeadlessGame());
+            bot.start("bot-" + i);
+            bots.add(bot);
+        }
+        System.out.println("Started " + bots.size() + " bots");
+
+        report(bots, seconds);
+        System.exit(0);
+    }
+
+    // the Matchmaker tells the next bot to join this one right away, so it had better be listening by then
+    private static void waitForHosting(RealClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MESH_TIMEOUT_MS;
+        while (!client.isHosting() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    // every bot should be connected to every other one (or on a relay tree, to its parent and children) before the
+    // games start, or early board updates go nowhere
+    private static void waitForMesh(List<RealClient> clients) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + MESH_TIMEOUT_MS;
+        int n = clients.size();
+        long expected = Matchmaker.FANOUT > 0 ? 2L * (n - 1) : (long) n * (n - 1); // both ends of every connection
+        while (System.currentTimeMillis() < deadline) {
+            long connected = 0;
+            for (RealClient client : clients) {
+                connected += client.connectionCount();
+            }
+            if (connected >= expected) {
+                System.out.println("All " + n + " bots connected, " + connected / 2 + " connections");
+                return;
+            }
+            Thread.sleep(100);
+        }
+        System.out.println("Timed out waiting for a full mesh, starting anyway");
+    }
+
+    private static void report(List<BotPlayer> bots, int seconds) throws InterruptedException {
+        int players = bots.size();
+        long end = System.currentTimeMillis() + seconds * 1000L;
+        long lastTime = System.nanoTime();
+        long lastCpu = OS.getProcessCpuTime();
+        long lastSent = Connection.messagesSent();
+        long lastReceived = Connection.messagesReceived();
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(REPORT_INTERVAL_MS);
+            long now = System.nanoTime();
+            long cpu = OS.getProcessCpuTime();
+            long sent = Connection.messagesSent();
+            long received = Connection.messagesReceived();
+            double elapsed = (now - lastTime) / 1e9;
+
+            long pieces = 0;
+            long attacks = 0;
+            long bombs = 0;
+            long losses = 0;
+            for (BotPlayer bot : bots) {
+                pieces += bot.getPiecesPlaced();
+                attacks += bot.getAttacksSent();
+                bombs += bot.getBombsDropped();
+                losses += bot.getGamesLost();
+            }
+
+            System.out.printf("players %d | sent %.0f msg/s (%.1f per player) | received %.0f msg/s (%.1f per player) | "
+                            + "cpu %.2f cores (%.1f ms/s per player) | threads %d | pieces %d, attacks %d, bombs %d, losses %d%n",
+                    players,
+                    (sent - lastSent) / elapsed, (sent - lastSent) / elapsed / players,
+                    (received - lastReceived) / elapsed, (received - lastReceived) / elapsed / players,
+                    (cpu - lastCpu) / 1e9 / elapsed, (cpu - lastCpu) / 1e6 / elapsed / players,
+                    Thread.activeCount(), pieces, attacks, bombs, losses);
+            System.out.println(Connection.flushSummary());
+            System.out.println(Connection.batchSummary());
+            System.out.println(Connection.queueTotals());
+            if (SnapshotChannel.ENABLED) {
+                System.out.println(SnapshotChannel.summary());
+            }
+
+            lastTime = now;
+            lastCpu = cpu;
+            lastSent = sent;
+            lastReceived = received;
+        }
+    }
+}
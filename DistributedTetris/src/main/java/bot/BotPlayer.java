@@ -0,0 +1,185 @@
+package bot;
+
+import tetris.Board;
+import tetris.GameEvent;
+import tetris.GameInput;
+import tetris.GameLoop;
+import tetris.Rotation;
+import tetris.TGameStatus;
+import tetris.TetrisEngine;
+import tetris.Tetromino;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// Plays a headless game by posting the same GameInputs a keyboard would, one placement every `placementDelayMs`.
+// The engine is only read through a snapshot taken on the game loop thread, and the search runs off the loop so a
+// slow decision never stalls gravity or the network.
+//
+// Besides stacking it spends ammo like a player would: it sends pieces it has no good spot for as attacks, sends
+// anything once ammo is nearly full, and bombs its tallest column when the stack gets high.
+public class BotPlayer implements Runnable {
+    public static final int DEFAULT_PLACEMENT_DELAY_MS = 250;
+    private static final int AMMO_RESERVE = 4; // keep enough to absorb a few incoming attacks
+    private static final int BOMB_STACK_HEIGHT = 8;
+    private static final int RESTART_DELAY_MS = 2000;
+
+    private final GameLoop loop;
+    private final int placementDelayMs;
+    private final Snapshot snapshot = new Snapshot();
+    private volatile boolean running;
+
+    // written by the bot thread only
+    private volatile long piecesPlaced;
+    private volatile long attacksSent;
+    private volatile long bombsDropped;
+    private volatile long gamesLost;
+
+    public BotPlayer(GameLoop loop) {
+        this(loop, DEFAULT_PLACEMENT_DELAY_MS);
+    }
+
+    public BotPlayer(GameLoop loop, int placementDelayMs) {
+        this.loop = loop;
+        this.placementDelayMs = placementDelayMs;
+    }
+
+    public void start(String name) {
+        running = true;
+        Thread thread = new Thread(this, name); // a daemon platform thread, see TaskThreads
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                Thread.sleep(placementDelayMs);
+                takeSnapshot();
+                if (snapshot.status == TGameStatus.GAME_OVER) {
+                    gamesLost++;
+                    Thread.sleep(RESTART_DELAY_MS);
+                    loop.post(GameInput.RESTART);
+                } else if (snapshot.status == TGameStatus.PLAYING) {
+                    playPiece();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void playPiece() {
+        Placement best = PlacementSearch.best(snapshot.board, snapshot.piece, snapshot.y);
+        boolean canAttack = snapshot.ammo >= TetrisEngine.ATTACK_AMMO_COST + AMMO_RESERVE;
+        boolean attack = canAttack && (best == null || best.holes > snapshot.holes
+                || snapshot.ammo >= TetrisEngine.MAX_AMMO_AMT - TetrisEngine.ATTACK_AMMO_COST);
+        boolean bomb = !attack && snapshot.canBomb
+                && PlacementSearch.stackHeight(snapshot.board) >= BOMB_STACK_HEIGHT;
+
+        if (attack != snapshot.attacking) {
+            loop.post(GameInput.TOGGLE_MODE);
+        }
+        if (bomb) {
+            moveTo(snapshot.rotation, bombX());
+            loop.post(GameInput.HARD_DROP_AND_BOMB);
+            bombsDropped++;
+        } else if (attack || best == null) {
+            loop.post(GameInput.HARD_DROP); // an attack lands wherever it is dropped on the opponents' boards
+            attacksSent += attack ? 1 : 0;
+        } else {
+            moveTo(best.rotation, best.x);
+            loop.post(GameInput.HARD_DROP);
+            piecesPlaced++;
+        }
+    }
+
+    // the bomb clears a 5x5 square starting one column left of the piece, so aim that at the tallest column
+    private int bombX() {
+        int x = PlacementSearch.tallestColumn(snapshot.board) - 1;
+        int maxX = Board.WIDTH - snapshot.piece.width(snapshot.rotation);
+        x = Math.max(0, Math.min(x, maxX));
+        return snapshot.board.collides(snapshot.piece, snapshot.rotation, x, snapshot.y) ? snapshot.x : x;
+    }
+
+    private void moveTo(Rotation rotation, int x) {
+        int turns = (rotation.toInt() - snapshot.rotation.toInt() + 4) % 4;
+        // TetrisEngine.rotate flips the direction of single turns for the T piece
+        boolean flipped = snapshot.piece == Tetromino.T_PIECE;
+        switch (turns) {
+            case 1 -> loop.post(flipped ? GameInput.ROTATE_CCW : GameInput.ROTATE_CW);
+            case 2 -> loop.post(GameInput.ROTATE_180);
+            case 3 -> loop.post(flipped ? GameInput.ROTATE_CW : GameInput.ROTATE_CCW);
+            default -> {
+            }
+        }
+        GameInput step = x < snapshot.x ? GameInput.MOVE_LEFT : GameInput.MOVE_RIGHT;
+        for (int i = Math.abs(x - snapshot.x); i > 0; i--) {
+            loop.post(step);
+        }
+    }
+
+    // copies what the bot needs out of the engine on the loop thread, then waits for it
+    private void takeSnapshot() throws InterruptedException {
+        CompletableFuture<Void> taken = new CompletableFuture<>();
+        loop.post(GameEvent.callback(engine -> {
+            snapshot.copyFrom(engine);
+            taken.complete(null);
+        }));
+        try {
+            taken.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public long getPiecesPlaced() {
+        return piecesPlaced;
+    }
+
+    public long getAttacksSent() {
+        return attacksSent;
+    }
+
+    public long getBombsDropped() {
+        return bombsDropped;
+    }
+
+    public long getGamesLost() {
+        return gamesLost;
+    }
+
+    private static final class Snapshot {
+        final Board board = new Board();
+        TGameStatus status;
+        Tetromino piece;
+        Rotation rotation;
+        int x;
+        int y;
+        int ammo;
+        int holes;
+        boolean canBomb;
+        boolean attacking;
+
+        void copyFrom(TetrisEngine engine) {
+            status = engine.getStatus();
+            if (engine.getBoard() == null) {
+                return; // the loop hasn't run init() yet
+            }
+            board.copyFrom(engine.getBoard());
+            piece = engine.getCurrentPiece();
+            rotation = engine.getCurrentRotation();
+            x = engine.getPieceX();
+            y = engine.getPieceY();
+            ammo = engine.getAmmo();
+            holes = PlacementSearch.holes(board);
+            canBomb = engine.canBomb();
+            attacking = engine.isAttacking();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package bot;
+
+import tetris.Rotation;
+
+// Where a bot decided to put a piece, and how good the board looks afterwards
+public final class Placement {
+    public final Rotation rotation;
+    public final int x;
+    public final double score;
+    public final int holes;
+
+    Placement(Rotation rotation, int x, double score, int holes) {
+        this.rotation = rotation;
+        this.x = x;
+        this.score = score;
+        this.holes = holes;
+    }
+
+    static Placement better(Placement a, Placement b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return b.score > a.score ? b : a;
+    }
+
+    @Override
+    public String toString() {
+        return "rotation " + rotation + ", x " + x + ", score " + score;
+    }
+}
@@ -0,0 +1,139 @@
+package bot;
+
+import tetris.Board;
+import tetris.Rotation;
+import tetris.Tetromino;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Picks where to drop a piece by trying every rotation x column and scoring the board it leaves behind:
+// aggregate height, lines cleared, holes and bumpiness, with the weights from Yiyuan Lee's tuned Tetris AI.
+// The candidates are split across a ForkJoinPool shared by every bot in the process; each leaf scores its share on
+// its own scratch board, so nothing is shared but the (read-only) board being searched.
+public final class PlacementSearch {
+    private static final double HEIGHT_WEIGHT = -0.510066;
+    private static final double LINES_WEIGHT = 0.760666;
+    private static final double HOLES_WEIGHT = -0.35663;
+    private static final double BUMPINESS_WEIGHT = -0.184483;
+    private static final int CANDIDATES = Rotation.ORDER.length * Board.WIDTH;
+    private static final int LEAF_CANDIDATES = Board.WIDTH; // one rotation's worth of columns per leaf
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private PlacementSearch() {
+    }
+
+    // Best placement for `piece` starting at row y, or null if it can't go anywhere. The board isn't modified.
+    public static Placement best(Board board, Tetromino piece, int y) {
+        return POOL.invoke(new Search(board, piece, y, 0, CANDIDATES));
+    }
+
+    // open cells with something filled above them, over the playable columns
+    public static int holes(Board board) {
+        int holes = 0;
+        for (int x = 1; x < Board.WIDTH - 1; x++) {
+            for (int y = board.columnTop(x) + 1; y <= Board.BOTTOM_PLAYABLE_ROW; y++) {
+                if (board.isOpen(x, y)) {
+                    holes++;
+                }
+            }
+        }
+        return holes;
+    }
+
+    // height of the tallest playable column, in rows above the floor
+    public static int stackHeight(Board board) {
+        int top = Board.FLOOR_ROW;
+        for (int x = 1; x < Board.WIDTH - 1; x++) {
+            top = Math.min(top, board.columnTop(x));
+        }
+        return Board.FLOOR_ROW - top;
+    }
+
+    // x of the tallest playable column
+    public static int tallestColumn(Board board) {
+        int tallest = 1;
+        for (int x = 2; x < Board.WIDTH - 1; x++) {
+            if (board.columnTop(x) < board.columnTop(tallest)) {
+                tallest = x;
+            }
+        }
+        return tallest;
+    }
+
+    static double score(Board board, int linesCleared) {
+        int aggregateHeight = 0;
+        int bumpiness = 0;
+        int previousHeight = -1;
+        for (int x = 1; x < Board.WIDTH - 1; x++) {
+            int height = Board.FLOOR_ROW - Math.min(board.columnTop(x), Board.FLOOR_ROW);
+            aggregateHeight += height;
+            if (previousHeight >= 0) {
+                bumpiness += Math.abs(height - previousHeight);
+            }
+            previousHeight = height;
+        }
+        return HEIGHT_WEIGHT * aggregateHeight
+                + LINES_WEIGHT * linesCleared
+                + HOLES_WEIGHT * holes(board)
+                + BUMPINESS_WEIGHT * bumpiness;
+    }
+
+    // deletes the full rows in [fromRow, toRow], top to bottom so the rows above shift onto already-checked rows
+    static int clearFullRows(Board board, int fromRow, int toRow) {
+        int cleared = 0;
+        for (int y = Math.max(fromRow, 0); y <= Math.min(toRow, Board.BOTTOM_PLAYABLE_ROW); y++) {
+            if (board.isRowFull(y)) {
+                board.deleteRow(y);
+                cleared++;
+            }
+        }
+        return cleared;
+    }
+
+    private static final class Search extends RecursiveTask<Placement> {
+        private static final long serialVersionUID = 3508621974310782215L;
+
+        private final transient Board board;
+        private final Tetromino piece;
+        private final int y;
+        private final int from;
+        private final int to;
+
+        Search(Board board, Tetromino piece, int y, int from, int to) {
+            this.board = board;
+            this.piece = piece;
+            this.y = y;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Placement compute() {
+            if (to - from > LEAF_CANDIDATES) {
+                int middle = (from + to) >>> 1;
+                Search left = new Search(board, piece, y, from, middle);
+                left.fork();
+                Placement right = new Search(board, piece, y, middle, to).compute();
+                return Placement.better(left.join(), right);
+            }
+
+            Board scratch = new Board();
+            Placement best = null;
+            for (int candidate = from; candidate < to; candidate++) {
+                Rotation rotation = Rotation.ORDER[candidate / Board.WIDTH];
+                int x = candidate % Board.WIDTH;
+                if (board.collides(piece, rotation, x, y)) {
+                    continue;
+                }
+                int landingY = y + board.dropDistance(piece, rotation, x, y);
+                scratch.copyFrom(board);
+                scratch.place(piece, rotation, x, landingY);
+                int lines = clearFullRows(scratch, landingY, landingY + piece.height(rotation) - 1);
+                Placement placement = new Placement(rotation, x, score(scratch, lines), holes(scratch));
+                best = Placement.better(best, placement);
+            }
+            return best;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package matchmaking;
 
 import networking.MessageType;
+import networking.TaskThreads;
 import networking.Transceiver;
 
 import java.io.*;
@@ -8,16 +9,49 @@ import java.net.Inet4Address;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Matchmaker {
+    // -Dtetris.fanout=N lays peers out on a RelayTree with at most N children each rather than a full mesh, and
+    // tells them (in HOST_ON) to relay broadcasts; 0 is the full mesh
+    public static final int FANOUT = Integer.getInteger("tetris.fanout", 0);
+    // on a relay tree, peers join and leave under this so every peer hears the lobby sizes in the order they happened
+    // (a lock rather than a monitor: the sends block, see TaskThreads)
+    private static final ReentrantLock lobby = new ReentrantLock();
 
     public static void invitePeerToGroup(Peer newPeer, ArrayList<Peer> peers) {
         for (Peer p : peers) {
-            newPeer.send(MessageType.CONNECT_TO,p.addr + " " + p.port + " " + p.processID); // send special special connection message to the joining peer
+            newPeer.queue(MessageType.CONNECT_TO,p.addr + " " + p.port + " " + p.processID); // send special special connection message to the joining peer
         }
         peers.add(newPeer); // add new peer after giving new peer list of existing peers
-        newPeer.send("done"); // tell peer that's all of the connections, not sure if necessary (it isn't)
+        newPeer.send("done"); // tell peer that's all of the connections, not sure if necessary (it isn't); flushes the CONNECT_TOs too
+    }
+
+    // on a relay tree the new peer only connects to its parent
+    static void invitePeerToTree(Peer newPeer, ArrayList<Peer> peers, RelayTree tree) {
+        Peer parent = tree.join(newPeer);
+        if (parent != null) {
+            newPeer.queue(MessageType.CONNECT_TO, parent.addr + " " + parent.port + " " + parent.processID);
+        }
+        lobby.lock();
+        try {
+            peers.add(newPeer);
+            newPeer.send("done");
+            announceLobbySize(peers);
+        } finally {
+            lobby.unlock();
+        }
+    }
+
+    // A peer on a relay tree only has its neighbors as connections, so it can't count the votes a random event needs
+    // by itself; every peer is told the lobby's size whenever it changes. Called with `lobby` held.
+    static void announceLobbySize(ArrayList<Peer> peers) {
+        String size = Integer.toString(peers.size());
+        for (Peer p : peers) {
+            p.send(MessageType.LOBBY_SIZE, size);
+        }
     }
 
     public static void main(String args[]) {
@@ -35,36 +69,51 @@ public class Matchmaker {
         String address = args[3];
 
         ArrayList<Peer> peers = new ArrayList<>();
+        RelayTree tree = FANOUT > 0 ? new RelayTree(FANOUT) : null;
 
-        new Thread(new PollPeers(peers)).start();
-        int connectionNumber = 0;
+        TaskThreads.DEFAULT.start("matchmaker-console", new PollPeers(peers, tree));
         try {
             ServerSocket serverSocket = new ServerSocket(port, 50, Inet4Address.getByName(address));
             System.out.println("Matchmaker listening on " + address + ", port " + port); // added to run configs for now
-            while(true){
+            acceptPeers(serverSocket, peers, tree);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Connection request received from " + clientSocket.getInetAddress().toString().substring(1) + " at port " + clientSocket.getPort() + " (process number: " + connectionNumber + ")");
-                OutputStream outStream = clientSocket.getOutputStream();
-                InputStream inStream = clientSocket.getInputStream();
-                Transceiver tr = new Transceiver(connectionNumber, inStream, outStream); // shiny stream handler
+    // runs a matchmaker on an already bound socket until it's closed (for running one in-process, e.g. bot.BotLauncher)
+    public static void acceptPeers(ServerSocket serverSocket) throws IOException {
+        acceptPeers(serverSocket, new ArrayList<>(), FANOUT > 0 ? new RelayTree(FANOUT) : null);
+    }
 
-                String peerAddress = clientSocket.getInetAddress().toString().substring(1);
-                int peerPort = clientSocket.getPort();
+    static void acceptPeers(ServerSocket serverSocket, ArrayList<Peer> peers, RelayTree tree) throws IOException {
+        int connectionNumber = 0;
+        while(true){
 
-                Peer p = new Peer(tr, peerAddress, peerPort, connectionNumber); // generate new peer object to store in array
+            Socket clientSocket = serverSocket.accept();
+            System.out.println("Connection request received from " + clientSocket.getInetAddress().toString().substring(1) + " at port " + clientSocket.getPort() + " (process number: " + connectionNumber + ")");
+            Transceiver tr = new Transceiver(connectionNumber, clientSocket); // shiny stream handler
 
-                String connectionRequestCommand = peerAddress + " " + peerPort + " " + connectionNumber; // should be "<ip address with '/' trimmed off> <port number>"
+            String peerAddress = clientSocket.getInetAddress().toString().substring(1);
+            int peerPort = clientSocket.getPort();
 
-                p.send(MessageType.HOST_ON, connectionRequestCommand); // tell newly joined peer to host on ip + port that it joined the matchmaker with (it doesn't know by default)
-                connectionNumber++;
-                invitePeerToGroup(p, peers); // give peer list of currently active peers
+            Peer p = new Peer(tr, peerAddress, peerPort, connectionNumber); // generate new peer object to store in array
 
-                PeerLeaveThread pLeave = new PeerLeaveThread(p, peers); // have the Matchmaker eavesdrop on broadcasts and take off peers from the connected peers array when they send SHUTDOWN messages
-                new Thread(pLeave).start();
+            String connectionRequestCommand = peerAddress + " " + peerPort + " " + connectionNumber; // should be "<ip address with '/' trimmed off> <port number>"
+            if (tree != null) {
+                connectionRequestCommand += " 1"; // relay broadcasts
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+
+            p.send(MessageType.HOST_ON, connectionRequestCommand); // tell newly joined peer to host on ip + port that it joined the matchmaker with (it doesn't know by default)
+            connectionNumber++;
+            if (tree != null) {
+                invitePeerToTree(p, peers, tree);
+            } else {
+                invitePeerToGroup(p, peers); // give peer list of currently active peers
+            }
+
+            PeerLeaveThread pLeave = new PeerLeaveThread(p, peers, tree); // have the Matchmaker eavesdrop on broadcasts and take off peers from the connected peers array when they send SHUTDOWN messages
+            TaskThreads.DEFAULT.start("peer-leave-" + p.processID, pLeave);
         }
     }
 
@@ -86,6 +135,10 @@ public class Matchmaker {
                         // besides SHUTDOWN messages, but those are handled in Transceiver automatically
             return tr.isClosed;
         }
+        // buffered until the next send
+        public void queue(MessageType type, String message) {
+            tr.queue(type, message);
+        }
         // overloaded send method, optional type, default to MessageType.NORMAL
         public void send(MessageType type, String message) {
             tr.send(type, message);
@@ -103,17 +156,34 @@ public class Matchmaker {
     static class PeerLeaveThread implements Runnable {
         Peer peer;
         ArrayList<Peer> peers;
+        RelayTree tree; // null for a full mesh
 
-        public PeerLeaveThread(Peer peer, ArrayList<Peer> peers) {
+        public PeerLeaveThread(Peer peer, ArrayList<Peer> peers, RelayTree tree) {
             this.peer = peer;
             this.peers = peers;
+            this.tree = tree;
         }
 
         @Override
         public void run() {
             while (true) {
                 if (peer.hasLeft()) {
-                    peers.remove(peer);
+                    if (tree == null) {
+                        peers.remove(peer);
+                    } else {
+                        lobby.lock();
+                        try {
+                            peers.remove(peer);
+                            announceLobbySize(peers);
+                        } finally {
+                            lobby.unlock();
+                        }
+                        // the peer's children lost their way to the rest of the tree, hang them somewhere else
+                        for (Map.Entry<Peer, Peer> move : tree.leave(peer).entrySet()) {
+                            Peer parent = move.getValue();
+                            move.getKey().send(MessageType.CONNECT_TO, parent.addr + " " + parent.port + " " + parent.processID);
+                        }
+                    }
                     return;
                 }
             }
@@ -123,9 +193,11 @@ public class Matchmaker {
     // debug command thread for showing currently connected peers
     static class PollPeers implements Runnable {
         ArrayList<Peer> peers;
+        RelayTree tree;
 
-        public PollPeers(ArrayList<Peer> peers) {
+        public PollPeers(ArrayList<Peer> peers, RelayTree tree) {
             this.peers = peers;
+            this.tree = tree;
         }
 
         @Override
@@ -142,6 +214,9 @@ public class Matchmaker {
                             System.out.println(p);
                         }
                     }
+                    if (tree != null) {
+                        System.out.print("RELAY TREE (peer: children)\n" + tree.describe());
+                    }
                 }
             }
         }
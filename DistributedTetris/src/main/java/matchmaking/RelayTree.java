@@ -0,0 +1,104 @@
+package matchmaking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// The spanning tree the Matchmaker lays peers out on when -Dtetris.fanout is set, instead of a full mesh: each peer
+// only connects to its parent and at most `fanout` children, and broadcasts are relayed along the tree (see
+// RealClient). A joining peer goes under the shallowest peer with room. When a peer leaves, each of its children is
+// hung under the shallowest peer with room that isn't in that child's own subtree (which is cut loose until it's
+// reattached, so it can't be reached from the root), so a tree comes out again.
+// All of it under the tree's monitor: joins come from the accepting thread, leaves from the peers' leave threads.
+class RelayTree {
+    private final int fanout;
+    private final Map<Matchmaker.Peer, Matchmaker.Peer> parents = new HashMap<>();
+    private final Map<Matchmaker.Peer, List<Matchmaker.Peer>> children = new HashMap<>();
+    private Matchmaker.Peer root;
+
+    RelayTree(int fanout) {
+        this.fanout = fanout;
+    }
+
+    // the parent for a new peer to connect to, null for the first one
+    synchronized Matchmaker.Peer join(Matchmaker.Peer peer) {
+        children.put(peer, new ArrayList<>());
+        Matchmaker.Peer parent = root == null ? null : roomUnder(root);
+        attach(peer, parent);
+        return parent;
+    }
+
+    // takes the peer out, returning the new parent each of its children has to connect to, in the order to tell them
+    synchronized Map<Matchmaker.Peer, Matchmaker.Peer> leave(Matchmaker.Peer peer) {
+        Map<Matchmaker.Peer, Matchmaker.Peer> moves = new LinkedHashMap<>();
+        List<Matchmaker.Peer> orphans = children.remove(peer);
+        if (orphans == null) {
+            return moves; // already gone
+        }
+        Matchmaker.Peer parent = parents.remove(peer);
+        if (parent != null) {
+            children.get(parent).remove(peer);
+        }
+        for (Matchmaker.Peer orphan : orphans) {
+            parents.remove(orphan);
+        }
+        int next = 0;
+        if (peer == root) {
+            // the first child takes over as root, its own subtree and connections stay as they are
+            root = orphans.isEmpty() ? null : orphans.get(next++);
+        }
+        for (; next < orphans.size(); next++) {
+            Matchmaker.Peer orphan = orphans.get(next);
+            Matchmaker.Peer newParent = roomUnder(root);
+            attach(orphan, newParent);
+            moves.put(orphan, newParent);
+        }
+        return moves;
+    }
+
+    private void attach(Matchmaker.Peer peer, Matchmaker.Peer parent) {
+        if (parent == null) {
+            root = peer;
+            return;
+        }
+        parents.put(peer, parent);
+        children.get(parent).add(peer);
+    }
+
+    // breadth first from `top`, the first peer with fewer than `fanout` children
+    private Matchmaker.Peer roomUnder(Matchmaker.Peer top) {
+        ArrayDeque<Matchmaker.Peer> queue = new ArrayDeque<>();
+        queue.add(top);
+        while (true) {
+            Matchmaker.Peer peer = queue.poll();
+            List<Matchmaker.Peer> under = children.get(peer);
+            if (under.size() < fanout) {
+                return peer;
+            }
+            queue.addAll(under);
+        }
+    }
+
+    // for debugging: "<peer id>: <child ids>" per peer, breadth first
+    synchronized String describe() {
+        if (root == null) {
+            return "(empty)";
+        }
+        StringBuilder description = new StringBuilder();
+        ArrayDeque<Matchmaker.Peer> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Matchmaker.Peer peer = queue.poll();
+            description.append(peer.processID).append(':');
+            for (Matchmaker.Peer child : children.get(peer)) {
+                description.append(' ').append(child.processID);
+                queue.add(child);
+            }
+            description.append('\n');
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,589 @@
+package networking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+// One connection to a peer (or the Matchmaker), speaking length-prefixed frames:
+//   [opcode: byte, the MessageType's opcode][sender: int, process id][length: int][content: `length` bytes of UTF-8]
+// after a 4 byte preamble (PROTOCOL_MAGIC) each side writes first, so a peer speaking some other protocol, or another
+// version of this one, is turned away instead of misread. Content can hold anything, spaces and newlines included.
+//
+// Messages are queued by priority, in lanes that each keep their order: URGENT for what changes the game (ATTACK,
+// DEBRIS, DEATH, PROPOSE, START_RANDOM_EVENT), NORMAL for everything else, BOARD for board updates (and for relayed
+// ones, RELAYED_BOARDS, see below). A write takes the lanes in that order, so an attack doesn't wait behind board
+// state. Board state is latest-wins, so the BOARD lane holds one message: a newer board replaces the one still queued
+// (RealClient sends a keyframe instead of a delta then, see boardQueued()). The rest is bounded by MAX_QUEUED_BYTES.
+// Past it, the relayed boards go first (their receivers catch up at each origin's next periodic keyframe), and only a
+// peer whose queue is still full after that is disconnected: with the writes off the flushing thread (a writer thread
+// or the selector), flushing early can't make a peer read, so a queue that never drains has to end somewhere.
+// send() flushes right away; queue() leaves the message for the next flush(), which the game loop does once per
+// step, so everything a tick sends leaves in one write. Writes are counted so flushSummary() can show how well sends
+// coalesce, and queueSummary() has each connection's queue depth and collapsed boards.
+//
+// A peer that announced BATCH_CAPABILITY gets everything a write takes as a single BATCH frame, whose content is
+// the messages one after another as [opcode: byte][length: int][content], all from the frame's sender; a flush of
+// one message still goes out as a plain frame. The receiving Connection unpacks it in order, so a MessageHandler
+// never sees a BATCH. batchSummary() has the distribution of messages per flush.
+//
+// A RELAY frame is a broadcast being passed along a relay overlay (see RealClient): its content is
+// [origin: int][sequence: int][opcode: byte][content], the frame's sender being the neighbor that passed it on. The
+// MessageHandler's onRelay says whether it's new (passing it on if so), and then it's decoded as if `origin` had sent
+// it directly. Relays are queued by what they carry: urgent ones in URGENT, boards in a RELAYED_BOARDS lane of their
+// own, which holds every origin's boards in order, and where an origin's keyframe replaces whatever of its boards are
+// still queued (a delta can't, it only applies on top of the ones before it).
+// A blocking write can hold the lock, so it's a ReentrantLock rather than a monitor, which would pin a virtual thread
+// (see TaskThreads) to its carrier for as long as a slow peer takes.
+//
+// How bytes actually move is up to the subclass: Transceiver blocks on socket streams with a thread per connection
+// (and with startWriter(), a writer thread of its own, so a stalled peer never holds up whoever flushes), while
+// NioConnection is driven by a NioNetwork selector and leaves the lanes queued while the socket is full. Both speak the
+// same frames, so either can talk to the other.
+public abstract class Connection {
+    // Bumped whenever the framing or the meaning of an existing opcode changes. A new opcode doesn't need it: a peer
+    // that doesn't know one drops it, and the optional ones only go to peers that announced them.
+    public static final int PROTOCOL_VERSION = 1;
+    private static final int PROTOCOL_FAMILY = 0x54524600; // "TRF", followed by the version as a digit
+    public static final int PROTOCOL_MAGIC = PROTOCOL_FAMILY | ('0' + PROTOCOL_VERSION); // "TRF1"
+    static final int PREAMBLE_BYTES = 4;
+    static final int HEADER_BYTES = 9;
+    static final int BATCHED_HEADER_BYTES = 5;
+    static final int RELAY_HEADER_BYTES = 9;
+    static final int MAX_CONTENT_BYTES = 1 << 20;
+    private static final int BUFFER_BYTES = 16 * 1024;
+    private static final int URGENT_BYTES = 1024;
+    private static final int BOARD_BYTES = 1024;
+    static final int MAX_QUEUED_BYTES = 512 * 1024; // what a BATCH of the queue holds stays under MAX_CONTENT_BYTES
+    private static final int URGENT = 0;
+    private static final int NORMAL = 1;
+    private static final int BOARD = 2;
+    private static final int RELAYED_BOARDS = 3;
+    private static final int[] LANE_OF = new int[256]; // by opcode
+    public static final String BATCH_CAPABILITY = "batch";
+    private static final String[] BATCH_SIZES = {"1", "2", "3-4", "5-8", "9-16", "17-32", "33+"};
+
+    // totals for every connection in this process, so a load test can report message rates
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder received = new LongAdder();
+    private static final LongAdder flushes = new LongAdder();
+    private static final LongAdder flushedMessages = new LongAdder();
+    private static final LongAdder flushedBytes = new LongAdder();
+    private static final LongAdder batchFrames = new LongAdder();
+    private static final LongAdder[] batchSizes = new LongAdder[BATCH_SIZES.length]; // flushes by messages flushed
+    private static final LongAdder collapsed = new LongAdder();
+    private static final LongAdder overflows = new LongAdder();
+
+    static {
+        for (int i = 0; i < batchSizes.length; i++) {
+            batchSizes[i] = new LongAdder();
+        }
+        Arrays.fill(LANE_OF, NORMAL);
+        for (MessageType type : MessageType.values()) {
+            LANE_OF[type.opcode] = switch (type) {
+                case ATTACK, DEBRIS, DEATH, PROPOSE, START_RANDOM_EVENT -> URGENT;
+                case UPDATE_BOARD_STATE, UPDATE_BOARD_PACKED, BOARD_DELTA -> BOARD;
+                default -> NORMAL;
+            };
+        }
+    }
+
+    public volatile int contactID;
+    public volatile int localID = -1; // our own process id, stamped on every frame as the sender
+    public volatile boolean isClosed;
+    public volatile boolean packedBoards; // the peer announced BoardCodec.CAPABILITY, so it's sent packed boards
+    public volatile boolean boardDeltas; // the peer announced BoardDelta.CAPABILITY, so it's sent deltas
+    public volatile boolean batches; // the peer announced BATCH_CAPABILITY, so each flush is sent as one frame
+    public volatile boolean debris; // the peer announced EnemyPiece.DEBRIS_CAPABILITY, so it's sent DEBRIS messages
+    public volatile InetSocketAddress snapshots; // where the peer takes SnapshotChannel datagrams, null if it doesn't
+
+    protected final ReentrantLock lock = new ReentrantLock();
+    protected final MessageDecoder decoder = new MessageDecoder(); // the receiving thread's
+    // queued frames by lane, as [opcode: byte][length: int][content] (the sender is stamped on when they're written);
+    // all guarded by lock
+    private final Lane[] lanes = {new Lane(URGENT_BYTES), new Lane(BUFFER_BYTES), new Lane(BOARD_BYTES), new Lane(BUFFER_BYTES)};
+    private boolean flushed; // there's been a flush since the lanes were last written
+    private boolean preambleSent;
+    private byte[] outgoing = new byte[BUFFER_BYTES]; // what take() puts together, only used by whoever writes
+    private int deepest; // most messages ever queued at once
+    private long collapsedBoards;
+
+    protected Connection(int contactID) {
+        this.contactID = contactID;
+    }
+
+    // hand `length` bytes of whole frames to the connection; called with lock held
+    protected abstract void write(byte[] bytes, int length) throws IOException;
+
+    public abstract void close();
+
+    // the peer's address, null if this isn't a socket
+    public abstract InetAddress remoteAddress();
+
+    // queue and flush
+    public void send(MessageType type, String message) {
+        lock.lock();
+        try {
+            queue(type, message);
+            flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // queued until the next flush
+    public void queue(MessageType type, String message) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            byte[] utf8 = isAscii(message) ? null : message.getBytes(StandardCharsets.UTF_8);
+            int length = utf8 == null ? message.length() : utf8.length;
+            Lane lane = lanes[LANE_OF[type.opcode]];
+            int at = frame(lane, type.opcode, length);
+            if (at >= 0) {
+                putText(lane.bytes, at, message, utf8, length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // queued like queue(): a broadcast of ours, or one we're passing on, as a RELAY frame
+    public void queueRelay(int origin, int sequence, MessageType type, String message) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            byte[] utf8 = isAscii(message) ? null : message.getBytes(StandardCharsets.UTF_8);
+            int length = utf8 == null ? message.length() : utf8.length;
+            Lane lane = relayLane(type.opcode);
+            int at = relayFrame(lane, origin, sequence, type.opcode, length);
+            if (at >= 0) {
+                putText(lane.bytes, at, message, utf8, length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void queueRelay(int origin, int sequence, int opcode, byte[] content, int offset, int length) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            Lane lane = relayLane(opcode);
+            int at = relayFrame(lane, origin, sequence, opcode, length);
+            if (at >= 0) {
+                System.arraycopy(content, offset, lane.bytes, at, length);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // whether a board message is still waiting to go out, which the next one would replace: the caller should make
+    // that one a keyframe rather than a delta
+    public boolean boardQueued() {
+        lock.lock();
+        try {
+            return lanes[BOARD].messages > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lane relayLane(int opcode) {
+        int lane = opcode < LANE_OF.length ? LANE_OF[opcode] : NORMAL;
+        return lanes[lane == BOARD ? RELAYED_BOARDS : lane];
+    }
+
+    // Like frame(), for a RELAY carrying `opcode` from `origin`; a keyframe first drops the origin's boards still queued
+    private int relayFrame(Lane lane, int origin, int sequence, int opcode, int length) {
+        if (lane == lanes[RELAYED_BOARDS] && opcode != MessageType.BOARD_DELTA.opcode) {
+            int dropped = lane.dropRelayed(origin);
+            collapsedBoards += dropped;
+            collapsed.add(dropped);
+            sent.add(-dropped); // they never go out
+        }
+        int at = frame(lane, MessageType.RELAY.opcode, RELAY_HEADER_BYTES + length);
+        if (at < 0) {
+            return at;
+        }
+        byte[] bytes = lane.bytes;
+        putInt(bytes, putInt(bytes, at, origin), sequence);
+        bytes[at + 8] = (byte) opcode;
+        return at + RELAY_HEADER_BYTES;
+    }
+
+    private static void putText(byte[] bytes, int at, String message, byte[] utf8, int length) {
+        if (utf8 == null) {
+            for (int i = 0; i < length; i++) {
+                bytes[at + i] = (byte) message.charAt(i);
+            }
+        } else {
+            System.arraycopy(utf8, 0, bytes, at, length);
+        }
+    }
+
+    // Room at the end of `lane` for a message with `length` bytes of content, which go where this returns.
+    // A board message takes the place of the one queued before it, if that hasn't gone out yet. Past MAX_QUEUED_BYTES
+    // outside the BOARD lane (which holds one message anyway) the relayed boards are dropped to make room; -1 (and this
+    // is closed) if that isn't enough.
+    private int frame(Lane lane, int opcode, int length) {
+        int backlog = queuedBytes() - lanes[BOARD].length;
+        if (lane == lanes[BOARD] && lane.messages > 0) {
+            lane.clear();
+            collapsedBoards++;
+            collapsed.increment();
+            sent.decrement(); // it never goes out
+        } else if (backlog + BATCHED_HEADER_BYTES + length > MAX_QUEUED_BYTES) {
+            backlog -= dropRelayedBoards();
+            if (backlog + BATCHED_HEADER_BYTES + length > MAX_QUEUED_BYTES) {
+                System.out.println("Contact " + contactID + " isn't reading, "
+                        + backlog + " bytes already queued for it, disconnecting...");
+                overflows.increment();
+                close();
+                return -1;
+            }
+        }
+        int at = lane.reserve(opcode, length);
+        deepest = Math.max(deepest, queuedMessages());
+        sent.increment();
+        return at;
+    }
+
+    // every relayed board still queued, returning the bytes that freed
+    private int dropRelayedBoards() {
+        Lane lane = lanes[RELAYED_BOARDS];
+        int bytes = lane.length;
+        collapsedBoards += lane.messages;
+        collapsed.add(lane.messages);
+        sent.add(-lane.messages); // they never go out
+        lane.clear();
+        return bytes;
+    }
+
+    public void flush() {
+        lock.lock();
+        try {
+            if (isClosed || queuedMessages() == 0) {
+                return;
+            }
+            flushed = true;
+            flushed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // lock held: there's something to write. Writes it there and then, unless the subclass has it written elsewhere.
+    protected void flushed() {
+        writeFlushed();
+    }
+
+    // lock held: everything queued since the last write goes to write() if there's been a flush since, as one frame
+    // per message or a BATCH; false if that failed (and this is closed)
+    protected boolean writeFlushed() {
+        if (!flushed) {
+            return true;
+        }
+        int length = take();
+        try {
+            write(outgoing, length);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't write to contact " + contactID + ": " + e.getMessage());
+            close();
+            return false;
+        }
+    }
+
+    // lock held: whether there's been a flush with something to write since the last write
+    protected boolean hasFlushed() {
+        return flushed;
+    }
+
+    // lock held: the lanes, most urgent first, put together into `outgoing` as the frames to write, and emptied.
+    // A peer that takes batches gets one BATCH frame (unless it's one message), so whatever piled up while it was
+    // slow still leaves in one frame.
+    protected int take() {
+        int messages = queuedMessages();
+        int bytes = queuedBytes();
+        boolean batch = batches && messages > 1;
+        int size = (preambleSent ? 0 : PREAMBLE_BYTES)
+                + (batch ? HEADER_BYTES + bytes : bytes + messages * (HEADER_BYTES - BATCHED_HEADER_BYTES));
+        if (size > outgoing.length) {
+            outgoing = new byte[Math.max(size, 2 * outgoing.length)];
+        }
+        int at = 0;
+        if (!preambleSent) {
+            at = putInt(outgoing, at, PROTOCOL_MAGIC);
+            preambleSent = true;
+        }
+        if (batch) {
+            at = putHeader(at, MessageType.BATCH.opcode, bytes);
+            for (Lane lane : lanes) {
+                System.arraycopy(lane.bytes, 0, outgoing, at, lane.length);
+                at += lane.length;
+            }
+            batchFrames.increment();
+        } else {
+            for (Lane lane : lanes) {
+                for (int i = 0; i < lane.length; ) {
+                    int length = getInt(lane.bytes, i + 1);
+                    at = putHeader(at, lane.bytes[i] & 0xFF, length);
+                    System.arraycopy(lane.bytes, i + BATCHED_HEADER_BYTES, outgoing, at, length);
+                    at += length;
+                    i += BATCHED_HEADER_BYTES + length;
+                }
+            }
+        }
+        for (Lane lane : lanes) {
+            lane.clear();
+        }
+        flushed = false;
+        flushes.increment();
+        flushedMessages.add(messages);
+        flushedBytes.add(at);
+        batchSizes[Math.min(32 - Integer.numberOfLeadingZeros(messages - 1), batchSizes.length - 1)].increment();
+        return at;
+    }
+
+    // what the last take() put together
+    protected byte[] taken() {
+        return outgoing;
+    }
+
+    private int putHeader(int at, int opcode, int length) {
+        outgoing[at] = (byte) opcode;
+        return putInt(outgoing, putInt(outgoing, at + 1, localID), length);
+    }
+
+    private int queuedMessages() {
+        int messages = 0;
+        for (Lane lane : lanes) {
+            messages += lane.messages;
+        }
+        return messages;
+    }
+
+    private int queuedBytes() {
+        int bytes = 0;
+        for (Lane lane : lanes) {
+            bytes += lane.length;
+        }
+        return bytes;
+    }
+
+    // how deep this connection's queue is and has been, and how many of its board messages were replaced unsent
+    public String queueSummary() {
+        lock.lock();
+        try {
+            return String.format("contact %d: %d queued (%d bytes), deepest %d, %d boards collapsed",
+                    contactID, queuedMessages(), queuedBytes(), deepest, collapsedBoards);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A frame's header and content were read: the Message for it, or a SHUTDOWN (and this closed) if the peer left
+    protected Message received(int opcode, int sender, byte[] content, int offset, int length) {
+        if (isShutdown(opcode, sender)) {
+            return closed();
+        }
+        return new Message(MessageType.fromOpcode(opcode), new String(content, offset, length, StandardCharsets.UTF_8), sender >= 0 ? sender : contactID);
+    }
+
+    // The same, but decoded straight out of `content` into `messages`, a BATCH one message at a time in order; false if
+    // the peer left (and this is closed)
+    protected boolean received(int opcode, int sender, byte[] content, int offset, int length,
+                               MessageHandler messages) {
+        learnSender(sender); // before a relay inside, which is passed on to everyone but its sender
+        if (opcode != MessageType.BATCH.opcode) {
+            return receivedOne(opcode, sender, content, offset, length, messages);
+        }
+        int end = offset + length;
+        while (offset < end) {
+            int batched = end - offset < BATCHED_HEADER_BYTES ? -1 : getInt(content, offset + 1);
+            if (batched < 0 || batched > end - offset - BATCHED_HEADER_BYTES) {
+                System.err.println("Dropped the rest of a malformed batch from " + contactID);
+                return true;
+            }
+            if (!receivedOne(content[offset] & 0xFF, sender, content, offset + BATCHED_HEADER_BYTES, batched, messages)) {
+                return false;
+            }
+            offset += BATCHED_HEADER_BYTES + batched;
+        }
+        return true;
+    }
+
+    private boolean receivedOne(int opcode, int sender, byte[] content, int offset, int length,
+                                MessageHandler messages) {
+        if (opcode == MessageType.RELAY.opcode) {
+            relayed(content, offset, length, messages);
+            return true;
+        }
+        if (isShutdown(opcode, sender)) {
+            closed(messages);
+            return false;
+        }
+        decoder.decode(opcode, content, offset, length, sender >= 0 ? sender : contactID, messages);
+        return true;
+    }
+
+    // a relayed SHUTDOWN is only news that its origin left, this connection stays up
+    private void relayed(byte[] content, int offset, int length, MessageHandler messages) {
+        if (length < RELAY_HEADER_BYTES) {
+            System.err.println("Dropped a malformed relay from " + contactID);
+            return;
+        }
+        received.increment();
+        int origin = getInt(content, offset);
+        int sequence = getInt(content, offset + 4);
+        int opcode = content[offset + 8] & 0xFF;
+        offset += RELAY_HEADER_BYTES;
+        length -= RELAY_HEADER_BYTES;
+        if (messages.onRelay(origin, sequence, opcode, content, offset, length, contactID)) {
+            decoder.decode(opcode, content, offset, length, origin, messages);
+        }
+    }
+
+    // why a preamble isn't PROTOCOL_MAGIC, for the disconnect message
+    static String preambleMismatch(int magic) {
+        if ((magic & ~0xFF) == PROTOCOL_FAMILY) {
+            return "speaks protocol version " + (char) (magic & 0xFF) + " where this build speaks " + PROTOCOL_VERSION;
+        }
+        return "speaks a different protocol (preamble " + Integer.toHexString(magic) + ")";
+    }
+
+    private void learnSender(int sender) {
+        if (contactID == -1 && sender >= 0) {
+            contactID = sender; // an accepted connection learns who it's talking to from the first frame
+        }
+    }
+
+    private boolean isShutdown(int opcode, int sender) {
+        learnSender(sender);
+        if (opcode == MessageType.SHUTDOWN.opcode) {
+            System.out.println("Received shutdown message, contact " + contactID + " is exiting...");
+            return true; // the connection gets closed, this propagates because other logic looks at isClosed
+        }
+        received.increment();
+        return false;
+    }
+
+    protected Message closed() {
+        close();
+        return new Message(MessageType.SHUTDOWN, "", contactID);
+    }
+
+    protected void closed(MessageHandler messages) {
+        close();
+        messages.onShutdown(contactID);
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int putInt(byte[] into, int at, int value) {
+        into[at] = (byte) (value >>> 24);
+        into[at + 1] = (byte) (value >>> 16);
+        into[at + 2] = (byte) (value >>> 8);
+        into[at + 3] = (byte) value;
+        return at + 4;
+    }
+
+    private static int getInt(byte[] from, int at) {
+        return (from[at] & 0xFF) << 24 | (from[at + 1] & 0xFF) << 16 | (from[at + 2] & 0xFF) << 8 | (from[at + 3] & 0xFF);
+    }
+
+    public static long messagesSent() {
+        return sent.sum();
+    }
+
+    public static long messagesReceived() {
+        return received.sum();
+    }
+
+    // boards replaced unsent and peers dropped for not reading, across every connection
+    public static String queueTotals() {
+        return String.format("outbound queues: %d boards collapsed, %d peers dropped for not reading",
+                collapsed.sum(), overflows.sum());
+    }
+
+    public static String flushSummary() {
+        long count = flushes.sum();
+        return String.format("flushes: %d (avg %.2f messages, %.0f bytes per flush)",
+                count,
+                count == 0 ? 0.0 : (double) flushedMessages.sum() / count,
+                count == 0 ? 0.0 : (double) flushedBytes.sum() / count);
+    }
+
+    // how many messages each flush carried, and how many went out as BATCH frames
+    public static String batchSummary() {
+        StringBuilder summary = new StringBuilder("messages per flush:");
+        for (int i = 0; i < batchSizes.length; i++) {
+            summary.append(' ').append(BATCH_SIZES[i]).append(" x").append(batchSizes[i].sum());
+        }
+        return summary.append(" (").append(batchFrames.sum()).append(" batch frames)").toString();
+    }
+
+    // one priority lane of queued messages, grown as needed and reused
+    private static final class Lane {
+        byte[] bytes;
+        int length;
+        int messages;
+
+        Lane(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        // room for a message with `length` bytes of content, which go where this returns
+        int reserve(int opcode, int contentLength) {
+            int needed = length + BATCHED_HEADER_BYTES + contentLength;
+            if (needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(needed, 2 * bytes.length));
+            }
+            bytes[length] = (byte) opcode;
+            int at = putInt(bytes, length + 1, contentLength);
+            length = at + contentLength;
+            messages++;
+            return at;
+        }
+
+        // removes the queued RELAY frames from `origin`, returning how many
+        int dropRelayed(int origin) {
+            int dropped = 0;
+            for (int i = 0; i < length; ) {
+                int size = BATCHED_HEADER_BYTES + getInt(bytes, i + 1);
+                if (getInt(bytes, i + BATCHED_HEADER_BYTES) == origin) {
+                    System.arraycopy(bytes, i + size, bytes, i, length - i - size);
+                    length -= size;
+                    messages--;
+                    dropped++;
+                } else {
+                    i += size;
+                }
+            }
+            return dropped;
+        }
+
+        void clear() {
+            length = 0;
+            messages = 0;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package networking;
+
+import tetris.EnemyPiece;
+
+import java.nio.charset.StandardCharsets;
+
+// Decodes a frame's content straight out of the receive buffer into a MessageHandler's typed callbacks: a switch on
+// the opcode, then a cursor over the space-separated fields, parsing integers in place and handing board payloads
+// over as views of the buffer. Nothing is allocated for the messages a running game receives (ATTACK, DEBRIS, DEATH, PROPOSE,
+// SET_PROC_ID and the packed and delta boards); the rare ones carrying text (NORMAL, HOST_ON, ...) still make Strings.
+// A malformed message is dropped with a note on stderr.
+// Keeps a cursor and reuses its views, so one decoder per receiving thread.
+public final class MessageDecoder {
+    private final Field first = new Field();
+    private final Field second = new Field();
+    private byte[] bytes;
+    private int position;
+    private int end;
+    private boolean malformed;
+
+    public void decode(int opcode, byte[] content, int offset, int length, int from, MessageHandler handler) {
+        MessageType type = MessageType.fromOpcode(opcode);
+        bytes = content;
+        position = offset;
+        end = offset + length;
+        malformed = false;
+        switch (type) {
+            case SHUTDOWN -> handler.onShutdown(from);
+            case NORMAL -> handler.onNormal(new String(content, offset, length, StandardCharsets.UTF_8), from);
+            case HOST_ON -> {
+                // HOST_ON <address> <port> <process id> [1, to relay broadcasts]
+                String address = nextString();
+                int port = nextInt();
+                int processID = nextInt();
+                boolean relay = position < end && nextInt() == 1;
+                if (!malformed) {
+                    handler.onHostOn(address, port, processID, relay);
+                }
+            }
+            case CONNECT_TO -> {
+                String address = nextString();
+                int port = nextInt();
+                int processID = nextInt();
+                if (!malformed) {
+                    handler.onConnectTo(address, port, processID);
+                }
+            }
+            case LOBBY_SIZE -> {
+                int size = nextInt();
+                if (!malformed) {
+                    handler.onLobbySize(size, from);
+                }
+            }
+            case SET_PROC_ID -> {
+                int processID = nextInt();
+                if (!malformed) {
+                    handler.onSetProcID(processID, from);
+                }
+            }
+            case UPDATE_BOARD_STATE -> {
+                String board = nextString();
+                if (!malformed) {
+                    handler.onBoardText(board, from);
+                }
+            }
+            case UPDATE_BOARD_PACKED -> {
+                // UPDATE_BOARD_PACKED <board> [<board version, from senders that do deltas>]
+                Field board = nextField(first);
+                int version = position < end ? nextInt() : -1;
+                if (!malformed) {
+                    handler.onPackedBoard(board, version, from);
+                }
+            }
+            case BOARD_DELTA -> {
+                // BOARD_DELTA <board version> <deleted rows> <changed cells>
+                int version = nextInt();
+                Field rows = nextField(first);
+                Field cells = nextField(second);
+                if (!malformed) {
+                    handler.onBoardDelta(version, rows, cells, from);
+                }
+            }
+            case REQUEST_KEYFRAME -> {
+                int version = nextInt();
+                if (!malformed) {
+                    handler.onRequestKeyframe(version, from);
+                }
+            }
+            case CAPABILITIES -> {
+                while (position < end && !malformed) {
+                    handler.onCapability(nextField(first), from);
+                }
+            }
+            case DEATH -> handler.onDeath(from);
+            case ATTACK -> {
+                // ATTACK <x pos> <y pos> <rotation state> <piece type>
+                int x = nextInt();
+                int y = nextInt();
+                int rotation = nextInt();
+                int piece = nextInt();
+                if (!EnemyPiece.fits(x, y, rotation, piece)) {
+                    malformed = true;
+                }
+                if (!malformed) {
+                    handler.onAttack(x, y, rotation, piece, from);
+                }
+            }
+            case DEBRIS -> {
+                // DEBRIS <x pos> <y pos> <grain mask>
+                int x = nextInt();
+                int y = nextInt();
+                int mask = nextInt();
+                if (mask == 0 || (mask & ~EnemyPiece.DEBRIS_MASK) != 0) {
+                    malformed = true;
+                }
+                if (!malformed) {
+                    handler.onDebris(x, y, mask, from);
+                }
+            }
+            case START_RANDOM_EVENT -> handler.onStartRandomEvent(from);
+            case PROPOSE -> {
+                int event = nextInt();
+                if (!malformed) {
+                    handler.onPropose(event, from);
+                }
+            }
+            default -> handler.onUnknown(type, from);
+        }
+        if (malformed) {
+            System.err.println("Dropped a malformed " + type + " '" + new String(content, offset, length, StandardCharsets.UTF_8)
+                    + "' from " + from);
+        }
+        bytes = null;
+    }
+
+    // an optionally negative decimal integer up to the next space (which is skipped)
+    private int nextInt() {
+        boolean negative = position < end && bytes[position] == '-';
+        if (negative) {
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < end && bytes[position] != ' ') {
+            int digit = bytes[position++] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE) {
+                malformed = true;
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        if (position == start || value > Integer.MAX_VALUE) {
+            malformed = true;
+            return 0;
+        }
+        position++;
+        return (int) (negative ? -value : value);
+    }
+
+    // the next field, as a view of the buffer
+    private Field nextField(Field into) {
+        int start = position;
+        while (position < end && bytes[position] != ' ') {
+            position++;
+        }
+        into.set(bytes, start, position - start);
+        if (position == start) {
+            malformed = true;
+        }
+        position++;
+        return into;
+    }
+
+    private String nextString() {
+        int start = position;
+        nextField(first);
+        return new String(bytes, start, first.length, StandardCharsets.UTF_8);
+    }
+
+    // a field of ASCII text in the buffer, valid until the next decode
+    private static final class Field implements CharSequence {
+        private byte[] bytes;
+        private int start;
+        private int length;
+
+        void set(byte[] bytes, int start, int length) {
+            this.bytes = bytes;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[start + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package networking;
+
+// Inbound messages, decoded by a MessageDecoder into typed fields. Everything is a no-op by default so a handler only
+// overrides what it cares about.
+// CharSequence arguments are views of the receive buffer: read them during the call, don't keep them.
+public interface MessageHandler {
+    // the peer said goodbye or hung up; its connection is closed by now
+    default void onShutdown(int from) {
+    }
+
+    // console text, sent by /commands that aren't recognized (for testing)
+    default void onNormal(String text, int from) {
+    }
+
+    // from the Matchmaker: host on this address and port, and use processID as our id; `relay` when peers are laid
+    // out on a relay tree rather than a full mesh, so broadcasts go out (and are passed on) as RELAY frames
+    default void onHostOn(String address, int port, int processID, boolean relay) {
+    }
+
+    // from the Matchmaker: join the peer hosting on this address and port
+    default void onConnectTo(String address, int port, int processID) {
+    }
+
+    default void onSetProcID(int processID, int from) {
+    }
+
+    // from the Matchmaker, on a relay tree: how many peers are in the lobby (this one included), sent whenever it changes
+    default void onLobbySize(int size, int from) {
+    }
+
+    // UPDATE_BOARD_STATE, BoardToString text
+    default void onBoardText(String board, int from) {
+    }
+
+    // UPDATE_BOARD_PACKED: a BoardCodec board, the board version it's a keyframe of (-1 if the sender doesn't send deltas)
+    default void onPackedBoard(CharSequence board, int version, int from) {
+    }
+
+    // BOARD_DELTA, see BoardDelta
+    default void onBoardDelta(int version, CharSequence deletedRows, CharSequence changedCells, int from) {
+    }
+
+    // the version of the BOARD_DELTA that didn't follow on
+    default void onRequestKeyframe(int version, int from) {
+    }
+
+    // once for each capability the peer announced
+    default void onCapability(CharSequence capability, int from) {
+    }
+
+    default void onDeath(int from) {
+    }
+
+    // `rotation` as in Rotation.toInt(), `piece` a Tetromino ordinal
+    default void onAttack(int x, int y, int rotation, int piece, int from) {
+    }
+
+    // a bomb's debris, EnemyPiece.packDebris's fields; `mask` is never 0
+    default void onDebris(int x, int y, int mask, int from) {
+    }
+
+    default void onStartRandomEvent(int from) {
+    }
+
+    default void onPropose(int event, int from) {
+    }
+
+    // A RELAY frame's header, passed on by neighbor `from`: true if the broadcast inside is new and should be decoded
+    // (as coming from `origin`), false for a duplicate. The content is the broadcast's, valid during the call only.
+    default boolean onRelay(int origin, int sequence, int opcode, byte[] content, int offset, int length, int from) {
+        return true;
+    }
+
+    // an opcode this build doesn't know, or one nothing handles yet
+    default void onUnknown(MessageType type, int from) {
+    }
+}
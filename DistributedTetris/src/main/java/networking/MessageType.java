@@ -3,36 +3,60 @@ package networking;
 import java.util.HashMap;
 import java.util.Map;
 
+// A type's opcode is what goes on the wire (see Connection), so it's spelled out rather than taken from the
+// declaration order: never renumber or reuse one, and give a new type the next free number. A change to what an
+// existing opcode means bumps Connection.PROTOCOL_VERSION instead.
 public enum MessageType {
-    SHUTDOWN("shut"),
-    NORMAL("normal"),
-    BROADCAST("broadcast"),
-    HOST_ON("hostOn"),
-    CONNECT_TO("connectTo"),
-    SET_PROC_ID("setProcId"),
-    TETRIS_EVENT("tetrisEvent"),
-    UPDATE_BOARD_STATE("updateBoardState"),
-    DEATH("death"),
-    ATTACK("attack"),
-    START_RANDOM_EVENT("startRandomEvent"),
-    PROPOSE("propose"),
-    UNKNOWN("UNKNOWN");
+    SHUTDOWN(0, "shut"),
+    NORMAL(1, "normal"),
+    BROADCAST(2, "broadcast"),
+    HOST_ON(3, "hostOn"),
+    CONNECT_TO(4, "connectTo"),
+    SET_PROC_ID(5, "setProcId"),
+    TETRIS_EVENT(6, "tetrisEvent"),
+    UPDATE_BOARD_STATE(7, "updateBoardState"), // BoardToString text, for peers that don't do packed boards
+    UPDATE_BOARD_PACKED(8, "updateBoardPacked"), // BoardCodec, versioned inside the payload
+    BOARD_DELTA(9, "boardDelta"), // BoardDelta: changes since the previous board version
+    REQUEST_KEYFRAME(10, "requestKeyframe"), // a BOARD_DELTA didn't follow on, send an UPDATE_BOARD_PACKED
+    CAPABILITIES(11, "capabilities"), // sent on connect: what optional encodings this peer can receive
+    DEATH(12, "death"),
+    ATTACK(13, "attack"),
+    START_RANDOM_EVENT(14, "startRandomEvent"),
+    PROPOSE(15, "propose"),
+    BATCH(16, "batch"), // several messages in one frame, see Connection; only sent to peers that announced it
+    DEBRIS(17, "debris"), // a bomb's sand as one attack, see EnemyPiece.packDebris; only sent to peers that announced it
+    RELAY(18, "relay"), // a broadcast passed along a relay tree, see Connection; only used when the Matchmaker says so
+    LOBBY_SIZE(19, "lobbySize"), // from the Matchmaker on a relay tree: how many peers there are, for random event votes
+    UNKNOWN(255, "UNKNOWN"); // never sent: what an opcode this build doesn't know decodes as
 
     private final static Map<String, MessageType> stringToMessageType;
+    private static final MessageType[] byOpcode = new MessageType[256];
 
     static {
         stringToMessageType = new HashMap<>();
         for (MessageType value : MessageType.values()) {
             stringToMessageType.put(value.toString(), value);
+            if (byOpcode[value.opcode] != null) {
+                throw new IllegalStateException(value + " has the opcode of " + byOpcode[value.opcode]);
+            }
+            byOpcode[value.opcode] = value;
         }
     }
 
+    public final int opcode; // 0 to 255, one byte on the wire
     private final String stringRep;
 
-    MessageType(String stringRep) {
+    MessageType(int opcode, String stringRep) {
+        this.opcode = opcode;
         this.stringRep = stringRep;
     }
 
+    // UNKNOWN for an opcode no type has
+    public static MessageType fromOpcode(int opcode) {
+        MessageType found = opcode >= 0 && opcode < byOpcode.length ? byOpcode[opcode] : null;
+        return (found == null) ? MessageType.UNKNOWN : found;
+    }
+
     public static MessageType fromString(String input) {
         MessageType found = stringToMessageType.get(input);
         return (found == null) ? MessageType.UNKNOWN : found;
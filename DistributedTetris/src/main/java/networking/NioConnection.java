@@ -0,0 +1,190 @@
+package networking;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+// The non-blocking Connection: a SocketChannel driven by a NioNetwork's selector thread, with a read buffer that
+// whole frames are parsed out of and a write buffer for whatever the socket didn't take yet.
+// Flushes (from the game loop or any other thread) write straight to the channel; only the leftover waits for the
+// selector to report the socket writable again. Until it's all gone, later flushes leave their messages queued in
+// Connection's lanes (so boards collapse there, and a peer that stops reading altogether is dropped at
+// MAX_QUEUED_BYTES), and they go out together once it is.
+public class NioConnection extends Connection {
+    private static final int READ_BUFFER_BYTES = 16 * 1024;
+
+    final SocketChannel channel;
+    final NioNetwork.Handler handler;
+    final MessageHandler messages;
+    private final NioNetwork network;
+    private SelectionKey key; // guarded by lock, null until registered
+    private boolean connected; // guarded by lock
+    private ByteBuffer pending = ByteBuffer.allocate(READ_BUFFER_BYTES); // guarded by lock, filled up to position()
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES); // selector thread only
+    private boolean preambleRead;
+
+    NioConnection(int contactID, SocketChannel channel, NioNetwork network, NioNetwork.Handler handler,
+                  MessageHandler messages) {
+        super(contactID);
+        this.channel = channel;
+        this.network = network;
+        this.handler = handler;
+        this.messages = messages;
+    }
+
+    // selector thread: the channel is registered, and connected unless it waits for OP_CONNECT
+    void registered(SelectionKey key) {
+        lock.lock();
+        try {
+            this.key = key;
+            if (channel.isConnected()) {
+                connected();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // selector thread
+    void finishConnect() throws IOException {
+        lock.lock();
+        try {
+            if (channel.finishConnect()) {
+                connected();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void connected() {
+        connected = true;
+        if (writeFlushed()) { // frames flushed while connecting go out now
+            updateInterest();
+        }
+    }
+
+    @Override
+    protected void flushed() {
+        if (connected && pending.position() == 0) {
+            writeFlushed();
+        }
+    }
+
+    // only when nothing is pending
+    @Override
+    protected void write(byte[] bytes, int length) throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(bytes, 0, length);
+        channel.write(out);
+        if (!out.hasRemaining()) {
+            return;
+        }
+        if (pending.remaining() < out.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(2 * pending.capacity(), pending.position() + out.remaining()));
+            pending.flip();
+            pending = grown.put(pending);
+        }
+        pending.put(out);
+        updateInterest();
+    }
+
+    // selector thread: the socket has room again, for what's pending and then what was flushed meanwhile
+    void writePending() throws IOException {
+        lock.lock();
+        try {
+            pending.flip();
+            channel.write(pending);
+            pending.compact();
+            if (pending.position() == 0 && !writeFlushed()) {
+                return;
+            }
+            updateInterest();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void updateInterest() {
+        int ops = pending.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.isValid() && key.interestOps() != ops) {
+            key.interestOps(ops);
+            network.wakeup(); // a select() in progress only sees the change once it wakes up
+        }
+    }
+
+    // Selector thread: reads whatever arrived and decodes each complete frame into `messages`, straight out of the
+    // read buffer. Like Transceiver.receive(), it hears onShutdown (and this is closed) when the peer said goodbye,
+    // hung up, or isn't speaking this protocol.
+    void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            System.out.println("Contact " + contactID + " hung up, so disconnecting...");
+            closed(messages);
+            return;
+        }
+        readBuffer.flip();
+        int needed = 0;
+        while (!isClosed) {
+            if (!preambleRead) {
+                if (readBuffer.remaining() < PREAMBLE_BYTES) {
+                    break;
+                }
+                int magic = readBuffer.getInt();
+                if (magic != PROTOCOL_MAGIC) {
+                    System.out.println("Contact " + contactID + " " + preambleMismatch(magic) + ", disconnecting...");
+                    closed(messages);
+                    return;
+                }
+                preambleRead = true;
+                continue;
+            }
+            if (readBuffer.remaining() < HEADER_BYTES) {
+                break;
+            }
+            int start = readBuffer.position();
+            int length = readBuffer.getInt(start + 5);
+            if (length < 0 || length > MAX_CONTENT_BYTES) {
+                System.out.println("Contact " + contactID + " sent a " + length + " byte frame, disconnecting...");
+                closed(messages);
+                return;
+            }
+            if (readBuffer.remaining() < HEADER_BYTES + length) {
+                needed = HEADER_BYTES + length;
+                break;
+            }
+            readBuffer.position(start + HEADER_BYTES + length);
+            received(readBuffer.get(start) & 0xFF, readBuffer.getInt(start + 1),
+                    readBuffer.array(), readBuffer.arrayOffset() + start + HEADER_BYTES, length, messages);
+        }
+        readBuffer.compact();
+        if (needed > readBuffer.capacity()) {
+            readBuffer.flip();
+            readBuffer = ByteBuffer.allocate(needed).put(readBuffer); // a frame bigger than the buffer is on its way
+        }
+    }
+
+    @Override
+    public InetAddress remoteAddress() {
+        return channel.socket().getInetAddress();
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        } finally {
+            lock.unlock();
+        }
+        network.closed(this);
+    }
+}
@@ -0,0 +1,206 @@
+package networking;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One selector thread doing the accepting, connecting and reading for any number of NioConnections, instead of a
+// ConnectionThread plus a ReceiverThread per peer. Handlers are called on that thread, so they must not block: the
+// client's handleMessage only parses and posts to the game loop, or answers with a send, which doesn't block either.
+// A NioNetwork can be shared, e.g. by all the bots in one BotLauncher.
+public final class NioNetwork implements Runnable {
+
+    // what a client hears about its connections coming and going, always on the selector thread (their messages go
+    // to a MessageHandler, on the same thread)
+    public interface Handler {
+        void accepted(NioConnection connection);
+
+        void closed(NioConnection connection);
+    }
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // run by the selector thread between selects
+    private volatile Thread thread; // the selector thread, once it's running
+
+    public NioNetwork() throws IOException {
+        selector = Selector.open();
+        TaskThreads.DEFAULT.start("nio-selector", this);
+    }
+
+    // Outgoing channels are bound with SO_REUSEADDR like RealClient's sockets: peers host on the local port of their
+    // Matchmaker connection, which Linux only allows if every other socket using that port number set it too.
+
+    // Blocks until connected (or throws), for the Matchmaker connection
+    public NioConnection connect(InetSocketAddress address, int contactID, Handler handler, MessageHandler messages) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return open(channel, contactID, handler, messages);
+    }
+
+    // Returns right away, frames sent before the connection completes go out once it does. A failed connect just
+    // closes the connection. Safe to call from the selector thread (a CONNECT_TO from the Matchmaker).
+    public NioConnection connectLater(InetSocketAddress address, int contactID, Handler handler, MessageHandler messages) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.configureBlocking(false);
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return open(channel, contactID, handler, messages);
+    }
+
+    // accepts connections on `address` until the network stops, each new one going to handler.accepted
+    public void listen(InetSocketAddress address, Handler handler, MessageHandler messages) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(address, 50);
+            server.configureBlocking(false);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        post(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, new Listener(handler, messages));
+            } catch (ClosedChannelException e) {
+                System.out.println("Stopped listening on " + address + " before it started");
+            }
+        });
+    }
+
+    private NioConnection open(SocketChannel channel, int contactID, Handler handler, MessageHandler messages) throws IOException {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, Transceiver.TCP_NO_DELAY);
+        return new NioConnection(contactID, channel, this, handler, messages);
+    }
+
+    // Connections come back from connect() and connectLater() unstarted, so they can be set up (and added to the
+    // client's list) before the selector reads anything from them. This hands one to the selector.
+    public void start(NioConnection connection) {
+        SocketChannel channel = connection.channel;
+        post(() -> {
+            try {
+                int ops = channel.isConnected() ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT;
+                connection.registered(channel.register(selector, ops, connection));
+            } catch (ClosedChannelException e) {
+                connection.close(); // closed before it got registered
+            }
+        });
+    }
+
+    // the connection closed itself (on any thread), its handler hears about it on the selector thread
+    void closed(NioConnection connection) {
+        post(() -> connection.handler.closed(connection));
+    }
+
+    void wakeup() {
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    private void post(Runnable task) {
+        tasks.add(task);
+        wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (selector.isOpen()) {
+            try {
+                // tasks posted from other threads after this wake up the select(), ones posted while handling keys
+                // run on the next time around
+                for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                    task.run();
+                }
+                selector.select();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    try {
+                        if (key.isValid() && key.isAcceptable()) {
+                            accept((ServerSocketChannel) key.channel(), (Listener) key.attachment());
+                        } else if (key.isValid()) {
+                            handle(key, (NioConnection) key.attachment());
+                        }
+                    } catch (RuntimeException e) {
+                        e.printStackTrace(); // one bad message mustn't stop every other connection
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server, Listener listener) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+        System.out.println("Peer received connection request from " + remote.getAddress().getHostAddress() + " at port " + remote.getPort());
+        NioConnection connection = open(channel, -1, listener.handler, listener.messages); // learns the peer's id from its first frame
+        listener.handler.accepted(connection);
+        start(connection);
+    }
+
+    private void handle(SelectionKey key, NioConnection connection) {
+        if (key.isConnectable()) {
+            try {
+                connection.finishConnect();
+            } catch (IOException e) {
+                System.out.println("Couldn't connect to contact " + connection.contactID + ": " + e.getMessage());
+                connection.close();
+                return;
+            }
+        }
+        try {
+            if (key.isValid() && key.isReadable()) {
+                connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.writePending();
+            }
+        } catch (IOException e) {
+            if (connection.isClosed) {
+                return; // closed on our side while the selector was using it
+            }
+            // like a Transceiver's receive(), a connection reset is the peer leaving
+            System.out.println(e.getMessage());
+            System.out.println("Detected connection reset, shutting down connection to contact " + connection.contactID);
+            connection.closed(connection.messages);
+        }
+    }
+
+    // what a listening channel's accepted connections get
+    private static final class Listener {
+        final Handler handler;
+        final MessageHandler messages;
+
+        Listener(Handler handler, MessageHandler messages) {
+            this.handler = handler;
+            this.messages = messages;
+        }
+    }
+}
@@ -1,40 +1,83 @@
 package networking;
 
+import tetris.ActiveRenderer;
+import tetris.Board;
+import tetris.BoardCodec;
+import tetris.BoardDelta;
 import tetris.EnemyPiece;
+import tetris.GameEvent;
+import tetris.GameJournal;
+import tetris.GameLoop;
 import tetris.RandomEvent;
 import tetris.Rotation;
 import tetris.Tetris;
+import tetris.TetrisEngine;
+import tetris.TetrisListener;
 import tetris.TetrisThread;
 import tetris.Tetromino;
 
-import java.awt.Point;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ConnectException;
 import java.net.Inet4Address;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
-public class RealClient {
-
-    static Transceiver toMatchmaker;
-    List<Transceiver> connections;
+public class RealClient implements TetrisListener, MessageHandler {
+    // -Dtetris.network=nio: one NioNetwork selector thread per client instead of a ReceiverThread per connection
+    // (the threads themselves come from TaskThreads, see -Dtetris.threads)
+    public static final boolean USE_NIO = "nio".equals(System.getProperty("tetris.network"));
+    // announced to every peer on connect; older peers log the ones they don't know and carry on
+    private static final String CAPABILITIES = BoardCodec.CAPABILITY + " " + BoardDelta.CAPABILITY + " "
+            + Connection.BATCH_CAPABILITY + " " + EnemyPiece.DEBRIS_CAPABILITY;
+    // how often the latest snapshot is sent again while the board sits still, in case the last one was lost
+    private static final long SNAPSHOT_REFRESH_NANOS = 250_000_000L;
+
+    Connection toMatchmaker;
+    List<Connection> connections; // written by connection and receiver threads (or the selector), iterated by the game loop
     ServerSocket pseudoServerSocket; // socket that this client is exposing for connections by other peers
+    NioNetwork network; // null while using a Transceiver and thread per connection
+    SnapshotChannel snapshots; // boards over UDP, null unless SnapshotChannel.ENABLED and hosting
+    private final NioNetwork.Handler nioHandler = new SelectorHandler(this);
     boolean active; // currently, unused since everything cleans up nicely, might want to update it when we add tetris on top of or below this
-    Tetris underlying;
+    TetrisEngine underlying; // only ever touched from its game loop, post events to `loop` instead
+    GameLoop loop;
+    Tetris view; // null until the game starts
+    int activeFps; // > 0 draws the next game started with an ActiveRenderer at this frame rate
+    boolean recordJournal; // write a GameJournal of the next game started
     int processID; // the id of this peer
+    volatile boolean hosting; // other peers can connect to this one
+    // On a relay tree (see Matchmaker.FANOUT) only some peers are connections: broadcasts go to those as RELAY frames,
+    // numbered so the copies that come back around while the tree is rebuilt are dropped, and every new one that
+    // arrives is passed on to the other connections. Boards go out the same way, always as deltas and keyframes.
+    volatile boolean relaying;
+    private final AtomicInteger relaySequence = new AtomicInteger();
+    private final RelayWindow relayed = new RelayWindow();
+    private volatile int lobbySize; // every peer, this one included, as the Matchmaker last said; relay trees only
     private boolean choosingRandomEvent;
     private ArrayList<Integer> proposals;
     Semaphore lock;
     static Map<String, Supplier<Boolean>> commands;
+    private final Random random = new Random();
+    private final BoardDelta boardDelta = new BoardDelta(); // game loop thread only
+    private long lastSnapshot; // game loop thread only, System.nanoTime() of the last snapshot sent
+    private final MessageDecoder textDecoder = new MessageDecoder(); // handleMessage()'s, one caller at a time
 
     public RealClient() {
-        connections = new ArrayList<>();
+        this(null);
+    }
+
+    // a client on a shared NioNetwork, or when null, on its own if USE_NIO and on blocking Transceivers otherwise
+    public RealClient(NioNetwork network) {
+        this.network = network;
+        connections = new CopyOnWriteArrayList<>();
         active = true;
         choosingRandomEvent = false;
         proposals = new ArrayList<>();
@@ -52,6 +95,8 @@ public class RealClient {
             System.err.println("must specify port and address of the matchmaking server");
             System.err.println("usage: -port [portNumber] -addr [ipAddress] ");
             System.err.println("ex: -port 26000 -addr localhost ");
+            System.err.println("(run with -Dtetris.network=nio to use one selector thread rather than a thread per peer)");
+            System.err.println("(run with -Dtetris.udp=true to send boards to peers that do the same over UDP)");
             return;
         }
         for (String s : args) {
@@ -62,24 +107,12 @@ public class RealClient {
         RealClient client = new RealClient();
 
         try {
-            Socket clientSocket;
-            try {
-                clientSocket = new Socket(address, port); // connect to Matchmaker
-            } catch (ConnectException e) {
+            if (!client.connect(address, port)) {
                 System.err.println("Failed to connect to the specified address and port (is the matchmaking server running?)");
                 return;
             }
-
-            OutputStream outStream = clientSocket.getOutputStream();
-            InputStream inStream = clientSocket.getInputStream();
-
-
-            toMatchmaker = new Transceiver(-1, inStream, outStream); // Matchmaker gets a special value of -1 for it's ID
             Scanner scanner = new Scanner(System.in);
 
-            Thread recvThread = new Thread(new ReceiverThread(toMatchmaker, client, clientSocket));
-            recvThread.start();
-
             // commands should return true if they want to break out of the loop
             commands = new HashMap<>();
             commands.put("/exit", () -> {
@@ -94,13 +127,36 @@ public class RealClient {
                 client.startRandomEvent();
                 return false;
             });
+            commands.put("/record", () -> {
+                client.recordJournal = true;
+                System.out.println("The next game will be recorded to a journal (replay it with tetris.GameReplay)");
+                return false;
+            });
+            commands.put("/active", () -> {
+                client.activeFps = ActiveRenderer.DEFAULT_FPS;
+                System.out.println("The next game will be drawn by an active renderer at " + client.activeFps + " fps");
+                return false;
+            });
+            commands.put("/stats", () -> {
+                System.out.println(client.loop == null ? "Game not started" : client.loop.statsSummary());
+                System.out.println(Connection.flushSummary());
+                System.out.println(Connection.batchSummary());
+                System.out.println(Connection.queueTotals());
+                for (Connection connection : client.connections) {
+                    System.out.println("  " + connection.queueSummary());
+                }
+                if (SnapshotChannel.ENABLED) {
+                    System.out.println(SnapshotChannel.summary());
+                }
+                return false;
+            });
             Supplier<Boolean> listCommand = () -> {
                 // list the peers we're currently connected to
                 System.out.println("Currently connected to: ");
                 if (client.connections.isEmpty()) {
                     System.out.println("(none currently connected)");
                 }
-                for (Transceiver t : client.connections) {
+                for (Connection t : client.connections) {
                     System.out.println("Process #" + t.contactID);
                 }
                 return false;
@@ -127,9 +183,9 @@ public class RealClient {
                     }
                 } else {
                     System.out.println("Sending string: " + entry);
-                    toMatchmaker.send(MessageType.NORMAL, entry);
+                    client.toMatchmaker.send(MessageType.NORMAL, entry);
                     // another simple broadcast everything (temporary)
-                    for (Transceiver toClient : client.connections) {
+                    for (Connection toClient : client.connections) {
                         toClient.send(MessageType.NORMAL, entry);
                     }
                 }
@@ -142,17 +198,69 @@ public class RealClient {
         }
     }
 
+    // connects to the Matchmaker, which then tells this client where to host and which peers to join
+    public boolean connect(String address, int port) throws IOException {
+        // the Matchmaker tells us to host on the local port of this connection, which Linux only allows if this socket
+        // was bound with SO_REUSEADDR as well (ServerSocket sets it by default)
+        if (network == null && USE_NIO) {
+            network = new NioNetwork();
+        }
+        if (network != null) {
+            NioConnection connection;
+            try {
+                // Matchmaker gets a special value of -1 for it's ID
+                connection = network.connect(new InetSocketAddress(address, port), -1, nioHandler, this);
+            } catch (ConnectException e) {
+                return false;
+            }
+            toMatchmaker = connection;
+            network.start(connection);
+            return true;
+        }
+        Socket clientSocket = new Socket();
+        clientSocket.setReuseAddress(true);
+        try {
+            clientSocket.connect(new InetSocketAddress(address, port)); // connect to Matchmaker
+        } catch (ConnectException e) {
+            clientSocket.close();
+            return false;
+        }
+
+        Transceiver tr = new Transceiver(-1, clientSocket); // Matchmaker gets a special value of -1 for it's ID
+        toMatchmaker = tr;
+
+        TaskThreads.DEFAULT.start("receiver-matchmaker", new ReceiverThread(tr, this, clientSocket));
+        return true;
+    }
+
+    public boolean isHosting() {
+        return hosting;
+    }
+
+    public int connectionCount() {
+        return connections.size();
+    }
+
     public void shutdownProcedure() {
+        leave();
+        // probably bad practice but whatever
+        System.exit(0);
+    }
+
+    // says goodbye to the Matchmaker and every peer, and closes the connections (the game, if any, keeps running)
+    public void leave() {
         System.out.println("Exiting and signaling to close Transceiver objects"); // SCREAM OF DEATH
         toMatchmaker.send(MessageType.SHUTDOWN, " shut");
+        if (relaying) {
+            relay(MessageType.SHUTDOWN, "shut", true); // for the peers that aren't connections
+        }
         // simple broadcast everything (permanent)
-        for (Transceiver toClient : this.connections) {
+        for (Connection toClient : this.connections) {
             toClient.send(MessageType.SHUTDOWN, "shut");
+            toClient.close();
         }
         //TODO: perhaps abstract this duplicated for loop into a method of RealClient, or maybe somewhere else
         toMatchmaker.close();
-        // probably bad practice but whatever
-        System.exit(0);
     }
 
     // host on addr and port based on whatever Matchmaker sent you
@@ -160,113 +268,213 @@ public class RealClient {
         System.out.println("Peer (Process ID: " + processID + ") is starting hosting on ip " + addr + ", port " + port);
         // handle server socket and connection thread starting
         try {
+            if (SnapshotChannel.ENABLED) {
+                openSnapshots(addr, port);
+            }
+            if (network != null) {
+                network.listen(new InetSocketAddress(Inet4Address.getByName(addr), port), nioHandler, this);
+                hosting = true;
+                return;
+            }
             pseudoServerSocket = new ServerSocket(port, 50, Inet4Address.getByName(addr));
+            hosting = true;
             ConnectionThread connThread = new ConnectionThread(this);
-            new Thread(connThread).start(); // see thread for all connection logic
+            TaskThreads.DEFAULT.start("connection-acceptor", connThread); // see thread for all connection logic
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    // the UDP port with the same number as the hosting one; without it boards just stay on the connections
+    private void openSnapshots(String addr, int port) {
+        try {
+            snapshots = new SnapshotChannel(new InetSocketAddress(Inet4Address.getByName(addr), port), this,
+                    this::snapshotsFrom);
+            snapshots.start();
+        } catch (IOException e) {
+            System.out.println("Couldn't open a snapshot channel on port " + port + ", sending boards over TCP: " + e.getMessage());
+        }
+    }
+
+    // where `processID` announced its snapshots come from, null if it hasn't (or isn't connected)
+    private InetSocketAddress snapshotsFrom(int processID) {
+        Connection peer = connectionTo(processID);
+        return peer == null ? null : peer.snapshots;
+    }
+
+    private String capabilities() {
+        return snapshots == null ? CAPABILITIES : CAPABILITIES + " " + snapshots.capability();
+    }
+
+    // the text form, "<type> <content>" (what the old line protocol sent; handy for debugging)
     public void handleMessage(String message, int from) {
-//        System.out.println("Received networking.Message: " + message + " from process: " + from);
         if (message == null) {
             return;
         }
-        String[] argList = message.split(" "); // assume all messages are delimited with spaces
+        int space = message.indexOf(' ');
+        MessageType type = MessageType.fromString(space < 0 ? message : message.substring(0, space));
+        byte[] content = (space < 0 ? "" : message.substring(space + 1)).getBytes(StandardCharsets.UTF_8);
+        synchronized (textDecoder) {
+            textDecoder.decode(type.opcode, content, 0, content.length, from, this);
+        }
+    }
 
-        if (argList.length < 1) {
-            System.err.println("Received message without a message type: '" + message + "' from " + from);
-            return;
+    @Override
+    public void onShutdown(int from) {
+        if (this.view != null) {
+            this.view.handleDisconnect(from);
         }
-        MessageType type = MessageType.fromString(argList[0]);
+    }
 
-        switch (type) {
-            case SHUTDOWN -> {
-                if (this.underlying != null) {
-                    this.underlying.handleDisconnect(from);
-                }
-            }
-            case NORMAL -> {
-                // forward to underlying Tetris.Tetris object (if it exists)
-                String toForward = message.substring(MessageType.NORMAL.toString().length()); // truncate off NORMAL header, Tetris.Tetris shouldn't care about that?
-                if (this.underlying != null) {
-                    this.underlying.handleMessageEvent(toForward);
-                }
-            }
-            case BROADCAST -> {
-                // TODO no handling written yet
-            }
-            case HOST_ON -> {
-                String hostingAddr = argList[1];
-                int hostingPort = Integer.parseInt(argList[2]);
-                this.processID = Integer.parseInt(argList[3]);
-                this.startHosting(hostingAddr, hostingPort);
-            }
-            case CONNECT_TO -> {
-                String joinAddr = argList[1];
-                int joinPort = Integer.parseInt(argList[2]);
-                int peerProcessID = Integer.parseInt(argList[3]);
+    @Override
+    public void onNormal(String text, int from) {
+        // forward to underlying Tetris.Tetris object (if it exists)
+        if (this.view != null) {
+            this.view.handleMessageEvent(text);
+        }
+    }
 
-                this.joinPeer(joinAddr, joinPort, peerProcessID);
-            }
-            case SET_PROC_ID -> {
-                int incomingID = Integer.parseInt(argList[1]);
-                handleProcIDSet(incomingID);
-            }
-            case TETRIS_EVENT -> {
-                // TODO no handling written yet for tetris events
-            }
-            case UPDATE_BOARD_STATE -> {
-                // handle updating board
-                if (this.underlying != null) {
-                    this.underlying.handleRecvBoard(argList[1], from);
-                }
-            }
-            case DEATH -> {
-                // handle another peer losing
-                if (this.underlying != null) {
-                    this.underlying.handleDeath(from);
-                }
-            }
-            case ATTACK -> {
-                // handle attacks
-                // message is of the form:
-                // ATTACK <x pos> <y pos> <rotation state> <piece type>
-                if (this.underlying != null) {
-                    int x = Integer.parseInt(argList[1]);
-                    int y = Integer.parseInt(argList[2]);
-                    Point pieceOrigin = new Point(x, y);
-                    Rotation rotation = Rotation.fromInt(Integer.parseInt(argList[3]));
-                    Tetromino pieceType = Tetromino.fromInt(Integer.parseInt(argList[4]));
-
-                    EnemyPiece attackingPiece = new EnemyPiece(pieceOrigin, rotation, pieceType);
-
-                    this.underlying.handleAttack(attackingPiece, from);
-                }
-            }
-            case START_RANDOM_EVENT -> {
-                propose();
-            }
-            case PROPOSE -> {
-                if (choosingRandomEvent) {
-//                    System.out.println("Adding proposal to list");
-                    int eventNum = Integer.parseInt(argList[1]);
-                    proposals.add(eventNum);
-                    decide();
-                }
+    @Override
+    public void onHostOn(String address, int port, int processID, boolean relay) {
+        this.processID = processID;
+        this.relaying = relay;
+        this.startHosting(address, port);
+    }
+
+    // a vote in progress may have been waiting on a peer that just left
+    @Override
+    public void onLobbySize(int size, int from) {
+        this.lobbySize = size;
+        if (choosingRandomEvent) {
+            decide();
+        }
+    }
+
+    @Override
+    public void onConnectTo(String address, int port, int processID) {
+        this.joinPeer(address, port, processID);
+    }
+
+    @Override
+    public void onSetProcID(int processID, int from) {
+        handleProcIDSet(processID);
+    }
+
+    @Override
+    public void onBoardText(String board, int from) {
+        // handle updating board
+        if (this.view != null) {
+            this.view.handleRecvBoard(board, from);
+        }
+    }
+
+    @Override
+    public void onPackedBoard(CharSequence board, int version, int from) {
+        if (this.view != null) {
+            this.view.handleRecvPackedBoard(board, version, from);
+        }
+    }
+
+    @Override
+    public void onBoardDelta(int version, CharSequence deletedRows, CharSequence changedCells, int from) {
+        if (this.view != null && this.view.handleRecvBoardDelta(version, deletedRows, changedCells, from)) {
+            Connection sender = connectionTo(from);
+            if (sender != null) {
+                sender.send(MessageType.REQUEST_KEYFRAME, Integer.toString(version));
             }
-            case UNKNOWN -> {
-                System.err.println("Tried to handle unknown event " + message);
+        }
+    }
+
+    @Override
+    public void onRequestKeyframe(int version, int from) {
+        // a peer missed a delta: send it our board as of now, from the loop thread that owns boardDelta
+        Connection requester = connectionTo(from);
+        if (this.loop != null && requester != null) {
+            this.loop.post(GameEvent.callback(engine -> sendKeyframe(requester)));
+        }
+    }
+
+    @Override
+    public void onCapability(CharSequence capability, int from) {
+        Connection peer = connectionTo(from);
+        if (peer == null) {
+            return;
+        }
+        if (BoardCodec.CAPABILITY.contentEquals(capability)) {
+            peer.packedBoards = true;
+        } else if (BoardDelta.CAPABILITY.contentEquals(capability)) {
+            peer.boardDeltas = true;
+        } else if (Connection.BATCH_CAPABILITY.contentEquals(capability)) {
+            peer.batches = true;
+        } else if (EnemyPiece.DEBRIS_CAPABILITY.contentEquals(capability)) {
+            peer.debris = true;
+        } else if (this.snapshots != null && peer.remoteAddress() != null) {
+            int port = SnapshotChannel.capabilityPort(capability);
+            if (port > 0) {
+                peer.snapshots = new InetSocketAddress(peer.remoteAddress(), port);
             }
-            default -> {
-                System.err.println("No handling set up for message type " + type + " '" + message + "'");
+        }
+    }
+
+    @Override
+    public void onDeath(int from) {
+        // handle another peer losing
+        if (this.loop != null) {
+            this.loop.post(GameEvent.death(from));
+        }
+    }
+
+    @Override
+    public void onAttack(int x, int y, int rotation, int piece, int from) {
+        if (this.underlying != null) {
+            long attack = EnemyPiece.pack(x, y, Rotation.fromInt(rotation), Tetromino.fromInt(piece));
+            this.underlying.handleAttack(attack, from); // thread-safe, goes straight onto the attack queue
+        }
+    }
+
+    @Override
+    public void onDebris(int x, int y, int mask, int from) {
+        if (this.underlying != null) {
+            this.underlying.handleAttack(EnemyPiece.packDebris(x, y, mask), from);
+        }
+    }
+
+    @Override
+    public void onStartRandomEvent(int from) {
+        propose();
+    }
+
+    @Override
+    public void onPropose(int event, int from) {
+        if (choosingRandomEvent) {
+//            System.out.println("Adding proposal to list");
+            proposals.add(event);
+            decide();
+        }
+    }
+
+    @Override
+    public void onUnknown(MessageType type, int from) {
+        // TODO no handling written yet for BROADCAST and TETRIS_EVENT
+        if (type == MessageType.UNKNOWN) {
+            System.err.println("Tried to handle unknown event from " + from);
+        }
+    }
+
+    private Connection connectionTo(int processID) {
+        for (Connection t : connections) {
+            if (t.contactID == processID) {
+                return t;
             }
         }
+        return null;
     }
 
     private void handleProcIDSet(int incomingID) {
-        for (Transceiver t : connections) {
+        if (connectionTo(incomingID) != null) {
+            return; // already known from the sender id on its frames
+        }
+        for (Connection t : connections) {
             if (t.contactID == -1) {
                 t.contactID = incomingID;
                 break;
@@ -277,41 +485,244 @@ public class RealClient {
     // join existing peers after connected to Matchmaker and given the list of peers to connect to
     public void joinPeer(String connectAddr, int connectPort, int peerProcessID) {
         try {
-            Socket clientSocket = new Socket(connectAddr, connectPort);
-            OutputStream outStream = clientSocket.getOutputStream();
-            InputStream inStream = clientSocket.getInputStream();
+            if (network != null) {
+                // CONNECT_TO arrives on the selector thread, which mustn't wait for the connection
+                NioConnection connection = network.connectLater(new InetSocketAddress(connectAddr, connectPort), peerProcessID, nioHandler, this);
+                introduce(connection);
+                network.start(connection);
+                return;
+            }
+            // connections to peers can be given another peer's hosting port as their local one, so they need
+            // SO_REUSEADDR as well for that peer to be able to listen on it
+            Socket clientSocket = new Socket();
+            clientSocket.setReuseAddress(true);
+            clientSocket.connect(new InetSocketAddress(connectAddr, connectPort));
+            Transceiver tr = new Transceiver(peerProcessID, clientSocket);
+            tr.startWriter(); // a slow peer mustn't hold up the game loop's flushes
+            introduce(tr);
+
+            TaskThreads.DEFAULT.start("receiver-" + peerProcessID, new ReceiverThread(tr, this, clientSocket));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            Transceiver tr = new Transceiver(peerProcessID, inStream, outStream);
+    // a peer we joined: sent our id and capabilities, and listed before anything from it is handled
+    private void introduce(Connection connection) {
+        connection.localID = this.processID;
 
-            this.connections.add(tr);
+        this.connections.add(connection);
 
-            tr.send(MessageType.SET_PROC_ID, Integer.toString(this.processID));
+        connection.send(MessageType.SET_PROC_ID, Integer.toString(this.processID));
+        connection.send(MessageType.CAPABILITIES, capabilities());
+    }
 
-            Thread recvThread = new Thread(new ReceiverThread(tr, this, clientSocket));
-            recvThread.start();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    // a peer that joined us, which learns our id from the sender field of our frames
+    void accepted(Connection connection) {
+        connection.localID = this.processID;
+
+        // pass the completed connection over to the client's array
+        this.connections.add(connection);
+        // older peers log it as unknown and carry on
+        connection.send(MessageType.CAPABILITIES, capabilities());
+    }
+
+    void disconnected(Connection connection) {
+        System.out.println("Detected dead connection to " + connection.contactID + "... closing it.");
+        this.connections.remove(connection);
     }
 
     public void broadcast(MessageType type, String message) {
-        for (Transceiver t : connections) {
+        if (relaying) {
+            relay(type, message, true);
+            return;
+        }
+        for (Connection t : connections) {
             t.send(type, message);
         }
     }
 
-    // creates an underlying Tetris game and passes a reference to this class for its use
+    // game loop thread: queued, and flushed together at the end of the step
+    @Override
+    public void onBroadcast(MessageType type, String message) {
+        if (relaying) {
+            relay(type, message, false);
+            return;
+        }
+        for (Connection t : connections) {
+            t.queue(type, message);
+        }
+    }
+
+    // one of our own broadcasts onto the relay tree; `flush` unless on the game loop, which flushes after every step
+    private void relay(MessageType type, String message, boolean flush) {
+        int sequence = relaySequence.incrementAndGet();
+        for (Connection t : connections) {
+            t.queueRelay(processID, sequence, type, message);
+            if (flush) {
+                t.flush();
+            }
+        }
+    }
+
+    // someone else's broadcast: passed on to every other connection the first time it arrives
+    @Override
+    public boolean onRelay(int origin, int sequence, int opcode, byte[] content, int offset, int length, int from) {
+        if (origin == this.processID || !relayed.accept(origin, sequence)) {
+            return false;
+        }
+        for (Connection t : connections) {
+            if (t.contactID != from) {
+                t.queueRelay(origin, sequence, opcode, content, offset, length);
+                t.flush();
+            }
+        }
+        return true;
+    }
+
+    // game loop thread: one DEBRIS for peers that take it, the grains as separate SAND attacks for the rest
+    @Override
+    public void onDebris(int x, int y, int mask) {
+        if (relaying) {
+            relay(MessageType.DEBRIS, x + " " + y + " " + mask, false);
+            return;
+        }
+        String debris = null;
+        for (Connection t : connections) {
+            if (t.debris) {
+                if (debris == null) {
+                    debris = x + " " + y + " " + mask;
+                }
+                t.queue(MessageType.DEBRIS, debris);
+                continue;
+            }
+            for (int grains = mask; grains != 0; grains &= grains - 1) {
+                int grain = Integer.numberOfTrailingZeros(grains);
+                t.queue(MessageType.ATTACK, (x + grain % EnemyPiece.DEBRIS_SIZE) + " " + (y + grain / EnemyPiece.DEBRIS_SIZE)
+                        + " " + Rotation._0.toInt() + " " + Tetromino.SAND.legacyInt);
+            }
+        }
+    }
+
+    // game loop thread, after every step; forEach walks the list's array as it is, without an iterator to allocate
+    private void flushConnections() {
+        connections.forEach(Connection::flush);
+        if (snapshots != null && !relaying && boardDelta.version() > 0 && System.nanoTime() - lastSnapshot > SNAPSHOT_REFRESH_NANOS) {
+            String snapshot = null;
+            for (Connection t : connections) {
+                if (t.snapshots != null) {
+                    if (snapshot == null) {
+                        snapshot = snapshot();
+                    }
+                    snapshots.send(t.snapshots, processID, snapshot);
+                }
+            }
+            lastSnapshot = System.nanoTime();
+        }
+    }
+
+    // a snapshot datagram for peers with a SnapshotChannel, deltas (or the periodic keyframe) for peers that announced
+    // they can take them, a packed keyframe for peers that only do packed boards, BoardToString text for the rest; each
+    // encoded at most once. A peer whose last board is still queued gets a keyframe to replace it, since the delta
+    // would only make sense after it.
+    @Override
+    public void onBoardChanged(Board board, int[] deletedRows, int deletedCount) {
+        boardDelta.next(board, deletedRows, deletedCount);
+        String delta = boardDelta.delta();
+        if (relaying) {
+            // a peer that misses a delta can only ask for a keyframe if it's a connection, the rest wait for the
+            // periodic one
+            if (delta != null) {
+                relay(MessageType.BOARD_DELTA, delta, false);
+            } else {
+                relay(MessageType.UPDATE_BOARD_PACKED, snapshot(), false);
+            }
+            return;
+        }
+        String text = null;
+        String snapshot = null;
+        for (Connection t : connections) {
+            if (t.snapshots != null) {
+                if (snapshot == null) {
+                    snapshot = snapshot();
+                    lastSnapshot = System.nanoTime();
+                }
+                if (snapshots.send(t.snapshots, processID, snapshot)) {
+                    continue;
+                }
+            }
+            if (t.boardDeltas && delta != null && !t.boardQueued()) {
+                t.queue(MessageType.BOARD_DELTA, delta);
+            } else if (t.packedBoards) {
+                sendKeyframe(t);
+            } else {
+                if (text == null) {
+                    text = underlying.BoardToString(board);
+                }
+                t.queue(MessageType.UPDATE_BOARD_STATE, text);
+            }
+        }
+    }
+
+    // game loop thread only
+    private void sendKeyframe(Connection t) {
+        t.queue(MessageType.UPDATE_BOARD_PACKED, snapshot());
+    }
+
+    private String snapshot() {
+        return boardDelta.keyframe() + " " + boardDelta.version();
+    }
+
+    @Override
+    public void onRandomEventRoll() {
+        startRandomEvent();
+    }
+
+    // creates an underlying Tetris game and registers this client as its network listener
     public void startGame() {
         // only initialize if a game is not already running
         if (this.underlying == null) {
-            this.underlying = new Tetris();
-            underlying.bindToClient(this);
-            TetrisThread tetoThread = new TetrisThread(underlying, this);
-            new Thread(tetoThread).start();
+            createGame();
+            this.view = new Tetris(loop);
+            TetrisThread tetoThread = new TetrisThread(view, this, activeFps);
+            TaskThreads.PLATFORM.start("game-window", tetoThread); // Swing, see TaskThreads
             System.out.println("Starting...");
         }
     }
 
+    // same as startGame but without a window: the caller drives the game by posting to the returned loop (bots)
+    public GameLoop startHeadlessGame() {
+        if (this.underlying == null) {
+            createGame();
+            loop.start();
+        }
+        return loop;
+    }
+
+    // the same game wired up, but with its loop left for the caller to step (TickAllocationTest)
+    public GameLoop createHeadlessGame() {
+        if (this.underlying == null) {
+            createGame();
+        }
+        return loop;
+    }
+
+    private void createGame() {
+        this.underlying = new TetrisEngine();
+        underlying.addListener(this);
+        this.loop = new GameLoop(underlying);
+        loop.setAfterStep(this::flushConnections);
+        if (recordJournal) {
+            try {
+                GameJournal journal = new GameJournal(GameJournal.defaultFile(processID), underlying);
+                loop.setJournal(journal);
+                System.out.println("Recording to " + journal.getFile());
+            } catch (IOException e) {
+                System.err.println("Couldn't open a journal, playing without one: " + e.getMessage());
+            }
+        }
+    }
+
     public void propose() {
         choosingRandomEvent = true;
         int proposal = this.underlying != null ? getRandomEventNum() : 100;
@@ -327,10 +738,10 @@ public class RealClient {
             e.printStackTrace();
         }
 //        System.out.println("Num Proposals: " + proposals.size() + " Needed amt: " + (connections.size() + 1));
-        if (proposals.size() >= connections.size() + 1) {
+        if (proposals.size() >= votesNeeded()) {
             try {
 //                System.out.println("Deciding on event " + RandomEvent.fromInt(mostFrequent(proposals)));
-                if (this.underlying != null) underlying.triggerRandomEvent(RandomEvent.fromInt(mostFrequent(proposals)));
+                if (this.loop != null) loop.post(GameEvent.randomEvent(RandomEvent.fromInt(mostFrequent(proposals))));
                 proposals = new ArrayList<>();
                 choosingRandomEvent = false;
             } catch (ConcurrentModificationException e) {
@@ -340,6 +751,18 @@ public class RealClient {
         lock.release();
     }
 
+    // one vote from every peer in the lobby. In a full mesh those are our connections; on a relay tree the
+    // connections are only our neighbors, and the proposals of everyone else arrive relayed, so the Matchmaker's
+    // count decides (the neighbors still do until it has said).
+    int votesNeeded() {
+        int connected = connections.size() + 1;
+        return relaying ? Math.max(lobbySize, connected) : connected;
+    }
+
+    boolean isChoosingRandomEvent() {
+        return choosingRandomEvent;
+    }
+
     public void startRandomEvent() {
         if (!choosingRandomEvent) {
 //            System.out.println("Starting Random Event polling");
@@ -350,7 +773,7 @@ public class RealClient {
     }
 
     public int getRandomEventNum() {
-        return ((new Random()).nextInt(RandomEvent.values().length - 1));
+        return random.nextInt(RandomEvent.values().length - 1);
     }
 
     static int mostFrequent(ArrayList<Integer> list) {
@@ -386,14 +809,11 @@ public class RealClient {
                 try {
                     Socket pseudoClientSocket = this.client.pseudoServerSocket.accept(); // accept connection from opposing peer
                     System.out.println("Peer received connection request from " + pseudoClientSocket.getInetAddress().toString().substring(1) + " at port " + pseudoClientSocket.getPort());
-                    OutputStream outStream = pseudoClientSocket.getOutputStream();
-                    InputStream inStream = pseudoClientSocket.getInputStream(); // grab streams
-                    Transceiver tr = new Transceiver(-1, inStream, outStream); // shiny stream handler, again TODO: REASSIGN
-
-                    // pass the completed Transceiver object over to the client's array
-                    this.client.connections.add(tr);
+                    Transceiver tr = new Transceiver(-1, pseudoClientSocket); // learns the peer's id from its first frame
+                    tr.startWriter();
+                    this.client.accepted(tr);
                     ReceiverThread recvThread = new ReceiverThread(tr, client, pseudoClientSocket);
-                    new Thread(recvThread).start(); //start listening to added transceiver
+                    TaskThreads.DEFAULT.start("receiver", recvThread); //start listening to added transceiver
 
                 } catch (SocketException e) {
                     // "workaround" for when a client's sockets get closed but they're still trying to accept connections
@@ -421,13 +841,10 @@ public class RealClient {
 
         @Override
         public void run() {
-            while (!tr.isClosed) {
-                String message = tr.receive();
-                this.client.handleMessage(message, tr.contactID); // adding source ID, but not doing anything with it for now
+            while (tr.receive(this.client)) {
+                // decoded into the client's callbacks
             }
-            int processID = tr.contactID;
-            System.out.println("Detected dead Transceiver... closing it.");
-            this.client.connections.remove(tr);
+            this.client.disconnected(tr);
 
             try {
                 this.pseudoClientSocket.close(); //properly take care of the loose socket
@@ -436,4 +853,23 @@ public class RealClient {
             }
         }
     }
+
+    // the selector's counterpart of ConnectionThread and ReceiverThread
+    static class SelectorHandler implements NioNetwork.Handler {
+        RealClient client;
+
+        public SelectorHandler(RealClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void accepted(NioConnection connection) {
+            this.client.accepted(connection);
+        }
+
+        @Override
+        public void closed(NioConnection connection) {
+            this.client.disconnected(connection);
+        }
+    }
 }
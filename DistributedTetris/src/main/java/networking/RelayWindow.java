@@ -0,0 +1,40 @@
+package networking;
+
+import java.util.Arrays;
+
+// Which relayed broadcasts have been seen, per origin: the highest sequence number so far and a bitmap of the
+// WINDOW before it, like IPsec's anti-replay window. Along a tree every broadcast arrives once and in order; this
+// catches the duplicates and stragglers of the moments while it's being rebuilt. Anything older than the window
+// counts as seen.
+// Any receiving thread can call accept().
+final class RelayWindow {
+    private static final int WINDOW = Long.SIZE;
+    private static final int MAX_ORIGIN = 1 << 16; // process ids are handed out from 0 by the Matchmaker
+
+    private int[] highest = new int[16]; // by origin, 0 before anything (sequences start at 1)
+    private long[] seen = new long[16]; // bit i: highest - i was seen
+
+    synchronized boolean accept(int origin, int sequence) {
+        if (origin < 0 || origin >= MAX_ORIGIN) {
+            return false;
+        }
+        if (origin >= highest.length) {
+            int size = Math.max(2 * highest.length, origin + 1);
+            highest = Arrays.copyOf(highest, size);
+            seen = Arrays.copyOf(seen, size);
+        }
+        int top = highest[origin];
+        if (sequence > top) {
+            int shift = sequence - top;
+            seen[origin] = shift >= WINDOW ? 1 : seen[origin] << shift | 1;
+            highest[origin] = sequence;
+            return true;
+        }
+        int age = top - sequence;
+        if (age >= WINDOW || (seen[origin] & 1L << age) != 0) {
+            return false;
+        }
+        seen[origin] |= 1L << age;
+        return true;
+    }
+}
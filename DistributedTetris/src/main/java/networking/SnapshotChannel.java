@@ -0,0 +1,183 @@
+package networking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+// The lossy side channel for board snapshots (-Dtetris.udp=true). Board state is latest-wins, so over TCP a lost
+// segment holding a stale board holds up the fresh one behind it while it's retransmitted. Peers that announced a
+// snapshot port (CAPABILITY_PREFIX + port) get each board change as a datagram instead, holding a whole packed
+// keyframe and its version. Nothing is resent on loss: the next snapshot, or the periodic refresh, supersedes it.
+// The receiver drops anything no newer than the last version it applied from that sender, so a late or duplicated
+// datagram never takes a board backwards. Everything else (ATTACK, DEATH, PROPOSE, SHUTDOWN, ...) stays on the
+// reliable Connection.
+//
+// A datagram is the PROTOCOL_MAGIC preamble followed by exactly one UPDATE_BOARD_PACKED frame, as Connection lays
+// them out; anything else arriving on the port is dropped. So is a snapshot that doesn't come from the address its
+// sender id announced (the peer's host, and the port in its capability, which it also sends from): the sender id is
+// just bytes in the datagram, and anyone who can reach the port could otherwise overwrite any player's board.
+public class SnapshotChannel implements Closeable {
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("tetris.udp", "false"));
+    public static final String CAPABILITY_PREFIX = "udp:"; // udp:<port>
+    static final int MAX_DATAGRAM_BYTES = 1200; // under a typical path MTU, so snapshots aren't IP fragments
+    private static final int MAX_SENDER = 1 << 16; // process ids are handed out from 0 by the Matchmaker
+
+    // totals for every channel in this process, like Connection's
+    private static final LongAdder sent = new LongAdder();
+    private static final LongAdder applied = new LongAdder();
+    private static final LongAdder stale = new LongAdder();
+    private static final LongAdder dropped = new LongAdder();
+
+    private final DatagramChannel channel;
+    private final MessageHandler messages;
+    private final IntFunction<InetSocketAddress> announced; // by sender: where its snapshots come from, null if unknown
+    private final ByteBuffer out = ByteBuffer.allocate(MAX_DATAGRAM_BYTES); // sending thread only
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_DATAGRAM_BYTES + 1); // receiver thread only, +1 spots truncation
+    private final MessageDecoder decoder = new MessageDecoder(); // receiver thread only
+    private int[] latest = new int[16]; // receiver thread only: last version applied, by sender
+    private final MessageHandler latestOnly = new MessageHandler() {
+        @Override
+        public void onPackedBoard(CharSequence board, int version, int from) {
+            if (version <= latestVersion(from)) {
+                stale.increment();
+                return;
+            }
+            latest[from] = version;
+            applied.increment();
+            messages.onPackedBoard(board, version, from);
+        }
+    };
+
+    // bound to `address` (port 0 for any), passing the snapshots it takes on to `messages`.onPackedBoard; `announced`
+    // is asked, on the receiver thread, which address each sender's snapshots should come from
+    public SnapshotChannel(InetSocketAddress address, MessageHandler messages,
+                           IntFunction<InetSocketAddress> announced) throws IOException {
+        this.channel = DatagramChannel.open().bind(address);
+        this.messages = messages;
+        this.announced = announced;
+        Arrays.fill(latest, -1);
+    }
+
+    public int port() {
+        return channel.socket().getLocalPort();
+    }
+
+    public String capability() {
+        return CAPABILITY_PREFIX + port();
+    }
+
+    // the port in a peer's CAPABILITY_PREFIX capability, -1 if that isn't one
+    public static int capabilityPort(CharSequence capability) {
+        if (capability.length() <= CAPABILITY_PREFIX.length()) {
+            return -1;
+        }
+        for (int i = 0; i < CAPABILITY_PREFIX.length(); i++) {
+            if (capability.charAt(i) != CAPABILITY_PREFIX.charAt(i)) {
+                return -1;
+            }
+        }
+        int port = 0;
+        for (int i = CAPABILITY_PREFIX.length(); i < capability.length(); i++) {
+            int digit = capability.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || port > 0xFFFF) {
+                return -1;
+            }
+            port = port * 10 + digit;
+        }
+        return port > 0 && port <= 0xFFFF ? port : -1;
+    }
+
+    public void start() {
+        TaskThreads.DEFAULT.start("snapshot-receiver", this::receive);
+    }
+
+    // One thread at a time (the game loop): the UPDATE_BOARD_PACKED content "<keyframe> <version>" to `to`. False if
+    // it doesn't fit a datagram or couldn't be sent, and the caller should send it over the Connection instead.
+    public boolean send(InetSocketAddress to, int sender, String content) {
+        int length = content.length();
+        if (Connection.PREAMBLE_BYTES + Connection.HEADER_BYTES + length > out.capacity()) {
+            return false;
+        }
+        out.clear();
+        out.putInt(Connection.PROTOCOL_MAGIC);
+        out.put((byte) MessageType.UPDATE_BOARD_PACKED.opcode);
+        out.putInt(sender);
+        out.putInt(length);
+        for (int i = 0; i < length; i++) {
+            out.put((byte) content.charAt(i)); // BoardCodec is ASCII
+        }
+        out.flip();
+        try {
+            channel.send(out, to);
+            sent.increment();
+            return true;
+        } catch (IOException e) {
+            System.out.println("Couldn't send a snapshot to " + to + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void receive() {
+        while (channel.isOpen()) {
+            in.clear();
+            SocketAddress from;
+            try {
+                from = channel.receive(in);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.out.println("Snapshot receive failed: " + e.getMessage());
+                continue;
+            }
+            in.flip();
+            received(in, from);
+        }
+    }
+
+    // receiver thread: one datagram, from position() to limit(), sent from `from`
+    void received(ByteBuffer datagram, SocketAddress from) {
+        int start = datagram.position();
+        int size = datagram.remaining();
+        int header = Connection.PREAMBLE_BYTES + Connection.HEADER_BYTES;
+        if (size < header || size > MAX_DATAGRAM_BYTES
+                || datagram.getInt(start) != Connection.PROTOCOL_MAGIC
+                || datagram.get(start + 4) != MessageType.UPDATE_BOARD_PACKED.opcode) {
+            dropped.increment();
+            return;
+        }
+        int sender = datagram.getInt(start + 5);
+        int length = datagram.getInt(start + 9);
+        if (sender < 0 || sender >= MAX_SENDER || length != size - header || !from.equals(announced.apply(sender))) {
+            dropped.increment();
+            return;
+        }
+        decoder.decode(MessageType.UPDATE_BOARD_PACKED.opcode, datagram.array(),
+                datagram.arrayOffset() + start + header, length, sender, latestOnly);
+    }
+
+    private int latestVersion(int sender) {
+        if (sender >= latest.length) {
+            int known = latest.length;
+            latest = Arrays.copyOf(latest, Math.max(2 * known, sender + 1));
+            Arrays.fill(latest, known, latest.length, -1);
+        }
+        return latest[sender];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    public static String summary() {
+        return String.format("snapshots: %d sent, %d applied, %d stale, %d dropped",
+                sent.sum(), applied.sum(), stale.sum(), dropped.sum());
+    }
+}
@@ -0,0 +1,39 @@
+package networking;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+// Where the long-running tasks that each get a thread of their own are started: receivers, writers, the connection
+// acceptor, the NIO selector, the Matchmaker's threads, the game loop and the window's setup. -Dtetris.threads=virtual runs them all on virtual
+// threads, which park on blocking socket reads without holding an OS thread, so a Matchmaker with thousands of idle
+// peers doesn't need thousands of stacks.
+// Virtual threads are always daemons: whatever keeps the process alive (main, a window) stays on a platform thread.
+// So does anything that blocks while holding a monitor, which would pin its carrier thread. That's why the
+// ActiveRenderer and BotPlayer threads are still made by hand: painting goes through AWT's monitors, and a bot spends
+// its life computing placements, neither of which a virtual thread would help with; both are daemons, so they never
+// hold the process up.
+public enum TaskThreads implements Executor {
+    PLATFORM(Thread.ofPlatform().name("task-", 0).factory()),
+    VIRTUAL(Thread.ofVirtual().name("task-", 0).factory());
+
+    public static final TaskThreads DEFAULT =
+            "virtual".equals(System.getProperty("tetris.threads")) ? VIRTUAL : PLATFORM;
+
+    private final ThreadFactory factory;
+
+    TaskThreads(ThreadFactory factory) {
+        this.factory = factory;
+    }
+
+    public Thread start(String name, Runnable task) {
+        Thread thread = factory.newThread(task);
+        thread.setName(name);
+        thread.start();
+        return thread;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        factory.newThread(task).start();
+    }
+}
@@ -1,70 +1,188 @@
 package networking;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 
-public class Transceiver {
-    public int contactID;
-    public BufferedReader in;
-    public PrintWriter out;
-    public boolean isClosed;
+// The blocking Connection: socket streams, with a thread per connection sitting in receive().
+// TCP_NODELAY is on unless -Dtetris.tcpNoDelay=false: sends are coalesced already, Nagle would only add delay.
+// Writes happen on whichever thread flushes, unless startWriter() gave the connection a writer thread: then a flush
+// only wakes the writer, which writes outside the lock, so whatever's queued meanwhile piles up in Connection's lanes
+// (where boards collapse) rather than the game loop waiting on a slow peer's socket.
+public class Transceiver extends Connection {
+    static final boolean TCP_NO_DELAY = Boolean.parseBoolean(System.getProperty("tetris.tcpNoDelay", "true"));
+    private static final long CLOSE_TIMEOUT_MS = 1000; // how long close() lets the writer finish what's queued
+
+    private final DataInputStream in;
+    private final OutputStream out;
+    private byte[] content = new byte[256]; // receiver thread only, grown to the largest frame seen
+    private int frameOpcode;
+    private int frameSender;
+    private boolean preambleRead;
+    private InetAddress remote; // null when made from bare streams
+    private final Condition flushedCondition = lock.newCondition();
+    private volatile Thread writer; // null if flushing threads write themselves
+
+    public Transceiver(int contactID, Socket socket) throws IOException {
+        this(contactID, socket.getInputStream(), socket.getOutputStream());
+        socket.setTcpNoDelay(TCP_NO_DELAY);
+        remote = socket.getInetAddress();
+    }
 
     public Transceiver(int contactID, InputStream in, OutputStream out) {
-        this.contactID = contactID;
-        this.in = new BufferedReader(new InputStreamReader(in));
-        this.out = new PrintWriter(out, true);
-        isClosed = false;
+        super(contactID);
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = out;
+    }
+
+    // From now on a thread of its own does this connection's writes
+    public void startWriter() {
+        writer = TaskThreads.DEFAULT.start(contactID >= 0 ? "writer-" + contactID : "writer", this::writeLoop);
+    }
+
+    // Writer thread: waits for a flush, and writes what's queued by then with the lock released. Once closed it
+    // writes whatever was still flushed (a goodbye, say) and stops.
+    private void writeLoop() {
+        while (true) {
+            int length;
+            lock.lock();
+            try {
+                while (!hasFlushed() && !isClosed) {
+                    flushedCondition.await();
+                }
+                if (!hasFlushed()) {
+                    return;
+                }
+                length = take();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                write(taken(), length);
+            } catch (IOException e) {
+                if (!isClosed) {
+                    System.out.println("Couldn't write to contact " + contactID + ": " + e.getMessage());
+                }
+                close();
+                return;
+            }
+        }
     }
 
-    public String receive() {
+    @Override
+    protected void flushed() {
+        if (writer == null) {
+            writeFlushed();
+        } else {
+            flushedCondition.signal();
+        }
+    }
+
+    // Blocks for the next frame. A SHUTDOWN message comes back (and the Transceiver is closed) when the peer said
+    // goodbye, hung up, or isn't speaking this protocol; null once closed.
+    public Message receive() {
         if (isClosed) {
             return null;
         }
+        int length = readFrame();
+        return length < 0 ? closed() : received(frameOpcode, frameSender, content, 0, length);
+    }
+
+    // Like receive(), but the frame is decoded straight out of the read buffer into `messages` (onShutdown when the
+    // peer left); false once closed
+    public boolean receive(MessageHandler messages) {
+        if (isClosed) {
+            return false;
+        }
+        int length = readFrame();
+        if (length < 0) {
+            closed(messages);
+            return false;
+        }
+        return received(frameOpcode, frameSender, content, 0, length, messages);
+    }
+
+    // reads a frame into frameOpcode, frameSender and `content`, returning its length, or -1 if the connection is done
+    private int readFrame() {
         try {
-            String message = in.readLine();
-            if (message == null || message.startsWith(MessageType.SHUTDOWN + " ")) {
-                if (message == null) {
-                    System.out.println("Received null-message from contact " + contactID + ", so disconnecting...");
-                } else {
-                    System.out.println("Received shutdown message, contact " + contactID + " is exiting...");
+            if (!preambleRead) {
+                int magic = in.readInt();
+                if (magic != PROTOCOL_MAGIC) {
+                    System.out.println("Contact " + contactID + " " + preambleMismatch(magic) + ", disconnecting...");
+                    return -1;
                 }
-                this.close(); // mark Transceiver as closed, this propagates because other logic looks at this boolean
-                return MessageType.SHUTDOWN.toString();
-            } else {
-                return message;
+                preambleRead = true;
             }
+            frameOpcode = in.readUnsignedByte();
+            frameSender = in.readInt();
+            int length = in.readInt();
+            if (length < 0 || length > MAX_CONTENT_BYTES) {
+                System.out.println("Contact " + contactID + " sent a " + length + " byte frame, disconnecting...");
+                return -1;
+            }
+            if (length > content.length) {
+                content = new byte[Math.max(length, 2 * content.length)];
+            }
+            in.readFully(content, 0, length);
+            return length;
+        } catch (EOFException e) {
+            System.out.println("Contact " + contactID + " hung up, so disconnecting...");
         } catch (SocketException e) {
             // "workaround" for when a client's sockets get closed but they're still trying to accept connections
             // basically a force close
             System.out.println(e.getMessage());
             System.out.println("Detected connection reset, shutting down Transceiver object");
-            this.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return null;
+        return -1;
     }
 
-    public void send(MessageType type, String message) {
-        if (isClosed) {
-            return;
-        }
-        out.println(type + " " + message);
+    @Override
+    protected void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        out.flush();
     }
 
+    @Override
+    public InetAddress remoteAddress() {
+        return remote;
+    }
+
+    // With a writer, waits up to CLOSE_TIMEOUT_MS for it to write what was flushed, unless that's the writer itself or
+    // a thread holding the lock (which the writer would need)
+    @Override
     public void close() {
+        lock.lock();
+        try {
+            isClosed = true;
+            flushedCondition.signal();
+        } finally {
+            lock.unlock();
+        }
+        Thread writer = this.writer;
+        if (writer != null && writer != Thread.currentThread() && !lock.isHeldByCurrentThread()) {
+            try {
+                writer.join(CLOSE_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         try {
             in.close();
             out.close();
-            isClosed = true;
         } catch (IOException e) {
             e.printStackTrace();
         }
-
     }
 }
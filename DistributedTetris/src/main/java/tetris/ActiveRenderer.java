@@ -0,0 +1,127 @@
+package tetris;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.image.BufferStrategy;
+import java.io.Serial;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Draws a Tetris view on its own thread at a fixed frame rate, into a BufferStrategy, instead of waiting for Swing
+// repaints.
+// The view still does all the painting (paintFrame, from the snapshot the game loop last published); this only
+// decides when. The falling piece is drawn part of the
+// way to the next row depending on how far the game loop is into its gravity tick, so it slides down smoothly while
+// the engine itself still only moves it once per tick. Frame time and FPS are drawn in the corner.
+public final class ActiveRenderer extends Canvas implements Runnable {
+    public static final int DEFAULT_FPS = 60;
+    @Serial
+    private static final long serialVersionUID = 4213862518364104187L;
+    private static final Font STATS_FONT = new Font("Monospaced", Font.PLAIN, 11);
+    private static final long STATS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Tetris view;
+    private final transient GameLoop loop;
+    private final long frameNanos;
+    private volatile boolean running;
+
+    // frame stats, render thread only; the readout is rebuilt once per STATS_INTERVAL_NANOS
+    private long statsStart;
+    private int statsFrames;
+    private long statsTotalNanos;
+    private long statsMaxNanos;
+    private String statsLabel = "";
+
+    public ActiveRenderer(Tetris view, int fps) {
+        this.view = view;
+        this.loop = view.getLoop();
+        this.frameNanos = TimeUnit.SECONDS.toNanos(1) / fps;
+        setIgnoreRepaint(true);
+        setBackground(view.getBackground());
+    }
+
+    // must be displayable (added to a visible frame) first, a BufferStrategy needs a peer
+    public void start() {
+        createBufferStrategy(2);
+        view.setActiveRendering(true);
+        running = true;
+        Thread thread = new Thread(this, "render-loop"); // a daemon platform thread, see TaskThreads
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        BufferStrategy strategy = getBufferStrategy();
+        long nextFrame = System.nanoTime();
+        statsStart = nextFrame;
+        while (running) {
+            long start = System.nanoTime();
+            render(strategy, start);
+            recordFrame(start, System.nanoTime() - start);
+
+            nextFrame += frameNanos;
+            long sleep = nextFrame - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+            } else if (sleep < -frameNanos) {
+                nextFrame = System.nanoTime(); // dropped a frame, don't try to catch up
+            }
+        }
+        view.setActiveRendering(false);
+    }
+
+    // the usual BufferStrategy dance: redraw if the back buffer was restored mid-frame, show, retry if it was lost
+    private void render(BufferStrategy strategy, long now) {
+        do {
+            do {
+                Graphics g = strategy.getDrawGraphics();
+                try {
+                    paintFrame(g, now);
+                } finally {
+                    g.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+    }
+
+    private void paintFrame(Graphics g, long now) {
+        int width = getWidth();
+        int height = getHeight();
+        if (view.getWidth() != width || view.getHeight() != height) {
+            view.setSize(width, height); // the opponent layout follows the view's width
+        }
+        g.setColor(getBackground());
+        g.fillRect(0, 0, width, height);
+        g.setColor(view.getForeground()); // what Swing would hand paintComponent
+        view.paintFrame(g, loop.gravityProgress(now));
+
+        g.setFont(STATS_FONT);
+        g.setColor(Color.black);
+        g.drawString(statsLabel, 4, height - 4);
+    }
+
+    private void recordFrame(long start, long nanos) {
+        statsFrames++;
+        statsTotalNanos += nanos;
+        statsMaxNanos = Math.max(statsMaxNanos, nanos);
+        long elapsed = start - statsStart;
+        if (elapsed >= STATS_INTERVAL_NANOS) {
+            statsLabel = String.format("frame %.2f ms avg, %.2f ms max, %.0f fps",
+                    statsTotalNanos / 1e6 / statsFrames,
+                    statsMaxNanos / 1e6,
+                    statsFrames * 1e9 / elapsed);
+            statsStart = start;
+            statsFrames = 0;
+            statsTotalNanos = 0;
+            statsMaxNanos = 0;
+        }
+    }
+}
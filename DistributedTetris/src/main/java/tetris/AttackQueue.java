@@ -0,0 +1,134 @@
+package tetris;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Bounded lock-free queue of incoming attacks, packed into longs (see EnemyPiece.pack).
+// Any number of receiver threads can offer(); only the game loop may poll(), dropOldestHalf() or clear().
+//
+// It's a ring buffer where every slot carries a sequence number (Vyukov's bounded queue): a producer claims a
+// position with a CAS on the tail, writes the entry, then publishes it by bumping the slot's sequence; the consumer
+// only reads slots whose sequence says they're published, and hands them back by bumping it past a full lap.
+//
+// Overflow policy: sand debris from bombs may only fill the queue up to debrisLimit, which leaves headroom so a flood
+// of debris can't crowd out real pieces. Anything that doesn't fit is dropped and counted.
+public final class AttackQueue implements IncomingAttacks {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final int capacity;
+    private final int mask;
+    private final int debrisLimit;
+    private final long[] entries;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // only written by the consumer
+    private volatile long discardUntil; // dropOldestHalf() leaves everything before this position to be skipped by poll()
+    private long polls; // consumer only, every call to poll()
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedDebris = new AtomicLong();
+
+    public AttackQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity is rounded up to a power of two; debris gets the first three quarters of it
+    public AttackQueue(int requestedCapacity) {
+        int size = Integer.highestOneBit(Math.max(1, requestedCapacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.debrisLimit = size - size / 4;
+        this.entries = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Safe from any thread. Returns false if the entry was dropped by the overflow policy.
+    @Override
+    public boolean offer(long entry) {
+        boolean debris = EnemyPiece.isDebris(entry);
+        long position = tail.get();
+        while (true) {
+            if (debris && position - head >= debrisLimit) {
+                droppedDebris.incrementAndGet();
+                return false;
+            }
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    entries[slot] = entry;
+                    sequences.lazySet(slot, position + 1); // publish
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the consumer hasn't freed this slot from the previous lap yet: full
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                position = tail.get(); // another producer got this position first
+            }
+        }
+    }
+
+    // Consumer only. Returns EMPTY if nothing is published yet.
+    @Override
+    public long poll() {
+        polls++;
+        long position = head;
+        while (true) {
+            int slot = (int) position & mask;
+            if (sequences.get(slot) != position + 1) {
+                return EMPTY;
+            }
+            long entry = entries[slot];
+            sequences.lazySet(slot, position + capacity); // hand the slot back to producers
+            position++;
+            head = position;
+            if (position > discardUntil) {
+                return entry;
+            }
+            // still inside a range dropOldestHalf() discarded, skip it
+        }
+    }
+
+    // Consumer only. O(1): the dropped entries are skipped by later polls instead of being removed here.
+    @Override
+    public void dropOldestHalf() {
+        long live = size();
+        discardUntil = Math.max(head, discardUntil) + live / 2;
+    }
+
+    // Consumer only
+    @Override
+    public void clear() {
+        discardUntil = tail.get();
+    }
+
+    @Override
+    public int size() {
+        long start = Math.max(head, discardUntil);
+        return (int) Math.max(0, tail.get() - start);
+    }
+
+    // Consumer only
+    @Override
+    public long pollCount() {
+        return polls;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    public long droppedDebrisCount() {
+        return droppedDebris.get();
+    }
+}
@@ -0,0 +1,199 @@
+package tetris;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Bitboard representation of a well.
+// Occupancy is one int mask per row (bit x set = column x is not OPEN), and the color of every cell is packed
+// into a byte array (TColor ordinals, row-major) so that painting and serialization still see the same colors.
+// The top filled row of every column is kept up to date on each write so drop distances don't have to scan.
+public final class Board {
+    public static final int WIDTH = 12;
+    public static final int HEIGHT = 24;
+    public static final int FLOOR_ROW = HEIGHT - 2; // the BAR row under the playfield
+    public static final int BOTTOM_PLAYABLE_ROW = FLOOR_ROW - 1;
+    public static final int TOP_OUT_ROWS = 4; // anything locked in the first 4 rows means game over
+    public static final int ALL_COLUMNS_MASK = (1 << WIDTH) - 1;
+    // columns 1 through 10, i.e. everything but the two BAR walls
+    public static final int PLAYABLE_MASK = ALL_COLUMNS_MASK & ~1 & ~(1 << (WIDTH - 1));
+
+    private static final TColor[] COLORS = TColor.values();
+
+    private final int[] rows = new int[HEIGHT];
+    private final byte[] colors = new byte[WIDTH * HEIGHT];
+    private final int[] columnTops = new int[WIDTH]; // y of the highest non-OPEN cell in each column
+
+    public Board() {
+        reset();
+    }
+
+    // Creates a border around the well (the last row is left UNKNOWN, like the old null cells were)
+    public void reset() {
+        Arrays.fill(columnTops, HEIGHT);
+        for (int y = HEIGHT - 1; y >= 0; y--) {
+            for (int x = 0; x < WIDTH; x++) {
+                TColor color;
+                if (y == HEIGHT - 1) {
+                    color = TColor.UNKNOWN;
+                } else if (x == 0 || x == WIDTH - 1 || y == FLOOR_ROW) {
+                    color = TColor.BAR;
+                } else {
+                    color = TColor.OPEN;
+                }
+                set(x, y, color);
+            }
+        }
+    }
+
+    public void copyFrom(Board other) {
+        System.arraycopy(other.rows, 0, rows, 0, HEIGHT);
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.columnTops, 0, columnTops, 0, WIDTH);
+    }
+
+    // Colors only, one byte per cell; the masks and column tops are rebuilt from them on read
+    public void writeTo(ByteBuffer out) {
+        out.put(colors);
+    }
+
+    public void readFrom(ByteBuffer in) {
+        Arrays.fill(columnTops, HEIGHT);
+        Arrays.fill(rows, 0);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                set(x, y, COLORS[in.get()]);
+            }
+        }
+    }
+
+    public TColor get(int x, int y) {
+        return COLORS[colors[y * WIDTH + x]];
+    }
+
+    public void set(int x, int y, TColor color) {
+        colors[y * WIDTH + x] = (byte) color.ordinal();
+        if (color == TColor.OPEN) {
+            rows[y] &= ~(1 << x);
+            if (y == columnTops[x]) {
+                columnTops[x] = scanForTop(x, y + 1);
+            }
+        } else {
+            rows[y] |= 1 << x;
+            if (y < columnTops[x]) {
+                columnTops[x] = y;
+            }
+        }
+    }
+
+    // first non-OPEN row in column x at or below fromRow
+    private int scanForTop(int x, int fromRow) {
+        int bit = 1 << x;
+        int y = fromRow;
+        while (y < HEIGHT && (rows[y] & bit) == 0) {
+            y++;
+        }
+        return y;
+    }
+
+    public boolean isOpen(int x, int y) {
+        return (rows[y] & (1 << x)) == 0;
+    }
+
+    public int rowMask(int y) {
+        return rows[y];
+    }
+
+    public int columnTop(int x) {
+        return columnTops[x];
+    }
+
+    // number of filled playable cells in a row; the row mask already is the counter, so this is just a popcount
+    public int rowFill(int y) {
+        return Integer.bitCount(rows[y] & PLAYABLE_MASK);
+    }
+
+    public boolean isRowFull(int y) {
+        return (rows[y] & PLAYABLE_MASK) == PLAYABLE_MASK;
+    }
+
+    // true if any non-wall cell in the top rows is filled
+    public boolean isToppedOut() {
+        for (int y = 0; y < TOP_OUT_ROWS; y++) {
+            if ((rows[y] & PLAYABLE_MASK) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Tests the piece's row masks against the well's row masks, one AND per piece row
+    public boolean collides(Tetromino piece, Rotation rotation, int x, int y) {
+        if (x < 0 || x + piece.width(rotation) > WIDTH || y + piece.height(rotation) > HEIGHT) {
+            return true;
+        }
+        int[] masks = piece.rowMasks(rotation);
+        for (int row = 0; row < masks.length; row++) {
+            if ((rows[y + row] & (masks[row] << x)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void place(Tetromino piece, Rotation rotation, int x, int y) {
+        int[] xs = piece.cellXs(rotation);
+        int[] ys = piece.cellYs(rotation);
+        for (int i = 0; i < xs.length; i++) {
+            set(x + xs[i], y + ys[i], piece.tcolor);
+        }
+    }
+
+    // Number of rows the piece can fall: for the lowest cell of every column of the piece,
+    // the run of open cells directly below it.
+    // When that cell is above the column's top this is read straight off columnTops, so it's O(piece width);
+    // only a cell tucked under an overhang falls back to scanning the column.
+    public int dropDistance(Tetromino piece, Rotation rotation, int x, int y) {
+        int distance = Integer.MAX_VALUE;
+        int[] bottoms = piece.columnBottoms(rotation);
+        for (int col = 0; col < bottoms.length; col++) {
+            if (bottoms[col] < 0) {
+                continue;
+            }
+            int cellY = y + bottoms[col];
+            int top = Math.min(columnTops[x + col], FLOOR_ROW);
+            int run;
+            if (cellY < top) {
+                run = top - cellY - 1;
+            } else {
+                run = Math.min(scanForTop(x + col, cellY + 1), FLOOR_ROW) - cellY - 1;
+            }
+            distance = Math.min(distance, run);
+        }
+        return distance;
+    }
+
+    // Shifts every playable row above `row` down by one, overwriting `row` (the top row is left as it was)
+    public void deleteRow(int row) {
+        System.arraycopy(rows, 0, rows, 1, row);
+        System.arraycopy(colors, 0, colors, WIDTH, row * WIDTH);
+        for (int x = 1; x < WIDTH - 1; x++) {
+            int top = columnTops[x];
+            if (top == 0 || top > row) {
+                continue; // the top row stays put, and nothing below `row` moved
+            }
+            // everything above `row` fell by one; if the top was `row` itself, that cell is gone
+            columnTops[x] = (top < row) ? top + 1 : scanForTop(x, row + 1);
+        }
+    }
+
+    // Column-major copy (board[x][y]), the layout BoardToString/StringToBoard and opponent boards use
+    public TColor[][] toArray() {
+        TColor[][] result = new TColor[WIDTH][HEIGHT];
+        for (int x = 0; x < WIDTH; x++) {
+            for (int y = 0; y < HEIGHT; y++) {
+                result[x][y] = get(x, y);
+            }
+        }
+        return result;
+    }
+}
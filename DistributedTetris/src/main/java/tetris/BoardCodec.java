@@ -0,0 +1,146 @@
+package tetris;
+
+import java.util.Arrays;
+
+// Packed binary board encoding for UPDATE_BOARD_PACKED, replacing BoardToString's one character per cell.
+// Layout: [version][encoding][cells], then base64 (no padding) so it still fits in a line of the text protocol.
+// Cells are in row-major order with a TColor ordinal per 4 bits, either
+//  - RAW: two cells per byte, high nibble first, or
+//  - RLE: one byte per run, color in the high nibble and run length - 1 in the low one,
+// whichever is shorter (a well is mostly long runs of OPEN between the walls, so usually RLE).
+// Decoding goes straight from the text into a caller's array without allocating anything.
+public final class BoardCodec {
+    public static final int VERSION = 1;
+    // what a peer announces in CAPABILITIES when it can receive this encoding
+    public static final String CAPABILITY = "packedBoard" + VERSION;
+    static final int RAW = 0;
+    static final int RLE = 1;
+    private static final int CELLS = Board.WIDTH * Board.HEIGHT;
+    private static final int MAX_RUN = 16;
+    private static final int HEADER_BYTES = 2;
+    private static final TColor[] COLORS = TColor.values();
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    // reused by encode, so one codec per thread that encodes (the game loop)
+    private final byte[] raw = new byte[HEADER_BYTES + CELLS / 2];
+    private final byte[] rle = new byte[HEADER_BYTES + CELLS];
+    private final char[] text = new char[(rle.length * 4 + 2) / 3];
+
+    public String encode(Board board) {
+        raw[0] = rle[0] = VERSION;
+        raw[1] = RAW;
+        rle[1] = RLE;
+        int rleLength = HEADER_BYTES;
+        int runColor = -1;
+        int runLength = 0;
+        for (int cell = 0; cell < CELLS; cell++) {
+            int color = board.get(cell % Board.WIDTH, cell / Board.WIDTH).ordinal();
+            int at = HEADER_BYTES + cell / 2;
+            raw[at] = (cell & 1) == 0 ? (byte) (color << 4) : (byte) (raw[at] | color);
+            if (color == runColor && runLength < MAX_RUN) {
+                runLength++;
+            } else {
+                if (runLength > 0) {
+                    rle[rleLength++] = (byte) ((runColor << 4) | (runLength - 1));
+                }
+                runColor = color;
+                runLength = 1;
+            }
+        }
+        rle[rleLength++] = (byte) ((runColor << 4) | (runLength - 1));
+        return rleLength < raw.length ? toBase64(rle, rleLength) : toBase64(raw, raw.length);
+    }
+
+    private String toBase64(byte[] bytes, int length) {
+        int out = 0;
+        for (int i = 0; i < length; i += 3) {
+            int chunk = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < length) {
+                chunk |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < length) {
+                chunk |= bytes[i + 2] & 0xFF;
+            }
+            int chars = Math.min(4, (length - i) * 4 / 3 + 1);
+            for (int c = 0; c < chars; c++) {
+                text[out++] = digit((chunk >> (18 - 6 * c)) & 0x3F);
+            }
+        }
+        return new String(text, 0, out);
+    }
+
+    // Fills cells[x][y] (the column-major layout opponent boards use) from `encoded`.
+    // False if it's malformed or a version this build doesn't know, in which case cells may be partly written.
+    public static boolean decode(CharSequence encoded, TColor[][] cells) {
+        int length = encoded.length();
+        int bits = 0;
+        int bitCount = 0;
+        int byteIndex = 0;
+        int encoding = -1;
+        int cell = 0;
+        for (int i = 0; i < length; i++) {
+            int value = value(encoded.charAt(i));
+            if (value < 0) {
+                return false;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount < 8) {
+                continue;
+            }
+            bitCount -= 8;
+            int b = (bits >> bitCount) & 0xFF;
+            switch (byteIndex++) {
+                case 0 -> {
+                    if (b != VERSION) {
+                        return false;
+                    }
+                }
+                case 1 -> encoding = b;
+                default -> {
+                    if (encoding == RLE) {
+                        cell = fill(cells, cell, b >> 4, (b & 0xF) + 1);
+                    } else if (encoding == RAW) {
+                        cell = fill(cells, cell, b >> 4, 1);
+                        cell = cell < 0 ? cell : fill(cells, cell, b & 0xF, 1);
+                    } else {
+                        return false;
+                    }
+                    if (cell < 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return cell == CELLS;
+    }
+
+    // one base64 digit, shared with BoardDelta's text fields
+    static char digit(int value) {
+        return ALPHABET[value];
+    }
+
+    // the value of a base64 digit, or -1 if it isn't one
+    static int value(char digit) {
+        return digit < DECODE.length ? DECODE[digit] : -1;
+    }
+
+    // writes `count` cells of `color` from `cell` on, returning the next cell or -1 if they don't fit
+    private static int fill(TColor[][] cells, int cell, int color, int count) {
+        if (color >= COLORS.length || cell + count > CELLS) {
+            return -1;
+        }
+        for (int end = cell + count; cell < end; cell++) {
+            cells[cell % Board.WIDTH][cell / Board.WIDTH] = COLORS[color];
+        }
+        return cell;
+    }
+}
@@ -0,0 +1,121 @@
+package tetris;
+
+// Delta board updates for BOARD_DELTA: instead of the whole well, the rows deleted and the cells that changed since
+// the previous update, tagged with a board version so a receiver can tell when it missed one.
+//
+// Sender side (one per game, game loop thread only): keeps a shadow of the board as receivers last got it. next()
+// replays the engine's row deletions on the shadow, diffs it against the real board and bumps the version. Every
+// KEYFRAME_INTERVAL versions (and whenever the delta wouldn't be smaller) a full BoardCodec keyframe goes out
+// instead; a receiver that sees a gap asks for one.
+//
+// Text form, three space-separated fields: `<version> <deleted rows> <changed cells>`, each row one base64 digit and
+// each cell three (9 bits of row-major index, 4 bits of TColor ordinal), "-" for an empty field.
+public final class BoardDelta {
+    public static final int VERSION = 1;
+    // what a peer announces in CAPABILITIES when it can receive deltas
+    public static final String CAPABILITY = "boardDelta" + VERSION;
+    public static final int KEYFRAME_INTERVAL = 32;
+    private static final int CELLS = Board.WIDTH * Board.HEIGHT;
+    private static final TColor[] COLORS = TColor.values();
+    private static final String EMPTY = "-";
+
+    private final Board shadow = new Board();
+    private final BoardCodec codec = new BoardCodec();
+    private final StringBuilder text = new StringBuilder();
+    private int version;
+    private String delta;
+    private String keyframe;
+
+    // Game loop: `board` after the engine deleted `deletedRows` (in order) and changed whatever else
+    public void next(Board board, int[] deletedRows, int deletedCount) {
+        version++;
+        text.setLength(0);
+        text.append(version).append(' ');
+        for (int i = 0; i < deletedCount; i++) {
+            shadow.deleteRow(deletedRows[i]);
+            text.append(BoardCodec.digit(deletedRows[i]));
+        }
+        if (deletedCount == 0) {
+            text.append(EMPTY);
+        }
+        text.append(' ');
+        int cellsStart = text.length();
+        for (int y = 0; y < Board.HEIGHT; y++) {
+            for (int x = 0; x < Board.WIDTH; x++) {
+                TColor color = board.get(x, y);
+                if (shadow.get(x, y) != color) {
+                    shadow.set(x, y, color);
+                    int packed = ((y * Board.WIDTH + x) << 4) | color.ordinal();
+                    text.append(BoardCodec.digit(packed >> 12))
+                            .append(BoardCodec.digit((packed >> 6) & 0x3F))
+                            .append(BoardCodec.digit(packed & 0x3F));
+                }
+            }
+        }
+        if (text.length() == cellsStart) {
+            text.append(EMPTY);
+        }
+        keyframe = null;
+        // keyframes of a well in play run ~150-190 characters, a longer delta isn't worth it
+        boolean keyframeDue = version % KEYFRAME_INTERVAL == 1 || text.length() > 160;
+        delta = keyframeDue ? null : text.toString();
+    }
+
+    public int version() {
+        return version;
+    }
+
+    // the delta for the last next(), or null when this update should go out as a keyframe
+    public String delta() {
+        return delta;
+    }
+
+    // the whole board at version(), encoded at most once per version
+    public String keyframe() {
+        if (keyframe == null) {
+            keyframe = codec.encode(shadow);
+        }
+        return keyframe;
+    }
+
+    // Receiver: applies a delta's rows and cells to cells[x][y]; false if either is malformed (cells may be partly
+    // written, so the board needs a keyframe then)
+    public static boolean apply(CharSequence rows, CharSequence changed, TColor[][] cells) {
+        if (!isEmpty(rows)) {
+            for (int i = 0; i < rows.length(); i++) {
+                int row = BoardCodec.value(rows.charAt(i));
+                if (row < 0 || row >= Board.HEIGHT) {
+                    return false;
+                }
+                for (TColor[] column : cells) {
+                    System.arraycopy(column, 0, column, 1, row); // like Board.deleteRow
+                }
+            }
+        }
+        if (!isEmpty(changed)) {
+            if (changed.length() % 3 != 0) {
+                return false;
+            }
+            for (int i = 0; i < changed.length(); i += 3) {
+                int high = BoardCodec.value(changed.charAt(i));
+                int middle = BoardCodec.value(changed.charAt(i + 1));
+                int low = BoardCodec.value(changed.charAt(i + 2));
+                if (high < 0 || middle < 0 || low < 0) {
+                    return false;
+                }
+                int packed = (high << 12) | (middle << 6) | low;
+                int cell = packed >> 4;
+                int color = packed & 0xF;
+                if (cell >= CELLS || color >= COLORS.length) {
+                    return false;
+                }
+                cells[cell % Board.WIDTH][cell / Board.WIDTH] = COLORS[color];
+            }
+        }
+        return true;
+    }
+
+    private static boolean isEmpty(CharSequence field) {
+        return field.length() == 1 && field.charAt(0) == '-';
+    }
+}
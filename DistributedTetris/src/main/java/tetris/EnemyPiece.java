@@ -3,6 +3,20 @@ package tetris;
 import java.awt.Point;
 
 public class EnemyPiece {
+    // layout of an attack packed into a long for the AttackQueue
+    private static final int X_SHIFT = 0;
+    private static final int Y_SHIFT = 8;
+    private static final int ROTATION_SHIFT = 16;
+    private static final int PIECE_SHIFT = 24;
+    private static final int DEBRIS_SHIFT = 32;
+    private static final long BYTE = 0xFF;
+
+    // A bomb's debris is one attack: SAND at the top left corner of a DEBRIS_SIZE x DEBRIS_SIZE area, plus a mask of
+    // the grains in it (bit DEBRIS_SIZE * row + column). A plain SAND attack has no mask, it's the one grain there.
+    public static final int DEBRIS_SIZE = 5;
+    public static final int DEBRIS_MASK = (1 << DEBRIS_SIZE * DEBRIS_SIZE) - 1;
+    public static final String DEBRIS_CAPABILITY = "debris"; // the peer takes DEBRIS messages, not an ATTACK per grain
+
     Point pieceOrigin;
     Rotation rotation;
     Tetromino pieceType;
@@ -13,6 +27,61 @@ public class EnemyPiece {
         this.pieceType = pieceType;
     }
 
+    public static long pack(int x, int y, Rotation rotation, Tetromino pieceType) {
+        return ((x & BYTE) << X_SHIFT)
+                | ((y & BYTE) << Y_SHIFT)
+                | ((long) rotation.toInt() << ROTATION_SHIFT)
+                | ((long) pieceType.ordinal() << PIECE_SHIFT);
+    }
+
+    // whether an ATTACK's fields are a piece that lies within the well, which is all pack() and the engine can take
+    public static boolean fits(int x, int y, int rotation, int piece) {
+        if (rotation < 0 || rotation >= Rotation.ORDER.length || piece < 0 || piece >= Tetromino.COUNT) {
+            return false;
+        }
+        Rotation r = Rotation.ORDER[rotation];
+        Tetromino t = Tetromino.fromInt(piece);
+        return x >= 0 && y >= 0 && x + t.width(r) <= Board.WIDTH && y + t.height(r) <= Board.HEIGHT;
+    }
+
+    public static long packDebris(int x, int y, int mask) {
+        return pack(x, y, Rotation._0, Tetromino.SAND) | ((long) (mask & DEBRIS_MASK) << DEBRIS_SHIFT);
+    }
+
+    public static int packedX(long packed) {
+        return (int) ((packed >>> X_SHIFT) & BYTE);
+    }
+
+    public static int packedY(long packed) {
+        return (int) ((packed >>> Y_SHIFT) & BYTE);
+    }
+
+    public static Rotation packedRotation(long packed) {
+        return Rotation.fromInt((int) ((packed >>> ROTATION_SHIFT) & BYTE));
+    }
+
+    public static Tetromino packedPiece(long packed) {
+        return Tetromino.fromInt((int) ((packed >>> PIECE_SHIFT) & BYTE));
+    }
+
+    public static boolean isDebris(long packed) {
+        return packedPiece(packed) == Tetromino.SAND;
+    }
+
+    // the grains of a debris attack
+    public static int packedDebris(long packed) {
+        int mask = (int) (packed >>> DEBRIS_SHIFT);
+        return mask == 0 ? 1 : mask;
+    }
+
+    public static EnemyPiece unpack(long packed) {
+        return new EnemyPiece(new Point(packedX(packed), packedY(packed)), packedRotation(packed), packedPiece(packed));
+    }
+
+    public long pack() {
+        return pack(pieceOrigin.x, pieceOrigin.y, rotation, pieceType);
+    }
+
     public String toString() {
         return "EnemyPiece, pieceOrigin={" + pieceOrigin.x + ", " + pieceOrigin.y + "} rotation: " + rotation + " type: " + pieceType;
     }
@@ -0,0 +1,57 @@
+package tetris;
+
+import java.util.function.Consumer;
+
+// Something for the game loop to apply to the engine: an event that arrived from the network, or a callback from code
+// that needs to read the engine consistently (bots take their snapshots this way). Key presses are posted as bare
+// GameInputs instead, so they don't allocate.
+// (Attacks don't come through here, receiver threads put them straight onto the engine's AttackQueue.)
+public final class GameEvent {
+    public enum Type {
+        RANDOM_EVENT,
+        DEATH,
+        CALLBACK
+    }
+
+    public final Type type;
+    public final RandomEvent randomEvent;
+    public final int from;
+    public final Consumer<TetrisEngine> callback;
+
+    private GameEvent(Type type, RandomEvent randomEvent, int from, Consumer<TetrisEngine> callback) {
+        this.type = type;
+        this.randomEvent = randomEvent;
+        this.from = from;
+        this.callback = callback;
+    }
+
+    public static GameEvent randomEvent(RandomEvent event) {
+        return new GameEvent(Type.RANDOM_EVENT, event, -1, null);
+    }
+
+    public static GameEvent death(int from) {
+        return new GameEvent(Type.DEATH, null, from, null);
+    }
+
+    // runs on the game loop thread, in order with everything else that was posted
+    public static GameEvent callback(Consumer<TetrisEngine> callback) {
+        return new GameEvent(Type.CALLBACK, null, -1, callback);
+    }
+
+    public void applyTo(TetrisEngine engine) {
+        switch (type) {
+            case RANDOM_EVENT -> engine.triggerRandomEvent(randomEvent);
+            case DEATH -> engine.handleDeath(from);
+            case CALLBACK -> callback.accept(engine);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return switch (type) {
+            case RANDOM_EVENT -> "RANDOM_EVENT " + randomEvent;
+            case DEATH -> "DEATH from " + from;
+            case CALLBACK -> "CALLBACK";
+        };
+    }
+}
@@ -0,0 +1,120 @@
+package tetris;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// What's posted to a GameLoop, in the order it was posted: any number of threads offer, only the loop polls.
+// The same kind of ring as AttackQueue (a sequence number per slot, Vyukov's bounded queue), but a slot holds either a
+// GameInput, as its ordinal, or a GameEvent, plus when it was posted. So a key press or a bot's input allocates
+// nothing on its way to the engine; only the rarer events (network, callbacks) are objects.
+//
+// Full means the loop has stopped draining: inputs are then dropped and counted, while events wait for room, since
+// a DEATH or a callback someone waits on mustn't get lost.
+final class GameEventQueue {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] inputs; // GameInput ordinal, or -1 for an event
+    private final GameEvent[] events;
+    private final long[] postedNanos;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head; // only written by the consumer
+    private final AtomicLong droppedInputs = new AtomicLong();
+
+    // what the last poll() returned; consumer only
+    private int input;
+    private GameEvent event;
+    private long posted;
+
+    // capacity is rounded up to a power of two
+    GameEventQueue(int requestedCapacity) {
+        int size = Integer.highestOneBit(Math.max(1, requestedCapacity - 1)) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.inputs = new int[size];
+        this.events = new GameEvent[size];
+        this.postedNanos = new long[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Safe from any thread. False if the queue was full and the input was dropped.
+    boolean offer(GameInput input) {
+        return offer(input.ordinal(), null);
+    }
+
+    // Safe from any thread, waits for room if the queue is full
+    void offer(GameEvent event) {
+        while (!offer(-1, event)) {
+            Thread.yield();
+        }
+    }
+
+    private boolean offer(int input, GameEvent event) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    inputs[slot] = input;
+                    events[slot] = event;
+                    postedNanos[slot] = System.nanoTime();
+                    sequences.lazySet(slot, position + 1); // publish
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the loop hasn't freed this slot from the previous lap yet: full
+                if (event == null) {
+                    droppedInputs.incrementAndGet();
+                }
+                return false;
+            } else {
+                position = tail.get(); // another producer got this position first
+            }
+        }
+    }
+
+    // Consumer only. False if nothing is published yet; otherwise input(), event() and postedNanos() describe it.
+    boolean poll() {
+        long position = head;
+        int slot = (int) position & mask;
+        if (sequences.get(slot) != position + 1) {
+            return false;
+        }
+        input = inputs[slot];
+        event = events[slot];
+        posted = postedNanos[slot];
+        events[slot] = null;
+        sequences.lazySet(slot, position + capacity); // hand the slot back to producers
+        head = position + 1;
+        return true;
+    }
+
+    // the polled GameInput's ordinal, -1 if it was an event
+    int input() {
+        return input;
+    }
+
+    GameEvent event() {
+        return event;
+    }
+
+    long postedNanos() {
+        return posted;
+    }
+
+    // approximate when producers are mid-offer
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    long droppedInputCount() {
+        return droppedInputs.get();
+    }
+}
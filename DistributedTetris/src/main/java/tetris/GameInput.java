@@ -0,0 +1,34 @@
+package tetris;
+
+// Player inputs, as queued onto the GameLoop
+public enum GameInput {
+    ROTATE_CCW,
+    ROTATE_CW,
+    ROTATE_180,
+    MOVE_LEFT,
+    MOVE_RIGHT,
+    SOFT_DROP,
+    HARD_DROP,
+    TOGGLE_MODE,
+    BOMB,
+    HARD_DROP_AND_BOMB,
+    RESTART;
+
+    static final GameInput[] VALUES = values();
+
+    public void applyTo(TetrisEngine engine) {
+        switch (this) {
+            case ROTATE_CCW -> engine.rotate(-1);
+            case ROTATE_CW -> engine.rotate(+1);
+            case ROTATE_180 -> engine.rotate(2);
+            case MOVE_LEFT -> engine.move(-1);
+            case MOVE_RIGHT -> engine.move(+1);
+            case SOFT_DROP -> engine.dropDown();
+            case HARD_DROP -> engine.dropToBottom();
+            case TOGGLE_MODE -> engine.toggleMode();
+            case BOMB -> engine.bombBoard();
+            case HARD_DROP_AND_BOMB -> engine.dropToBottomAndBomb();
+            case RESTART -> engine.init();
+        }
+    }
+}
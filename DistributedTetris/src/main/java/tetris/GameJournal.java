@@ -0,0 +1,148 @@
+package tetris;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+// Append-only binary record of one game: everything the engine was fed, enough for GameReplay to re-run it exactly.
+// That's the player's inputs, random event decisions, deaths and the attacks the engine took off its queue (recorded
+// by which poll returned them, since when an attack arrives is up to the network), plus an engine keyframe every
+// KEYFRAME_STEPS so a replay can start from the middle. Opponent board updates are left out, they only feed the view.
+//
+// Records are [int length][byte type][long step][payload], with length counting everything after itself.
+// The file is memory-mapped and grown a chunk at a time; close() trims it, and a game that never got to close()
+// just ends in zeros, which a reader takes as the end.
+//
+// Only the game loop thread writes to it (GameLoop, and the engine through TetrisListener). If the disk fails the
+// journal turns itself off rather than taking the game down.
+public final class GameJournal implements TetrisListener, Closeable {
+    public static final int VERSION = 1;
+    public static final int KEYFRAME_STEPS = 10 * GameLoop.GRAVITY_STEPS;
+    static final byte HEADER = 1;
+    static final byte INPUT = 2;
+    static final byte RANDOM_EVENT = 3;
+    static final byte DEATH = 4;
+    static final byte ATTACK = 5;
+    static final byte KEYFRAME = 6;
+    static final byte END = 7;
+    static final int RECORD_HEADER_BYTES = Integer.BYTES + 1 + Long.BYTES;
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final TetrisEngine engine;
+    private MappedByteBuffer buffer;
+    private long bufferStart; // file offset of buffer position 0
+    private long step;
+    private boolean failed;
+
+    public GameJournal(Path file, TetrisEngine engine) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        this.engine = engine;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_BYTES);
+        engine.addListener(this);
+    }
+
+    public static Path defaultFile(int processID) {
+        return Paths.get("tetris-" + processID + "-" + System.currentTimeMillis() + ".journal");
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // before engine.init(): the version, the step length and the engine's starting state (mostly its random seed)
+    public void writeHeader() {
+        if (begin(HEADER, 2 * Integer.BYTES + TetrisEngine.STATE_BYTES)) {
+            buffer.putInt(VERSION);
+            buffer.putInt(GameLoop.GRAVITY_STEPS);
+            engine.writeState(buffer);
+        }
+    }
+
+    // start of every loop step, before its events are applied
+    public void beginStep(long step) {
+        this.step = step;
+        if (step % KEYFRAME_STEPS == 0 && begin(KEYFRAME, Long.BYTES + TetrisEngine.STATE_BYTES)) {
+            buffer.putLong(engine.getAttackQueue().pollCount());
+            engine.writeState(buffer);
+        }
+    }
+
+    public void input(GameInput input) {
+        if (begin(INPUT, 1)) {
+            buffer.put((byte) input.ordinal());
+        }
+    }
+
+    public void event(GameEvent event) {
+        switch (event.type) {
+            case RANDOM_EVENT -> {
+                if (begin(RANDOM_EVENT, 1)) {
+                    buffer.put((byte) event.randomEvent.ordinal());
+                }
+            }
+            case DEATH -> {
+                if (begin(DEATH, Integer.BYTES)) {
+                    buffer.putInt(event.from);
+                }
+            }
+            case CALLBACK -> {
+                // read-only peeks at the engine (bots), nothing to replay
+            }
+        }
+    }
+
+    @Override
+    public void onAttackTaken(long packedAttack) {
+        if (begin(ATTACK, 2 * Long.BYTES)) {
+            buffer.putLong(engine.getAttackQueue().pollCount() - 1);
+            buffer.putLong(packedAttack);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!failed) {
+            begin(END, 0);
+            buffer.force();
+        }
+        try {
+            channel.truncate(bufferStart + buffer.position());
+        } catch (IOException e) {
+            // some platforms won't truncate a mapped file; the zeros after END are harmless
+        }
+        channel.close();
+    }
+
+    // writes the record header, making sure the whole record fits in the mapped region first
+    private boolean begin(byte type, int payloadBytes) {
+        if (failed) {
+            return false;
+        }
+        int recordBytes = RECORD_HEADER_BYTES + payloadBytes;
+        if (buffer.remaining() < recordBytes + Integer.BYTES) { // always leave room for the zero that ends the file
+            try {
+                bufferStart += buffer.position();
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, bufferStart, Math.max(CHUNK_BYTES, recordBytes * 2));
+            } catch (IOException e) {
+                System.err.println("Journal " + file + " stopped: " + e.getMessage());
+                failed = true;
+                return false;
+            }
+        }
+        buffer.putInt(recordBytes - Integer.BYTES);
+        buffer.put(type);
+        buffer.putLong(step);
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+package tetris;
+
+import networking.TaskThreads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// The only thread that touches a TetrisEngine.
+// Key presses (EDT) and network events (receiver threads) are posted onto a lock-free queue (inputs without
+// allocating, see GameEventQueue); the loop drains it once per fixed step and applies gravity every GRAVITY_STEPS
+// steps, so the engine never sees concurrent callers and the order things happened in is exactly the order they were
+// applied in.
+public class GameLoop implements Runnable {
+    public static final int STEP_MS = 10;
+    public static final int GRAVITY_STEPS = Tetris.GAME_TICK_MS / STEP_MS;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(STEP_MS);
+    private static final long GRAVITY_NANOS = STEP_NANOS * GRAVITY_STEPS;
+
+    private final TetrisEngine engine;
+    private final GameEventQueue events = new GameEventQueue(GameEventQueue.DEFAULT_CAPACITY); // this loop consumes
+    private volatile boolean running;
+    private long step;
+    private GameJournal journal; // optional, set before start()
+    private Runnable afterStep; // optional, set before start()
+    private volatile long lastGravityNanos;
+
+    // written by the loop thread only, read by anyone who asks for stats
+    private volatile long stepCount;
+    private volatile long totalStepNanos;
+    private volatile long maxStepNanos;
+    private volatile long eventCount;
+    private volatile long totalEventLatencyNanos;
+    private volatile long maxEventLatencyNanos;
+
+    public GameLoop(TetrisEngine engine) {
+        this.engine = engine;
+    }
+
+    public TetrisEngine getEngine() {
+        return engine;
+    }
+
+    // records everything this loop feeds the engine, from the next start() on
+    public void setJournal(GameJournal journal) {
+        this.journal = journal;
+    }
+
+    // runs on the loop thread at the end of every step (the network client flushes what the step sent)
+    public void setAfterStep(Runnable afterStep) {
+        this.afterStep = afterStep;
+    }
+
+    public void post(GameEvent event) {
+        events.offer(event);
+    }
+
+    // dropped (and counted in statsSummary()) only if the loop has fallen a whole queue behind
+    public void post(GameInput input) {
+        events.offer(input);
+    }
+
+    public void start() {
+        running = true;
+        TaskThreads.DEFAULT.start("game-loop", this);
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        if (journal != null) {
+            journal.writeHeader();
+        }
+        engine.init();
+        long nextStep = System.nanoTime();
+        lastGravityNanos = nextStep;
+        while (running) {
+            long start = System.nanoTime();
+            runStep(start);
+            recordStep(System.nanoTime() - start);
+
+            nextStep += STEP_NANOS;
+            long sleep = nextStep - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+            } else if (sleep < -STEP_NANOS * GRAVITY_STEPS) {
+                nextStep = System.nanoTime(); // fell a whole gravity tick behind (debugger, GC, suspend), don't try to catch up
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // One fixed step: apply everything that was posted, then gravity if it's due. Whatever throws is logged and the
+    // step goes on: this is the only thread the game has, and one bad event mustn't stop it for good.
+    void runStep(long now) {
+        if (journal != null) {
+            journal.beginStep(step);
+        }
+        while (events.poll()) {
+            GameEvent event = events.event();
+            try {
+                if (event == null) {
+                    GameInput input = GameInput.VALUES[events.input()];
+                    if (journal != null) {
+                        journal.input(input);
+                    }
+                    input.applyTo(engine);
+                } else {
+                    if (journal != null) {
+                        journal.event(event);
+                    }
+                    event.applyTo(engine);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            recordEvent(now - events.postedNanos());
+        }
+        try {
+            engine.noticeAttacks();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        step++;
+        if (step % GRAVITY_STEPS == 0) {
+            try {
+                engine.tick();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            lastGravityNanos = now;
+        }
+        if (afterStep != null) {
+            try {
+                afterStep.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // how far into the current gravity tick `now` is, from 0 up to (not including) 1; for interpolating the falling piece
+    public double gravityProgress(long now) {
+        double progress = (double) (now - lastGravityNanos) / GRAVITY_NANOS;
+        return Math.max(0, Math.min(progress, 0.999));
+    }
+
+    private void recordStep(long nanos) {
+        stepCount++;
+        totalStepNanos += nanos;
+        if (nanos > maxStepNanos) {
+            maxStepNanos = nanos;
+        }
+    }
+
+    private void recordEvent(long latencyNanos) {
+        eventCount++;
+        totalEventLatencyNanos += latencyNanos;
+        if (latencyNanos > maxEventLatencyNanos) {
+            maxEventLatencyNanos = latencyNanos;
+        }
+    }
+
+    public String statsSummary() {
+        long steps = stepCount;
+        long handled = eventCount;
+        return String.format("steps: %d (avg %.1f us, max %.1f us), events: %d (avg wait %.1f us, max wait %.1f us), "
+                        + "queued: %d, inputs dropped: %d",
+                steps,
+                steps == 0 ? 0.0 : totalStepNanos / 1000.0 / steps,
+                maxStepNanos / 1000.0,
+                handled,
+                handled == 0 ? 0.0 : totalEventLatencyNanos / 1000.0 / handled,
+                maxEventLatencyNanos / 1000.0,
+                events.size(),
+                events.droppedInputCount());
+    }
+}
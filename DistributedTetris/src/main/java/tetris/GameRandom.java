@@ -0,0 +1,41 @@
+package tetris;
+
+import java.util.Random;
+
+// java.util.Random with its state exposed, so a journal keyframe can capture it and a replay can restore it.
+// Same LCG and constants as Random, so a GameRandom(seed) rolls exactly what a Random(seed) would.
+public class GameRandom extends Random {
+    private static final long serialVersionUID = 6029384516217330482L;
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    private long state; // no initializer: Random's constructor already set it through setSeed
+
+    public GameRandom() {
+        super();
+    }
+
+    public GameRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        state = (state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (state >>> (48 - bits));
+    }
+
+    public long getState() {
+        return state;
+    }
+
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
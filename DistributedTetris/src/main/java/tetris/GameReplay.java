@@ -0,0 +1,206 @@
+package tetris;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+// Re-runs a GameJournal through a fresh TetrisEngine as fast as it will go, with no window, network or timer, so a
+// slow session from a real game can be reproduced under a profiler. Every keyframe it passes is compared against the
+// engine's own state to prove the replay hasn't drifted from what was recorded.
+//
+// usage: GameReplay [journal file] (-seek [keyframe number]) (-repeat [times])
+public class GameReplay {
+    private final ByteBuffer journal;
+    private final int headerPosition;
+    private final List<Integer> keyframePositions = new ArrayList<>();
+    private final ReplayAttackQueue attacks = new ReplayAttackQueue();
+    private final ByteBuffer expectedState = ByteBuffer.allocate(TetrisEngine.STATE_BYTES);
+    private final ByteBuffer actualState = ByteBuffer.allocate(TetrisEngine.STATE_BYTES);
+    private final int gravitySteps;
+
+    private TetrisEngine engine;
+    private long step;
+    private long recordsApplied;
+    private int keyframesChecked;
+    private int keyframesDiverged;
+
+    public GameReplay(ByteBuffer journal) {
+        this.journal = journal;
+        this.headerPosition = scan();
+        if (headerPosition < 0) {
+            throw new IllegalArgumentException("not a game journal (no header record)");
+        }
+        int version = journal.getInt(headerPosition + GameJournal.RECORD_HEADER_BYTES);
+        if (version != GameJournal.VERSION) {
+            throw new IllegalArgumentException("journal version " + version + ", this replay reads " + GameJournal.VERSION);
+        }
+        this.gravitySteps = journal.getInt(headerPosition + GameJournal.RECORD_HEADER_BYTES + Integer.BYTES);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 && args.length != 3 && args.length != 5) {
+            System.err.println("usage: [journal file] (-seek [keyframe number]) (-repeat [times])");
+            System.err.println("ex: tetris-3-1634481234567.journal -seek 12 -repeat 100");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        int seek = -1;
+        int repeat = 1;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-seek" -> seek = Integer.parseInt(args[i + 1]);
+                case "-repeat" -> repeat = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.err.println("unknown option " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        GameReplay replay;
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            replay = new GameReplay(mapped);
+        }
+        System.out.println(file + ": " + replay.keyframeCount() + " keyframes, " + replay.attacks.recordedCount() + " attacks taken");
+
+        for (int i = 0; i < repeat; i++) {
+            long start = System.nanoTime();
+            if (seek >= 0) {
+                replay.seek(seek);
+            } else {
+                replay.restart();
+            }
+            replay.runToEnd();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("replayed %d records, %d steps in %.3f s (%.0f steps/s) | score %d, status %s | keyframes %d checked, %d diverged%n",
+                    replay.recordsApplied, replay.step, seconds, replay.step / seconds,
+                    replay.engine.getScore(), replay.engine.getStatus(), replay.keyframesChecked, replay.keyframesDiverged);
+        }
+    }
+
+    public int keyframeCount() {
+        return keyframePositions.size();
+    }
+
+    public TetrisEngine getEngine() {
+        return engine;
+    }
+
+    // back to the start of the game: the recorded starting state, then init() like GameLoop.run() does
+    public void restart() {
+        newEngine();
+        engine.readState(journal.duplicate().position(headerPosition + GameJournal.RECORD_HEADER_BYTES + 2 * Integer.BYTES));
+        attacks.seek(0);
+        engine.init();
+        step = 0;
+        resetCounters();
+        journal.position(next(headerPosition));
+    }
+
+    // straight to a keyframe, without replaying anything before it
+    public void seek(int keyframe) {
+        int position = keyframePositions.get(keyframe);
+        newEngine();
+        ByteBuffer payload = journal.duplicate().position(position + GameJournal.RECORD_HEADER_BYTES);
+        attacks.seek(payload.getLong());
+        engine.readState(payload);
+        step = journal.getLong(position + Integer.BYTES + 1);
+        resetCounters();
+        journal.position(next(position)); // the keyframe itself was just applied
+    }
+
+    public void runToEnd() {
+        while (journal.remaining() >= GameJournal.RECORD_HEADER_BYTES) {
+            int position = journal.position();
+            int length = journal.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            byte type = journal.get(position + Integer.BYTES);
+            long recordStep = journal.getLong(position + Integer.BYTES + 1);
+            int payload = position + GameJournal.RECORD_HEADER_BYTES;
+            advanceTo(recordStep);
+            switch (type) {
+                case GameJournal.INPUT -> GameInput.values()[journal.get(payload)].applyTo(engine);
+                case GameJournal.RANDOM_EVENT -> engine.triggerRandomEvent(RandomEvent.values()[journal.get(payload)]);
+                case GameJournal.DEATH -> engine.handleDeath(journal.getInt(payload));
+                case GameJournal.KEYFRAME -> checkKeyframe(payload);
+                default -> {
+                    // ATTACK was loaded into the queue up front, END only moves the clock
+                }
+            }
+            recordsApplied++;
+            journal.position(next(position));
+        }
+    }
+
+    // the same stepping GameLoop.runStep does once a step's events are applied
+    private void advanceTo(long recordStep) {
+        while (step < recordStep) {
+            step++;
+            if (step % gravitySteps == 0) {
+                engine.tick();
+            }
+        }
+    }
+
+    private void checkKeyframe(int payload) {
+        keyframesChecked++;
+        expectedState.clear();
+        expectedState.put(journal.duplicate().position(payload + Long.BYTES).limit(payload + Long.BYTES + TetrisEngine.STATE_BYTES));
+        actualState.clear();
+        engine.writeState(actualState);
+        boolean diverged = journal.getLong(payload) != attacks.pollCount()
+                || !Arrays.equals(expectedState.array(), actualState.array());
+        if (diverged) {
+            keyframesDiverged++;
+            System.err.println("replay diverged from the recording by step " + step);
+        }
+    }
+
+    // one pass over the file: find the header and keyframes, and hand every recorded attack to the queue
+    private int scan() {
+        int header = -1;
+        int position = 0;
+        while (position + GameJournal.RECORD_HEADER_BYTES <= journal.limit()) {
+            int length = journal.getInt(position);
+            if (length == 0) {
+                break;
+            }
+            byte type = journal.get(position + Integer.BYTES);
+            int payload = position + GameJournal.RECORD_HEADER_BYTES;
+            switch (type) {
+                case GameJournal.HEADER -> header = position;
+                case GameJournal.KEYFRAME -> keyframePositions.add(position);
+                case GameJournal.ATTACK -> attacks.add(journal.getLong(payload), journal.getLong(payload + Long.BYTES));
+                default -> {
+                }
+            }
+            position = next(position);
+        }
+        return header;
+    }
+
+    private int next(int position) {
+        return position + Integer.BYTES + journal.getInt(position);
+    }
+
+    private void newEngine() {
+        engine = new TetrisEngine(new GameRandom(), attacks);
+    }
+
+    private void resetCounters() {
+        recordsApplied = 0;
+        keyframesChecked = 0;
+        keyframesDiverged = 0;
+    }
+}
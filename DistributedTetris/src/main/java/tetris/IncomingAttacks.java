@@ -0,0 +1,29 @@
+package tetris;
+
+// Where an engine takes its attacks from, packed into longs (see EnemyPiece.pack). Live games use an AttackQueue that
+// receiver threads offer into; a replay uses a ReplayAttackQueue that hands back what a journal recorded.
+// Everything but offer() is for the game loop only.
+public interface IncomingAttacks {
+    long EMPTY = -1;
+
+    // Safe from any thread. Returns false if the entry was dropped.
+    boolean offer(long entry);
+
+    // Returns EMPTY if there's nothing to take
+    long poll();
+
+    void dropOldestHalf();
+
+    void clear();
+
+    // Approximate when producers are mid-offer; good enough for the damage gauge
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // every call to poll() so far. A journal records attacks by the poll that returned them, so a replay can hand them
+    // back at the same point.
+    long pollCount();
+}
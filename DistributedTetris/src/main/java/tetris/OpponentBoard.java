@@ -0,0 +1,129 @@
+package tetris;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// One opponent's board, drawn into an image when an update arrives (on the receiver thread) so painting it is a
+// single blit. Two images take turns: the next update is drawn into the spare one and then they swap, and each image
+// is locked while it's drawn into or blitted, so the EDT never shows half a board.
+// Plain BufferedImages are enough: Java2D caches an image that's blitted repeatedly in video memory by itself.
+// The cells are kept in one array for the board's lifetime and written in place (guarded by this object's monitor).
+// A BoardDelta is only applied on top of the version right before it; anything else leaves the board waiting for a
+// keyframe.
+final class OpponentBoard {
+    enum DeltaResult {
+        APPLIED,
+        SKIPPED, // stale, or still waiting for the keyframe that was asked for
+        NEEDS_KEYFRAME
+    }
+
+    private final TColor[][] cells = new TColor[Tetris.BOARD_WIDTH_CELLS][Tetris.BOARD_HEIGHT_CELLS];
+    private BufferedImage image;
+    private BufferedImage spare;
+    private int imageCellSize;
+    private int version = -1; // board version of the cells, -1 when they didn't come with one (no deltas on top)
+    private boolean awaitingKeyframe;
+    private volatile int slot;
+
+    OpponentBoard(int slot) {
+        this.slot = slot;
+        for (TColor[] column : cells) {
+            Arrays.fill(column, TColor.UNKNOWN);
+        }
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    // receiver thread: copy the cells and redraw the image at the current cell size
+    void update(TColor[][] cells, int cellSize, Color background) {
+        synchronized (this) {
+            for (int x = 0; x < cells.length; x++) {
+                System.arraycopy(cells[x], 0, this.cells[x], 0, cells[x].length);
+            }
+            version = -1;
+        }
+        render(cellSize, background);
+    }
+
+    // receiver thread: decode a BoardCodec board straight into the cells; false (and nothing redrawn) if malformed
+    // `version` is the board version it's a keyframe of, -1 if the sender doesn't do deltas
+    boolean updatePacked(CharSequence packed, int version, int cellSize, Color background) {
+        synchronized (this) {
+            if (!BoardCodec.decode(packed, cells)) {
+                this.version = -1;
+                return false;
+            }
+            this.version = version;
+            awaitingKeyframe = false;
+        }
+        render(cellSize, background);
+        return true;
+    }
+
+    // receiver thread: apply a BoardDelta in place if it's the next version. NEEDS_KEYFRAME is only returned once per
+    // gap, later deltas are SKIPPED until the keyframe arrives
+    DeltaResult applyDelta(int version, CharSequence rows, CharSequence changed, int cellSize, Color background) {
+        synchronized (this) {
+            if (this.version >= 0 && version <= this.version) {
+                return DeltaResult.SKIPPED;
+            }
+            if (this.version < 0 || version != this.version + 1 || !BoardDelta.apply(rows, changed, cells)) {
+                this.version = -1;
+                if (awaitingKeyframe) {
+                    return DeltaResult.SKIPPED;
+                }
+                awaitingKeyframe = true;
+                return DeltaResult.NEEDS_KEYFRAME;
+            }
+            this.version = version;
+        }
+        render(cellSize, background);
+        return DeltaResult.APPLIED;
+    }
+
+    // EDT: the image to blit, redrawn first if the layout's cell size changed since it was drawn
+    BufferedImage image(int cellSize, Color background) {
+        synchronized (this) {
+            if (image != null && imageCellSize == cellSize) {
+                return image;
+            }
+        }
+        return render(cellSize, background);
+    }
+
+    private BufferedImage render(int cellSize, Color background) {
+        synchronized (this) { // the cells can't change mid-draw
+            BufferedImage target = spare;
+            int width = cellSize * Tetris.BOARD_WIDTH_CELLS;
+            int height = cellSize * Tetris.BOARD_HEIGHT_ONE_LESS;
+            if (target == null || target.getWidth() != width || target.getHeight() != height) {
+                target = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            synchronized (target) {
+                Graphics2D g = target.createGraphics();
+                g.setColor(background);
+                g.fillRect(0, 0, target.getWidth(), target.getHeight());
+                int padded = Math.max(1, cellSize - Tetris.GRID_LINE_WIDTH);
+                for (int i = 0; i < Tetris.BOARD_WIDTH_CELLS; i++) {
+                    for (int j = 0; j < Tetris.BOARD_HEIGHT_ONE_LESS; j++) {
+                        g.setColor(cells[i][j].color);
+                        g.fillRect(cellSize * i, cellSize * j, padded, padded);
+                    }
+                }
+                g.dispose();
+            }
+            spare = image;
+            image = target;
+            imageCellSize = cellSize;
+            return target;
+        }
+    }
+}
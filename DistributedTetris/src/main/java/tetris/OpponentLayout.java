@@ -0,0 +1,48 @@
+package tetris;
+
+// Where opponent boards go: a grid to the right of our well, with the largest cell size at which every opponent
+// fits next to it (never bigger than our own cells). Immutable; the view makes a new one when the number of
+// opponents or its own width changes.
+final class OpponentLayout {
+    static final int LEFT = Tetris.BOARD_WIDTH_PX + 10;
+    static final int GAP = 10;
+    private static final int MIN_CELL_SIZE = 3;
+
+    final int count;
+    final int panelWidth;
+    final int columns;
+    final int cellSize;
+    final int boardWidth;
+    final int boardHeight;
+
+    OpponentLayout(int count, int panelWidth) {
+        this.count = count;
+        this.panelWidth = panelWidth;
+        int areaWidth = panelWidth - LEFT;
+        int areaHeight = Tetris.BOARD_HEIGHT_PX;
+        int bestColumns = 1;
+        int bestCell = 0;
+        for (int columns = 1; columns <= Math.max(1, count); columns++) {
+            int rows = (count + columns - 1) / columns;
+            int cellForWidth = (areaWidth - (columns - 1) * GAP) / (columns * Tetris.BOARD_WIDTH_CELLS);
+            int cellForHeight = (areaHeight - (Math.max(rows, 1) - 1) * GAP) / (Math.max(rows, 1) * Tetris.BOARD_HEIGHT_ONE_LESS);
+            int cell = Math.min(Tetris.CELL_SIZE, Math.min(cellForWidth, cellForHeight));
+            if (cell > bestCell) {
+                bestCell = cell;
+                bestColumns = columns;
+            }
+        }
+        this.columns = bestColumns;
+        this.cellSize = Math.max(MIN_CELL_SIZE, bestCell);
+        this.boardWidth = cellSize * Tetris.BOARD_WIDTH_CELLS;
+        this.boardHeight = cellSize * Tetris.BOARD_HEIGHT_ONE_LESS;
+    }
+
+    int x(int slot) {
+        return LEFT + (slot % columns) * (boardWidth + GAP);
+    }
+
+    int y(int slot) {
+        return (slot / columns) * (boardHeight + GAP);
+    }
+}
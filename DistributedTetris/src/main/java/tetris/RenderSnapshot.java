@@ -0,0 +1,69 @@
+package tetris;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// What a frame of our own game shows, copied off the engine on the game loop thread (like the bots' snapshots), so
+// the EDT and the render thread paint from this and never read the engine while the loop is changing it.
+final class RenderSnapshot {
+    final Board well = new Board();
+    boolean initialized; // false until the loop has run engine.init()
+    TGameStatus status;
+    Tetromino piece;
+    Rotation rotation;
+    int pieceX;
+    int pieceY;
+    int ghostY;
+    boolean canBomb;
+    boolean attacking;
+    int ammo;
+    long score;
+    int queuedAttacks;
+    String message = "";
+
+    // loop thread
+    void copyFrom(TetrisEngine engine) {
+        status = engine.getStatus();
+        if (engine.getBoard() == null) {
+            return;
+        }
+        initialized = true;
+        well.copyFrom(engine.getBoard());
+        piece = engine.getCurrentPiece();
+        rotation = engine.getCurrentRotation();
+        pieceX = engine.getPieceX();
+        pieceY = engine.getPieceY();
+        ghostY = piece == null ? pieceY : engine.getGhostY();
+        canBomb = engine.canBomb();
+        attacking = engine.isAttacking();
+        ammo = engine.getAmmo();
+        score = engine.getScore();
+        queuedAttacks = engine.getAttackQueueSize();
+        message = engine.getCurrentDisplayedMessage();
+    }
+
+    // Three snapshots rotating between one writer (the loop) and one reader at a time (whoever paints): the writer
+    // fills its own, then swaps it with the middle one; the reader swaps its own with the middle one whenever the
+    // writer has put a newer one there. So neither side waits or allocates, and a frame never mixes two states.
+    static final class TripleBuffer {
+        private static final int FRESH = 4; // set in `middle` when the writer left a snapshot the reader hasn't taken
+
+        private final RenderSnapshot[] snapshots = {new RenderSnapshot(), new RenderSnapshot(), new RenderSnapshot()};
+        private final AtomicInteger middle = new AtomicInteger(1);
+        private int writing = 0; // writer only
+        private int reading = 2; // reader only
+
+        // writer: fills a snapshot from the engine and makes it the latest
+        void publish(TetrisEngine engine) {
+            snapshots[writing].copyFrom(engine);
+            writing = middle.getAndSet(writing | FRESH) & 3;
+        }
+
+        // reader: the latest published snapshot, which stays put until the next call
+        RenderSnapshot latest() {
+            if ((middle.get() & FRESH) != 0) {
+                reading = middle.getAndSet(reading) & 3;
+            }
+            return snapshots[reading];
+        }
+    }
+}
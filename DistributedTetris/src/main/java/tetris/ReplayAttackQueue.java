@@ -0,0 +1,71 @@
+package tetris;
+
+import java.util.Arrays;
+
+// Stands in for the network during a replay: poll() hands back exactly what the recorded game's poll() with the same
+// index returned, and EMPTY for every other poll. Nothing live arrives during a replay, and whatever the recorded game
+// trimmed off its queue is already reflected in what its polls returned, so offers and trims are ignored.
+public final class ReplayAttackQueue implements IncomingAttacks {
+    private long[] pollIndices = new long[16];
+    private long[] attacks = new long[16];
+    private int count;
+    private int cursor;
+    private long polls;
+
+    // recorded in increasing poll order
+    public void add(long pollIndex, long packedAttack) {
+        if (count == pollIndices.length) {
+            pollIndices = Arrays.copyOf(pollIndices, count * 2);
+            attacks = Arrays.copyOf(attacks, count * 2);
+        }
+        pollIndices[count] = pollIndex;
+        attacks[count] = packedAttack;
+        count++;
+    }
+
+    // jump to a keyframe, which recorded how many polls had happened by then
+    public void seek(long pollCount) {
+        polls = pollCount;
+        int found = Arrays.binarySearch(pollIndices, 0, count, pollCount);
+        cursor = found >= 0 ? found : -found - 1;
+    }
+
+    @Override
+    public boolean offer(long entry) {
+        return false;
+    }
+
+    @Override
+    public long poll() {
+        long index = polls++;
+        while (cursor < count && pollIndices[cursor] < index) {
+            cursor++;
+        }
+        if (cursor < count && pollIndices[cursor] == index) {
+            return attacks[cursor++];
+        }
+        return EMPTY;
+    }
+
+    @Override
+    public void dropOldestHalf() {
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    @Override
+    public long pollCount() {
+        return polls;
+    }
+
+    @Override
+    public int size() {
+        return 0; // only the live game knew what was waiting
+    }
+
+    public int recordedCount() {
+        return count;
+    }
+}
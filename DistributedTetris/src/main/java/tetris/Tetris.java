@@ -1,92 +1,159 @@
 package tetris;
 
-import networking.MessageType;
 import networking.RealClient;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.Timer;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.Serial;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.ConcurrentModificationException;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.Semaphore;
-
-public class Tetris extends JPanel {
-    public static final String BOARD_ROW_SEPARATOR = "S";
-    public static final int STARTING_AMMO = 8;
-    public static final int BOARD_WIDTH_CELLS = 12;
-    public static final int LEFTMOST_PLAYABLE_X = 1;
-    public static final int RIGHTMOST_PLAYABLE_X = BOARD_WIDTH_CELLS - 1;
-    public static final int BOARD_HEIGHT_CELLS = 24;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Swing view over a TetrisEngine: paints the engine's state plus the opponent boards and posts key presses to the
+// engine's GameLoop.
+// Only the loop thread reads the engine: on every state change it publishes a RenderSnapshot, and painting (on the EDT,
+// or an ActiveRenderer's thread) only ever draws the latest snapshot.
+//
+// Only what changed gets repainted. On every state change the view compares the engine against what it last drew
+// (well cells, piece and ghost, gauges, labels, message) and queues a rectangle for each difference, an opponent's
+// update queues that opponent's board, and the EDT picks the rectangles up once a frame (on a Swing Timer, so the
+// loop thread never posts anything to the EDT itself) and paints each on its own. paintComponent only walks the
+// cells inside its clip, so moving the piece costs the same whether there are 1 or 16 opponents.
+// Opponent boards are cached as images (see OpponentBoard) and laid out in a grid that shrinks to fit them all
+// (see OpponentLayout).
+public final class Tetris extends JPanel implements TetrisListener {
+    public static final int BOARD_WIDTH_CELLS = Board.WIDTH;
+    public static final int BOARD_HEIGHT_CELLS = Board.HEIGHT;
     public static final int BOARD_HEIGHT_ONE_LESS = BOARD_HEIGHT_CELLS - 1;
     public static final int CELL_SIZE = 26;
     public static final int GRID_LINE_WIDTH = 1;
     public static final int CELL_SIZE_PADDED = CELL_SIZE - GRID_LINE_WIDTH;
     public static final int GAME_TICK_MS = 1000;
-    public static final int DEFAULT_MESSAGE_TIMEOUT = 5; // number of game ticks a message persists for, if no timeout period is given
-    public static final int BOMB_COOLDOWN_LENGTH = 15;
-    public static final int BOMB_AMMO_COST = 5;
-    public static final int AMMO_COST_COOLDOWN_LENGTH = 5;
-    public static final int MAX_AMMO_AMT = 20;
-    public static final int SAND_EVENT_NUM_PIECES = 7;
-    public static final int ATTACK_AMMO_COST = 2;
-    public static final double BOMB_DEBRIS_ATTACK_CHANCE_PER_CELL = 0.8;
+    public static final int BOARD_WIDTH_PX = CELL_SIZE * BOARD_WIDTH_CELLS;
+    public static final int BOARD_HEIGHT_PX = CELL_SIZE * BOARD_HEIGHT_ONE_LESS;
     @Serial
     private static final long serialVersionUID = -8715353373678321308L;
-    private static final double RANDOM_EVENT_CHANCE = 0.02;
-    private final int softLockConstant = 2;
-    private final List<Tetromino> nextPieces = new ArrayList<>();
-    private final Map<Integer, TColor[][]> opponentBoards = new HashMap<>();
-    public RealClient client;
-    Semaphore attackQueueLock;
-    private Point pieceOrigin;
-    private Tetromino currentPiece;
-    private Rotation currentRotation;
-    private long score;
-    private TColor[][] well;
-    private int softLock = softLockConstant;
-    private TGameStatus status;
-    private ArrayList<EnemyPiece> attackQueue;
-    private int ammo;
-    private boolean attacking = false;
-    private String currentDisplayedMessage = "";
-    private int messageTimeout;
-    private int bombCooldown;
-    private int AMMO_COST = 2;
-    private int ammoCostCooldown;
+    // everything paintComponent needs is built once here instead of on every frame
+    private static final Color ATTACK_GHOST_COLOR = new Color(242, 20, 8, 50); // should be like transparent reddish
+    private static final Color DEFEND_GHOST_COLOR = new Color(0, 255, 0, 75); // should be transparent greenish
+    private static final Color BOMB_INDICATOR_COLOR = new Color(128, 0, 0, 200); // piece origin(for bombing)
+    // tiles of the atlas: one per TColor (by ordinal), then the ghost and bomb indicator variants
+    private static final int GRAY_GHOST_TILE = TColor.values().length;
+    private static final int ATTACK_GHOST_TILE = GRAY_GHOST_TILE + 1;
+    private static final int DEFEND_GHOST_TILE = GRAY_GHOST_TILE + 2;
+    private static final int BOMB_INDICATOR_TILE = GRAY_GHOST_TILE + 3;
+    private static final Color[] TILE_COLORS = tileColors();
+    // the opaque cell colors and the translucent overlays are kept apart, so cells are blitted without blending
+    private static final TileAtlas CELL_TILES = TileAtlas.forDefaultScreen(CELL_SIZE_PADDED,
+            Arrays.copyOfRange(TILE_COLORS, 0, GRAY_GHOST_TILE));
+    private static final TileAtlas OVERLAY_TILES = TileAtlas.forDefaultScreen(CELL_SIZE_PADDED,
+            Arrays.copyOfRange(TILE_COLORS, GRAY_GHOST_TILE, TILE_COLORS.length));
+    private static final Color FULL_AMMO_COLOR = new Color(134, 255, 94);
+    private static final Font ANNOUNCER_FONT = new Font("Sans Serif", Font.BOLD, 14);
+    private static final Font GAME_OVER_FONT = new Font("Sans Serif", Font.PLAIN, 24);
+    private static final int LABEL_X = 19 * BOARD_WIDTH_CELLS;
+    private static final Rectangle LABEL_AREA = new Rectangle(LABEL_X, 0, BOARD_WIDTH_PX + 10 - LABEL_X, 52);
+    private static final Rectangle DAMAGE_GAUGE_AREA = new Rectangle(8, 0, 10, CELL_SIZE * 23);
+    private static final Rectangle AMMO_GAUGE_AREA = new Rectangle(BOARD_WIDTH_PX - (3 * CELL_SIZE / 4), 0, 10, CELL_SIZE * 23);
+    private static final int MAX_DIRTY = 32; // rectangles queued for one flush
+    private static final Rectangle MESSAGE_AREA = new Rectangle(CELL_SIZE, CELL_SIZE * (BOARD_HEIGHT_CELLS - 1),
+            (2 * BOARD_WIDTH_CELLS - 2) * CELL_SIZE, (CELL_SIZE * 3) / 2);
+    // written from receiver threads, read on the EDT
+    // slots are handed out in the order opponents first send a board and kept compact; changes guarded by the map's monitor
+    private final transient Map<Integer, OpponentBoard> opponents = new ConcurrentHashMap<>();
+    private transient volatile OpponentLayout opponentLayout;
+    private final transient GameLoop loop;
+    private final transient TetrisEngine engine;
+    private final transient RenderSnapshot.TripleBuffer snapshots = new RenderSnapshot.TripleBuffer();
+    // score/ammo labels are only rebuilt when the value changes
+    private long labelledScore = -1;
+    private String scoreLabel;
+    private int labelledAmmo = -1;
+    private String ammoLabel;
+    private final Rectangle clip = new Rectangle(); // reused by paintComponent
+    private volatile boolean activeRendering; // an ActiveRenderer draws every frame, so no dirty regions or repaints
+    private int pieceFallOffsetPx; // set by paintFrame for the duration of one frame
+    private boolean useTileAtlas = true; // false paints every cell with setColor/fillRect (kept for comparison)
+
+    // what was last drawn, compared against the engine in onStateChanged (loop thread only)
+    private final transient Board drawnWell = new Board();
+    private boolean drawnAnything;
+    private Tetromino drawnPiece;
+    private Rotation drawnRotation;
+    private int drawnX;
+    private int drawnY;
+    private int drawnGhostY;
+    private int drawnGhostTile;
+    private boolean drawnBomb;
+    private long drawnScore;
+    private int drawnAmmo;
+    private int drawnQueued;
+    private String drawnMessage;
+    private TGameStatus drawnStatus;
+
+    // rectangles waiting for the EDT, four ints each (x, y, width, height); swapped with flushing so neither allocates
+    private final transient Object dirtyLock = new Object();
+    private int[] pendingDirty = new int[4 * MAX_DIRTY];
+    private int[] flushingDirty = new int[4 * MAX_DIRTY];
+    private int pendingDirtyCount;
+    private final transient Timer dirtyFlusher = new Timer(1000 / ActiveRenderer.DEFAULT_FPS, event -> flushDirty());
 
     public Tetris() {
-        attackQueueLock = new Semaphore(1);
+        this(new GameLoop(new TetrisEngine()));
+    }
+
+    public Tetris(GameLoop loop) {
+        this.loop = loop;
+        this.engine = loop.getEngine();
+        engine.addListener(this);
     }
 
     public static void setUpGame(Tetris instance, RealClient client) {
+        setUpGame(instance, client, 0);
+    }
+
+    // activeFps > 0 draws the game on an ActiveRenderer at that frame rate instead of through Swing repaints
+    public static void setUpGame(Tetris instance, RealClient client, int activeFps) {
         JFrame frame = new JFrame("Mischievous Tetris" + ((client == null) ? " Standalone" : ""));
         int boardWidthPx = (BOARD_WIDTH_CELLS * CELL_SIZE) + 10;
         int heightPx = (CELL_SIZE * (BOARD_HEIGHT_CELLS - 1)) + CELL_SIZE_PADDED + ((5 * CELL_SIZE) / 2);
         frame.setSize(boardWidthPx * 4, heightPx);
         frame.setVisible(true);
 
-        instance.init();
-        frame.add(instance);
+        TetrisKeyListener keyListener = new TetrisKeyListener(instance.loop);
+        ActiveRenderer renderer = null;
+        if (activeFps > 0) {
+            renderer = new ActiveRenderer(instance, activeFps);
+            renderer.addKeyListener(keyListener); // the canvas takes focus from the frame
+            frame.add(renderer);
+            frame.validate();
+            renderer.start();
+        } else {
+            frame.add(instance);
+            instance.dirtyFlusher.start();
+        }
 
-        frame.addKeyListener(new TetrisKeyListener(instance));
+        frame.addKeyListener(keyListener);
+        ActiveRenderer activeRenderer = renderer;
 
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent event) {
+                if (activeRenderer != null) {
+                    activeRenderer.stop();
+                }
+                instance.dirtyFlusher.stop();
                 frame.dispose();
                 if (client != null) {
                     client.shutdownProcedure();
@@ -96,590 +163,383 @@ public class Tetris extends JPanel {
             }
         });
 
-        // Game timer
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(GAME_TICK_MS);
-                    instance.dropDown();
-                    instance.attemptRandomEvent();
-                    instance.updateBombCooldown();
-                    instance.updateMessageCooldown();
-                    instance.updateCostCooldown();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }).start();
+        // Game loop (initializes the engine on its own thread, then ticks it)
+        instance.loop.start();
     }
 
+    // standalone game; `-fps [frames per second]` switches to active rendering
     public static void main(String[] args) {
-        setUpGame(new Tetris(), null);
-    }
-
-    public void attemptRandomEvent() {
-        double roll = new Random().nextDouble();
-        if (roll <= RANDOM_EVENT_CHANCE) {
-            if (this.client != null) {
-                this.client.startRandomEvent();
-            }
+        int activeFps = 0;
+        if (args.length == 2 && args[0].equals("-fps")) {
+            activeFps = Integer.parseInt(args[1]);
         }
+        setUpGame(new Tetris(), null, activeFps);
     }
 
-    public void bindToClient(RealClient client) {
-        this.client = client;
+    public TetrisEngine getEngine() {
+        return engine;
     }
 
-    public void triggerRandomEvent(RandomEvent event) {
-        //System.out.println("Triggering RandomEvent: " + event);
-        setCurrentDisplayedMessage("Random Event: " + event);
-        switch (event) {
-            case ADD_AMMO -> ammo += 5;
-            case REMOVE_AMMO -> {
-                ammo -= 5;
-                if (ammo < 0) ammo = 0;
-            }
-            case CLEAR_LINES -> {
-                deleteRow(21);
-                deleteRow(21);
-                sendBoardUpdate();
-            }
-            case CLEAR_VERTICAL_LINE -> {
-                //Choose random line from 1 - 11 to remove
-                Random rand = new Random();
-                int roll = rand.nextInt(11) + 1;
-                for (int i = 0; i < 22; i++) {
-                    well[roll][i] = TColor.OPEN;
-                }
-            }
-            case DISCOUNT_AMMO_COST -> {
-                AMMO_COST = 1;
-                ammoCostCooldown = 0;
-            }
-            case REDUCE_ATTACK_QUEUE -> {
-                try {
-                    if (!attackQueue.isEmpty()) {
-                        try {
-                            attackQueueLock.acquire();
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                        int toRemove = attackQueue.size() / 2;
-                        for (int i = 0; i < toRemove; i++) {
-                            attackQueue.remove(i);
-                        }
-                        attackQueueLock.release();
-                    }
-                } catch (ConcurrentModificationException e) {
-                    setCurrentDisplayedMessage("No Reduced piece queue!", 3);
-                }
-            }
-            case MAX_AMMO -> ammo = MAX_AMMO_AMT;
-            case SAND_DROP -> {
-                dropSandEvent();
-            }
-            case NO_EVENT -> {
-            }
-        }
+    public GameLoop getLoop() {
+        return loop;
     }
 
-    private void dropSandEvent() {
-        for (int i = 0; i < SAND_EVENT_NUM_PIECES; i++) {
-            dropSandPiece();
-        }
-        clearRows();
-        sendBoardUpdate();
+    // Hands painting over to an ActiveRenderer (or back to Swing)
+    public void setActiveRendering(boolean activeRendering) {
+        this.activeRendering = activeRendering;
     }
 
-    private void dropSandPiece() {
-        int x = new Random().nextInt(RIGHTMOST_PLAYABLE_X - LEFTMOST_PLAYABLE_X) + LEFTMOST_PLAYABLE_X;
-        int dropY = checkTheoreticalPos(Tetromino.SAND, Rotation._0, x, 0);
-        // write sand (it's 1x1 now, but this can support bigger sand if we do that)
-        for (Point p : Tetromino.SAND.inRotation(Rotation._0)) {
-            well[x + p.x][dropY + p.y] = Tetromino.SAND.tcolor;
-        }
-    }
-
-    public void handleMessageEvent(String message) {
-//        System.out.println("TetrisGame received message from client layer: " + message);
-        // TODO: expand to do cooler things to the tetris game instead of just printing to console
+    // One whole frame for an ActiveRenderer, with the falling piece `gravityProgress` of the way to the next row
+    public void paintFrame(Graphics g, double gravityProgress) {
+        pieceFallOffsetPx = (int) (gravityProgress * CELL_SIZE);
+        paintComponent(g);
+        pieceFallOffsetPx = 0;
     }
 
-    public void handleRecvBoard(String board, int fromProcess) {
-//        System.out.println("Received a board update from " + fromProcess);
-        opponentBoards.put(fromProcess, StringToBoard(board));
-    }
-
-    public void handleDisconnect(int fromProcess) {
-        System.out.println(fromProcess + " has disconnected");
-        opponentBoards.remove(fromProcess);
-        repaint();
-    }
-
-    public void handleDeath(int fromProcess) {
-        System.out.println(fromProcess + " has topped out!");
-
-        //TODO: other death related things
-    }
-
-    public void handleAttack(EnemyPiece piece, int from) {
-        try {
-            attackQueueLock.acquire();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    // Loop thread: publish what to draw, and queue a repaint for everything that looks different from the last time
+    @Override
+    public void onStateChanged() {
+        snapshots.publish(engine);
+        Board well = engine.getBoard();
+        if (well == null || activeRendering) {
+            return;
         }
-        this.attackQueue.add(piece);
-        attackQueueLock.release();
-
-        setCurrentDisplayedMessage("Attack from P" + from, 1);
-    }
-
-    private void sendBoardUpdate() {
-        this.broadcastMessage(MessageType.UPDATE_BOARD_STATE, this.BoardToString(this.well));
-    }
-
-    public void broadcastMessage(String message) {
-        broadcastMessage(MessageType.TETRIS_EVENT, message);
-    }
-
-    public void broadcastMessage(MessageType type, String message) {
-        // more bulletproofing just in case the Tetris.Tetris game somehow isn't connected to a client?
-        if (this.client != null) {
-            this.client.broadcast(type, message);
+        if (!drawnAnything || engine.getStatus() != drawnStatus) {
+            drawnAnything = true;
+            drawnStatus = engine.getStatus();
+            drawnWell.copyFrom(well);
+            markDirty(0, 0, BOARD_WIDTH_PX + 10, BOARD_HEIGHT_PX); // also covers the GAME OVER text
         } else {
-            System.err.println("Somehow not connected to a client?");
-        }
-    }
-
-    public String BoardToString(TColor[][] board) {
-        StringBuilder result = new StringBuilder();
-        for (TColor[] row : board) { // TODO name - might be a col and not a row?
-            for (TColor cell : row) {
-                if (cell == null) {
-                    // TODO find out why there are null cells (is that okay?)
-//                    System.out.println("Cell was null?");
-                    result.append(TColor.UNKNOWN.toString());
-                } else {
-                    result.append(cell);
+            markWellChanges(well);
+        }
+        markPieceChanges();
+
+        if (engine.getScore() != drawnScore || engine.getAmmo() != drawnAmmo) {
+            drawnScore = engine.getScore();
+            drawnAmmo = engine.getAmmo();
+            markDirty(LABEL_AREA);
+            markDirty(AMMO_GAUGE_AREA);
+        }
+        if (engine.getAttackQueueSize() != drawnQueued) {
+            drawnQueued = engine.getAttackQueueSize();
+            markDirty(DAMAGE_GAUGE_AREA);
+        }
+        if (!engine.getCurrentDisplayedMessage().equals(drawnMessage)) {
+            drawnMessage = engine.getCurrentDisplayedMessage();
+            markDirty(MESSAGE_AREA);
+        }
+    }
+
+    // one rectangle around every cell that differs from what was drawn
+    private void markWellChanges(Board well) {
+        int minX = BOARD_WIDTH_CELLS;
+        int maxX = -1;
+        int minY = BOARD_HEIGHT_ONE_LESS;
+        int maxY = -1;
+        for (int y = 0; y < BOARD_HEIGHT_ONE_LESS; y++) {
+            for (int x = 0; x < BOARD_WIDTH_CELLS; x++) {
+                if (well.get(x, y) != drawnWell.get(x, y)) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = Math.max(maxY, y);
                 }
             }
-            result.append(BOARD_ROW_SEPARATOR);
         }
-        return result.toString();
-    }
-
-    public TColor[][] StringToBoard(String s) {
-        TColor[][] result = new TColor[BOARD_WIDTH_CELLS][BOARD_HEIGHT_CELLS];
-        String[] rows = s.split(BOARD_ROW_SEPARATOR);
-        int r = 0;
-        for (String row : rows) {
-            for (int i = 0; i < result[r].length; i++) {
-                result[r][i] = TColor.fromString(row.substring(i, i + 1));
-            }
-            r++;
+        if (maxX >= 0) {
+            drawnWell.copyFrom(well);
+            markDirty(minX * CELL_SIZE, minY * CELL_SIZE, (maxX - minX + 1) * CELL_SIZE, (maxY - minY + 1) * CELL_SIZE);
         }
-        return result;
     }
 
-    // Creates a border around the well and initializes the dropping piece
-    public void init() {
-        well = new TColor[BOARD_WIDTH_CELLS][BOARD_HEIGHT_CELLS];
-        for (int i = 0; i < BOARD_WIDTH_CELLS; i++) {
-            for (int j = 0; j < BOARD_HEIGHT_ONE_LESS; j++) {
-                if (i == 0 || i == (BOARD_WIDTH_CELLS - 1) || j == (BOARD_HEIGHT_CELLS - 2)) {
-                    well[i][j] = TColor.BAR;
-                } else {
-                    well[i][j] = TColor.OPEN;
-                }
-            }
+    // the falling piece, its ghost and the bomb indicator: clear where they were, draw where they are
+    private void markPieceChanges() {
+        Tetromino piece = engine.getCurrentPiece();
+        Rotation rotation = engine.getCurrentRotation();
+        int x = engine.getPieceX();
+        int y = engine.getPieceY();
+        int ghostY = piece == null ? y : engine.getGhostY();
+        int ghostTile = ghostTile(engine.getAmmo(), engine.isAttacking());
+        boolean bomb = y % 2 == 0 && engine.canBomb();
+        if (piece == drawnPiece && rotation == drawnRotation && x == drawnX && y == drawnY && ghostY == drawnGhostY
+                && ghostTile == drawnGhostTile && bomb == drawnBomb) {
+            return;
         }
-        this.broadcastMessage(MessageType.UPDATE_BOARD_STATE, this.BoardToString(this.well));
-        this.attackQueue = new ArrayList<>();
-        this.score = 0;
-        this.ammo = STARTING_AMMO;
-        newPiece();
-        this.status = TGameStatus.PLAYING;
-
+        markPiece(drawnPiece, drawnRotation, drawnX, drawnY, drawnGhostY);
+        markPiece(piece, rotation, x, y, ghostY);
+        drawnPiece = piece;
+        drawnRotation = rotation;
+        drawnX = x;
+        drawnY = y;
+        drawnGhostY = ghostY;
+        drawnGhostTile = ghostTile;
+        drawnBomb = bomb;
     }
 
-    // accidental on purpose recursion here
-    public boolean takeAttackFromQueue() {
-        boolean success = false;
-        if (!attackQueue.isEmpty()) {
-            try {
-                attackQueueLock.acquire();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            EnemyPiece toTake = attackQueue.remove(0);
-            if (ammo > 0) {
-                ammo--;
-                attackQueueLock.release();
-                return true;
-            }
-
-            System.out.println("Taking attack: " + toTake);
-            System.out.println("Remaining attack queue: ");
-            for (EnemyPiece p : attackQueue) {
-                System.out.println("\t" + p);
-            }
-            attackQueueLock.release();
-            setCurrentDisplayedMessage("RECEIVED AN ATTACK!", 2);
-
-            pieceOrigin = toTake.pieceOrigin;
-            currentRotation = toTake.rotation;
-            currentPiece = toTake.pieceType;
-
-            int newY = checkTheoreticalPos(currentPiece, currentRotation, pieceOrigin.x, pieceOrigin.y);
-            pieceOrigin.y = newY;
-
-            fixToWellNoNewPiece();
-            repaint();
-
-            success = true;
+    private void markPiece(Tetromino piece, Rotation rotation, int x, int y, int ghostY) {
+        if (piece == null) {
+            return;
         }
-        return success;
+        int width = piece.width(rotation) * CELL_SIZE;
+        int height = piece.height(rotation) * CELL_SIZE;
+        markDirty(x * CELL_SIZE, y * CELL_SIZE, width, height);
+        markDirty(x * CELL_SIZE, ghostY * CELL_SIZE, width, height);
+        markDirty((x + 1) * CELL_SIZE, (ghostY + 1) * CELL_SIZE, CELL_SIZE, CELL_SIZE); // bomb indicator
     }
 
-    // Put a new, random piece into the dropping position
-    public void newPiece() {
-        boolean attackTaken = takeAttackFromQueue();
-        if (this.status == TGameStatus.GAME_OVER) {
-            return;
+    private static int ghostTile(int ammo, boolean attacking) {
+        if (ammo <= 0) {
+            return GRAY_GHOST_TILE;
         }
+        return attacking ? ATTACK_GHOST_TILE : DEFEND_GHOST_TILE;
+    }
 
-        softLock = softLockConstant; // reset softlock
-        pieceOrigin = new Point(5, 0); // TODO: spawn piece above the board
-        currentRotation = Rotation._0;
-        if (nextPieces.isEmpty()) {
-            nextPieces.addAll(generateNewBag());
-            // TODO: change nextPieces to be able to be modified by outside events
-            // TODO: add piece preview
+    private static Color[] tileColors() {
+        TColor[] values = TColor.values();
+        Color[] colors = new Color[BOMB_INDICATOR_TILE + 1];
+        for (TColor value : values) {
+            colors[value.ordinal()] = value.color;
         }
-        currentPiece = nextPieces.get(0);
-        nextPieces.remove(0);
+        colors[GRAY_GHOST_TILE] = Color.GRAY;
+        colors[ATTACK_GHOST_TILE] = ATTACK_GHOST_COLOR;
+        colors[DEFEND_GHOST_TILE] = DEFEND_GHOST_COLOR;
+        colors[BOMB_INDICATOR_TILE] = BOMB_INDICATOR_COLOR;
+        return colors;
     }
 
-    public List<Tetromino> generateNewBag() {
-        List<Tetromino> bag = new ArrayList<>(List.of(Tetromino.ORDER));
-        Collections.shuffle(bag);
-        return bag;
+    private void markDirty(Rectangle area) {
+        markDirty(area.x, area.y, area.width, area.height);
     }
 
-    // Collision test for the dropping piece
-    private boolean collidesAt(int x, int y, Rotation rotation) {
-        if (x < 0 || x > RIGHTMOST_PLAYABLE_X) {
-            return true;
-        }
-        for (Point p : currentPiece.inRotation(rotation)) {
-            if (well[p.x + x][p.y + y] != TColor.OPEN) {
-                return true;
+    // Any thread. Past MAX_DIRTY rectangles (the EDT is behind) everything queued merges into one bounding box.
+    private void markDirty(int x, int y, int width, int height) {
+        synchronized (dirtyLock) {
+            if (pendingDirtyCount == MAX_DIRTY) {
+                int right = x + width;
+                int bottom = y + height;
+                for (int at = 0; at < 4 * pendingDirtyCount; at += 4) {
+                    x = Math.min(x, pendingDirty[at]);
+                    y = Math.min(y, pendingDirty[at + 1]);
+                    right = Math.max(right, pendingDirty[at] + pendingDirty[at + 2]);
+                    bottom = Math.max(bottom, pendingDirty[at + 1] + pendingDirty[at + 3]);
+                }
+                width = right - x;
+                height = bottom - y;
+                pendingDirtyCount = 0;
             }
+            int at = 4 * pendingDirtyCount++;
+            pendingDirty[at] = x;
+            pendingDirty[at + 1] = y;
+            pendingDirty[at + 2] = width;
+            pendingDirty[at + 3] = height;
         }
-        return false;
     }
 
-    // Rotate the piece clockwise or counterclockwise
-    public void rotate(int i) {
-        //hacky workaround for t rotation?
-        if (currentPiece == Tetromino.T_PIECE && (i == 1 || i == -1)) {
-            i *= -1;
-        }
-
-        int newRotationIndex = (currentRotation.toInt() + i) % 4;
-        if (newRotationIndex < 0) {
-            newRotationIndex = 3;
+    // EDT, once a frame: paint each queued rectangle on its own (repaint(rect) would merge them all into one bounding box)
+    private void flushDirty() {
+        int count;
+        int[] dirty;
+        synchronized (dirtyLock) {
+            if (pendingDirtyCount == 0) {
+                return;
+            }
+            dirty = pendingDirty;
+            pendingDirty = flushingDirty;
+            flushingDirty = dirty;
+            count = pendingDirtyCount;
+            pendingDirtyCount = 0;
         }
-        Rotation newRotation = Rotation.fromInt(newRotationIndex);
-        if (!collidesAt(pieceOrigin.x, pieceOrigin.y, newRotation)) {
-            currentRotation = newRotation;
+        for (int i = 0; i < count; i++) {
+            int at = 4 * i;
+            paintImmediately(dirty[at], dirty[at + 1], dirty[at + 2], dirty[at + 3]);
         }
-        repaint();
     }
 
-    // Move the piece left or right
-    public void move(int i) {
-        if (!collidesAt(pieceOrigin.x + i, pieceOrigin.y, currentRotation)) {
-            pieceOrigin.x += i;
-        }
-        repaint();
+    public void handleMessageEvent(String message) {
+//        System.out.println("TetrisGame received message from client layer: " + message);
+        // TODO: expand to do cooler things to the tetris game instead of just printing to console
     }
 
-    public void toggleMode() {
-        this.attacking = !this.attacking;
+    public void handleRecvBoard(String board, int fromProcess) {
+//        System.out.println("Received a board update from " + fromProcess);
+        TColor[][] cells = StringToBoard(board);
+        boolean joined = !opponents.containsKey(fromProcess); // only this peer's receiver thread adds it
+        OpponentBoard opponent = opponent(fromProcess);
+        OpponentLayout layout = opponentLayout();
+        opponent.update(cells, layout.cellSize, getForeground());
+        opponentChanged(opponent, layout, joined);
+    }
+
+    // UPDATE_BOARD_PACKED: decoded in place into the opponent's cells, nothing allocated
+    // `version` is the board version it's a keyframe of (-1 if the sender doesn't send deltas)
+    public void handleRecvPackedBoard(CharSequence packed, int version, int fromProcess) {
+        boolean joined = !opponents.containsKey(fromProcess);
+        OpponentBoard opponent = opponent(fromProcess);
+        OpponentLayout layout = opponentLayout();
+        if (!opponent.updatePacked(packed, version, layout.cellSize, getForeground())) {
+            System.err.println("Dropped a malformed packed board from " + fromProcess);
+            return;
+        }
+        opponentChanged(opponent, layout, joined);
     }
 
-    // Drops the piece one line or fixes it to the well if it can't drop
-    public void dropDown() {
-        if (this.status == TGameStatus.PLAYING) {
-            if (!collidesAt(pieceOrigin.x, pieceOrigin.y + 1, currentRotation)) {
-                pieceOrigin.y += 1;
-            } else {
-                if (softLock > 0) {
-                    softLock--;
-                } else {
-                    fixToWell();
-                    softLock = softLockConstant;
-                }
-            }
-            repaint();
+    // BOARD_DELTA: applied in place on top of the previous version; true if the sender should be asked for a keyframe
+    public boolean handleRecvBoardDelta(int version, CharSequence rows, CharSequence changed, int fromProcess) {
+        boolean joined = !opponents.containsKey(fromProcess);
+        OpponentBoard opponent = opponent(fromProcess);
+        OpponentLayout layout = opponentLayout();
+        OpponentBoard.DeltaResult result = opponent.applyDelta(version, rows, changed, layout.cellSize, getForeground());
+        if (result == OpponentBoard.DeltaResult.APPLIED) {
+            opponentChanged(opponent, layout, joined);
         }
-
+        return result == OpponentBoard.DeltaResult.NEEDS_KEYFRAME;
     }
 
-    private void sendAttack(int x, int y, Rotation rotation, Tetromino piece) {
-        this.broadcastMessage(MessageType.ATTACK, x + " " + y + " " + rotation.toInt() + " " + piece.legacyInt);
+    private OpponentBoard opponent(int fromProcess) {
+        synchronized (opponents) {
+            OpponentBoard opponent = opponents.get(fromProcess);
+            if (opponent == null) {
+                opponent = new OpponentBoard(opponents.size());
+                opponents.put(fromProcess, opponent);
+            }
+            return opponent;
+        }
     }
 
-    // Make the dropping piece part of the well, so it is available for
-    // collision detection.
-    public void fixToWell() {
-
-        if (ammo >= AMMO_COST && this.attacking) {
-            // "send" piece to other board(s) // TODO: actually have either random or fixed targeting maybe?
-            sendAttack(pieceOrigin.x, 0, currentRotation, currentPiece);
-            ammo -= ATTACK_AMMO_COST;
-            newPiece();
-            // skip placement of piece on player's board since it "went" to the other board(s)
+    private void opponentChanged(OpponentBoard opponent, OpponentLayout layout, boolean joined) {
+        if (activeRendering) {
             return;
         }
-
-        for (Point p : currentPiece.inRotation(currentRotation)) {
-            well[pieceOrigin.x + p.x][pieceOrigin.y + p.y] = currentPiece.tcolor;
-        }
-        clearRows();
-
-        // TODO probably abstract broadcasts elsewhere so we don't need to null check
-        //  or maybe make a fake client
-        //  client was null (maybe testing offline?)
-
-        sendBoardUpdate();
-
-        checkForTopOut();
-        if (this.status == TGameStatus.PLAYING) {
-            newPiece();
+        if (joined) {
+            repaint(); // the grid may have been rearranged
         } else {
-            this.broadcastMessage(MessageType.DEATH, "");
-        }
-    }
-
-    // TODO why is this a tweaked copy-paste of fixToWell?
-    public void fixToWellNoNewPiece() {
-        for (Point p : currentPiece.inRotation(currentRotation)) {
-            well[pieceOrigin.x + p.x][pieceOrigin.y + p.y] = currentPiece.tcolor;
-        }
-        clearRows();
-
-        this.broadcastMessage(MessageType.UPDATE_BOARD_STATE, this.BoardToString(this.well));
-
-        checkForTopOut();
-
-        if (this.status == TGameStatus.GAME_OVER) {
-            this.broadcastMessage(MessageType.DEATH, "");
+            markDirty(layout.x(opponent.slot()), layout.y(opponent.slot()), layout.boardWidth, layout.boardHeight);
         }
     }
 
-    public void checkForTopOut() {
-        for (int i = 0; i < well.length; i++) {
-            for (int j = 0; j < 4; j++) {
-                if (well[i][j] != null) {
-                    if (!(well[i][j] == TColor.OPEN || well[i][j] == TColor.BAR)) {
-                        //System.out.println("Detected out of bounds piece at: x= " + i + ", y= " + j);
-                        this.status = TGameStatus.GAME_OVER;
+    public void handleDisconnect(int fromProcess) {
+        System.out.println(fromProcess + " has disconnected");
+        synchronized (opponents) {
+            OpponentBoard removed = opponents.remove(fromProcess);
+            if (removed != null) {
+                for (OpponentBoard opponent : opponents.values()) {
+                    if (opponent.slot() > removed.slot()) {
+                        opponent.setSlot(opponent.slot() - 1); // close the gap
                     }
                 }
             }
         }
-    }
-
-    public void dropToBottom() {
-        int newY = checkTheoreticalPos(currentPiece, currentRotation, pieceOrigin.x, pieceOrigin.y);
-        pieceOrigin.y = newY;
-
-        fixToWell();
         repaint();
     }
 
-    public void dropToBottomAndBomb() {
-        if (bombCooldown >= BOMB_COOLDOWN_LENGTH || ammo >= 5) {
-            int newY = checkTheoreticalPos(currentPiece, currentRotation, pieceOrigin.x, pieceOrigin.y);
-            pieceOrigin.y = newY;
-            bombBoard();
-        }
-    }
-
-    public void deleteRow(int row) {
-        for (int j = row - 1; j > 0; j--) {
-            for (int i = 1; i < 11; i++) {
-                well[i][j + 1] = well[i][j];
-            }
-        }
-    }
-
-    // Clear completed rows from the field and award score according to
-    // the number of simultaneously cleared rows.
-    public void clearRows() {
-        boolean gap;
-        int numClears = 0;
-
-        for (int j = 21; j > 0; j--) {
-            gap = false;
-            for (int i = 1; i < 11; i++) {
-                if (well[i][j] == TColor.OPEN) {
-                    gap = true;
-                    break;
-                }
-            }
-            if (!gap) {
-                deleteRow(j);
-                j += 1;
-                numClears += 1;
-            }
-        }
-        int ammoToAdd = 0;
-        switch (numClears) {
-            case 1 -> {
-                score += 100;
-                this.broadcastMessage("LINE_CLEAR SINGLE");
-                ammoToAdd = 1;
-            }
-            case 2 -> {
-                score += 300;
-                this.broadcastMessage("LINE_CLEAR DOUBLE");
-                ammoToAdd = 2;
-            }
-            case 3 -> {
-                score += 500;
-                this.broadcastMessage("LINE_CLEAR TRIPLE");
-                ammoToAdd = 3;
-            }
-            case 4 -> {
-                score += 800;
-                this.broadcastMessage("LINE_CLEAR TETRIS");
-                ammoToAdd = 5;
-            }
-        }
-        ammo += ammoToAdd;
-        if (ammo > 20) {
-            ammo = 20; //hard cap at 20
+    // the layout for the current number of opponents and panel width (the frame's starting width before it's shown)
+    private OpponentLayout opponentLayout() {
+        int count = opponents.size();
+        int width = getWidth() > 0 ? getWidth() : 4 * (BOARD_WIDTH_PX + 10);
+        OpponentLayout layout = opponentLayout;
+        if (layout == null || layout.count != count || layout.panelWidth != width) {
+            layout = new OpponentLayout(count, width);
+            opponentLayout = layout;
         }
+        return layout;
     }
 
-    //checks for the theoretical y position of the gray Tetris.Tetromino (shadow piece)
-    // TODO make a data holder class for this maybe?
-    public int checkTheoreticalPos(Tetromino piece, Rotation rotation, int xPos, int yPos) {
-        ArrayList<Integer> candidates = new ArrayList<>();
-        for (Point p : piece.inRotation(rotation)) {
-            int theoreticalVal = 0;
-            for (int j = p.y + yPos + 1; j < 22; j++) {
-                if (well[p.x + xPos][j] == TColor.OPEN) {
-                    theoreticalVal++;
-                } else break;
+    public TColor[][] StringToBoard(String s) {
+        TColor[][] result = new TColor[BOARD_WIDTH_CELLS][BOARD_HEIGHT_CELLS];
+        String[] rows = s.split(TetrisEngine.BOARD_ROW_SEPARATOR);
+        int r = 0;
+        for (String row : rows) {
+            for (int i = 0; i < result[r].length; i++) {
+                result[r][i] = TColor.fromString(row.substring(i, i + 1));
             }
-            candidates.add(theoreticalVal);
+            r++;
         }
-        return Collections.min(candidates) + yPos;
+        return result;
     }
 
     // Draw the falling piece
-    private void drawPiece(Graphics g) {
-        //paints the theoretical gray Tetromino (shadow piece)
-        g.setColor(Color.GRAY);
-        if (this.ammo > 0) {
-            if (this.attacking) {
-                g.setColor(new Color(242, 20, 8, 50)); // should be like transparent reddish
-            } else {
-                g.setColor(new Color(0, 255, 0, 75)); // should be transparent greenish
-            }
+    private void drawPiece(Graphics g, RenderSnapshot frame) {
+        Tetromino currentPiece = frame.piece;
+        if (currentPiece == null) {
+            return;
         }
+        Rotation currentRotation = frame.rotation;
+        int pieceX = frame.pieceX;
+        int pieceY = frame.pieceY;
+        int[] cellXs = currentPiece.cellXs(currentRotation);
+        int[] cellYs = currentPiece.cellYs(currentRotation);
 
-        int futureY = checkTheoreticalPos(currentPiece, currentRotation, pieceOrigin.x, pieceOrigin.y);
-        for (Point p : currentPiece.inRotation(currentRotation)) {
-            g.fillRect((p.x + pieceOrigin.x) * CELL_SIZE,
-                    (p.y + futureY) * CELL_SIZE,
-                    CELL_SIZE_PADDED, CELL_SIZE_PADDED);
+        //paints the theoretical gray Tetromino (shadow piece)
+        int ghostTile = ghostTile(frame.ammo, frame.attacking);
+        int futureY = frame.ghostY;
+        for (int i = 0; i < cellXs.length; i++) {
+            paintTile(g, ghostTile, (cellXs[i] + pieceX) * CELL_SIZE, (cellYs[i] + futureY) * CELL_SIZE);
         }
 
 
-        if (pieceOrigin.y % 2 == 0) { // so the bomb indicator blinks
-            if (bombCooldown >= BOMB_COOLDOWN_LENGTH || ammo >= 5) {
-                g.setColor(new Color(128, 0, 0, 200)); // piece origin(for bombing)
-                int x = (pieceOrigin.x * CELL_SIZE) + CELL_SIZE;
+        if (pieceY % 2 == 0) { // so the bomb indicator blinks
+            if (frame.canBomb) {
+                int x = (pieceX * CELL_SIZE) + CELL_SIZE;
                 int y = (futureY * CELL_SIZE) + CELL_SIZE;
-                g.fillRect(x, y, CELL_SIZE_PADDED, CELL_SIZE_PADDED);
+                paintTile(g, BOMB_INDICATOR_TILE, x, y);
             }
         }
 
 
-        g.setColor(currentPiece.tcolor.color);
-        for (Point p : currentPiece.inRotation(currentRotation)) {
-            g.fillRect((p.x + pieceOrigin.x) * CELL_SIZE,
-                    (p.y + pieceOrigin.y) * CELL_SIZE,
-                    CELL_SIZE_PADDED, CELL_SIZE_PADDED);
+        // active rendering slides the piece toward the next row as the gravity tick comes up (if it has room to fall)
+        int fallOffset = pieceY < futureY ? pieceFallOffsetPx : 0;
+        int pieceTile = currentPiece.tcolor.ordinal();
+        for (int i = 0; i < cellXs.length; i++) {
+            paintTile(g, pieceTile, (cellXs[i] + pieceX) * CELL_SIZE, (cellYs[i] + pieceY) * CELL_SIZE + fallOffset);
         }
     }
 
-    private void setCurrentDisplayedMessage(String message) {
-        this.currentDisplayedMessage = message;
-        this.messageTimeout = DEFAULT_MESSAGE_TIMEOUT;
-    }
-
-    private void setCurrentDisplayedMessage(String message, int timeout) {
-        this.currentDisplayedMessage = message;
-        this.messageTimeout = timeout;
-    }
-
-    private void updateMessageCooldown() {
-        this.messageTimeout--;
-        if (messageTimeout == 0) {
-            this.currentDisplayedMessage = "";
-        }
-    }
-
-    private void drawMessageBox(Graphics g) {
+    private void drawMessageBox(Graphics g, RenderSnapshot frame) {
         // draw the box for the message to appear in (erases old message)
         g.setColor(Color.WHITE);
         g.fillRect(CELL_SIZE,
                 (CELL_SIZE * (BOARD_HEIGHT_CELLS - 1)),
                 (2 * BOARD_WIDTH_CELLS - 2) * CELL_SIZE,
                 (CELL_SIZE * 3) / 2);
-        if (!this.currentDisplayedMessage.isEmpty()) {
+        String currentDisplayedMessage = frame.message;
+        if (!currentDisplayedMessage.isEmpty()) {
             g.setColor(Color.BLACK);
 
             Font prevFont = g.getFont();
 
-            Font announcerFont = new Font("Sans Serif", Font.BOLD, 14);
-            g.setFont(announcerFont);
+            g.setFont(ANNOUNCER_FONT);
             g.drawString(currentDisplayedMessage, CELL_SIZE + (CELL_SIZE / 2), (CELL_SIZE * BOARD_HEIGHT_CELLS));
 
             g.setFont(prevFont);
         }
     }
 
-    private void drawDamageGauge(Graphics g) {
-        if (this.attackQueue.isEmpty()) {
+    private void drawDamageGauge(Graphics g, RenderSnapshot frame) {
+        int queued = frame.queuedAttacks;
+        if (queued == 0) {
             return;
         }
         g.setColor(Color.red);
         int x = 13 - 5;
         int y = CELL_SIZE * 23;
-        int height = (int) (((double) this.attackQueue.size() / 2) * CELL_SIZE);
+        int height = (int) (((double) queued / 2) * CELL_SIZE);
 
         g.fillRect(x, y - height, 10, height);
     }
 
-    private void drawAmmoGauge(Graphics g) {
-        if (this.ammo <= STARTING_AMMO) {
+    private void drawAmmoGauge(Graphics g, RenderSnapshot frame) {
+        int ammo = frame.ammo;
+        if (ammo <= TetrisEngine.STARTING_AMMO) {
             return;
         }
-        if (this.ammo == MAX_AMMO_AMT) {
-            g.setColor(new Color(134, 255, 94));
+        if (ammo == TetrisEngine.MAX_AMMO_AMT) {
+            g.setColor(FULL_AMMO_COLOR);
         } else {
             g.setColor(Color.orange);
         }
         int x = CELL_SIZE * BOARD_WIDTH_CELLS - (3 * CELL_SIZE / 4);
         int y = CELL_SIZE * 23;
-        int height = (int) (((double) this.ammo / 2) * CELL_SIZE);
+        int height = (int) (((double) ammo / 2) * CELL_SIZE);
 
         g.fillRect(x, y - height, 10, height);
     }
@@ -687,123 +547,103 @@ public class Tetris extends JPanel {
 
     @Override
     public void paintComponent(Graphics g) {
+        RenderSnapshot frame = snapshots.latest();
+        if (!frame.initialized) {
+            return; // engine hasn't been initialized yet
+        }
+        clip.setBounds(0, 0, Short.MAX_VALUE, Short.MAX_VALUE); // left as is when g has no clip at all
+        g.getClipBounds(clip);
+
         // Paint the well
         Color boardBackground = g.getColor();
-        g.fillRect(0, 0, CELL_SIZE * BOARD_WIDTH_CELLS, CELL_SIZE * BOARD_HEIGHT_ONE_LESS);
+        g.fillRect(0, 0, BOARD_WIDTH_PX, BOARD_HEIGHT_PX);
         g.setColor(Color.red);
-        g.fillRect(0, (CELL_SIZE * 4) - 2, CELL_SIZE * BOARD_WIDTH_CELLS, 2);
+        g.fillRect(0, (CELL_SIZE * 4) - 2, BOARD_WIDTH_PX, 2);
 
+        OpponentLayout layout = opponentLayout();
         g.setColor(Color.white);
-        g.fillRect((CELL_SIZE * BOARD_WIDTH_CELLS) + 10, 0, 1000, CELL_SIZE * BOARD_HEIGHT_ONE_LESS);
-        for (int i = 0; i < BOARD_WIDTH_CELLS; i++) {
-            for (int j = 0; j < BOARD_HEIGHT_ONE_LESS; j++) {
-                g.setColor(well[i][j].color);
-                g.fillRect(CELL_SIZE * i, CELL_SIZE * j, CELL_SIZE_PADDED, CELL_SIZE_PADDED);
-            }
-        }
-
-        drawDamageGauge(g);
-        drawAmmoGauge(g);
-
-        drawMessageBox(g);
-
-
-        g.setColor(boardBackground);
-
-        int offset = 1;
-        for (TColor[][] board : opponentBoards.values()) {
-            g.fillRect(offset * (312), 0, CELL_SIZE * BOARD_WIDTH_CELLS, CELL_SIZE * BOARD_HEIGHT_ONE_LESS);
-            for (int i = 0; i < BOARD_WIDTH_CELLS; i++) {
-                for (int j = 0; j < BOARD_HEIGHT_ONE_LESS; j++) {
-                    g.setColor(board[i][j].color);
-                    g.fillRect((CELL_SIZE * i) + offset * (312), CELL_SIZE * j, CELL_SIZE_PADDED, CELL_SIZE_PADDED);
+        g.fillRect(OpponentLayout.LEFT, 0, layout.panelWidth - OpponentLayout.LEFT, BOARD_HEIGHT_PX);
+        paintCells(g, frame.well);
+
+        drawDamageGauge(g, frame);
+        drawAmmoGauge(g, frame);
+
+        drawMessageBox(g, frame);
+
+        for (OpponentBoard opponent : opponents.values()) {
+            int x = layout.x(opponent.slot());
+            int y = layout.y(opponent.slot());
+            if (x < clip.x + clip.width && x + layout.boardWidth > clip.x
+                    && y < clip.y + clip.height && y + layout.boardHeight > clip.y) {
+                BufferedImage image = opponent.image(layout.cellSize, getForeground());
+                synchronized (image) {
+                    g.drawImage(image, x, y, null);
                 }
             }
-            offset++;
         }
 
         // Display the score
         g.setColor(Color.WHITE);
-        g.drawString("score: " + score, 19 * BOARD_WIDTH_CELLS, 25);
+        if (frame.score != labelledScore) {
+            labelledScore = frame.score;
+            scoreLabel = "score: " + labelledScore;
+        }
+        g.drawString(scoreLabel, LABEL_X, 25);
 
         g.setColor(Color.WHITE);
-        g.drawString("ammo: " + ammo, 19 * BOARD_WIDTH_CELLS, 45);
+        if (frame.ammo != labelledAmmo) {
+            labelledAmmo = frame.ammo;
+            ammoLabel = "ammo: " + labelledAmmo;
+        }
+        g.drawString(ammoLabel, LABEL_X, 45);
 
         // Draw the currently falling piece
-        drawPiece(g);
+        drawPiece(g, frame);
 
         // Show if game over
         g.setColor(Color.red);
 
-        if (this.status == TGameStatus.GAME_OVER) {
-            Font gameOverFont = new Font("Sans Serif", Font.PLAIN, 24);
-            g.setFont(gameOverFont);
+        if (frame.status == TGameStatus.GAME_OVER) {
+            g.setFont(GAME_OVER_FONT);
 
             g.drawString("GAME OVER", (int) (CELL_SIZE * 3.5), CELL_SIZE * BOARD_WIDTH_CELLS);
         }
     }
 
-    public void bombBoard() {
-        //From the tetris piece origin, erase surrounding area and send "debris" to random process
-        //Other process must call clear line for sand
-        if (bombCooldown < BOMB_COOLDOWN_LENGTH) {
-            //System.out.println("Bomb on cooldown");
-            setCurrentDisplayedMessage("BOMB ON COOLDOWN! (SPENDING AMMO)", 2);
-        }
-
-        if (bombCooldown >= BOMB_COOLDOWN_LENGTH) {
-            bombCooldown = 0;
-        } else {
-            if (ammo < BOMB_AMMO_COST) {
-                setCurrentDisplayedMessage("NOT ENOUGH AMMO FOR BOMB!", 2);
-                return;
+    // the cells of our well that fall inside the clip
+    private void paintCells(Graphics g, Board well) {
+        int fromX = Math.max(0, clip.x / CELL_SIZE);
+        int toX = Math.min(BOARD_WIDTH_CELLS - 1, (clip.x + clip.width - 1) / CELL_SIZE);
+        int fromY = Math.max(0, clip.y / CELL_SIZE);
+        int toY = Math.min(BOARD_HEIGHT_ONE_LESS - 1, (clip.y + clip.height - 1) / CELL_SIZE);
+        // row by row, so consecutive blits are next to each other
+        for (int j = fromY; j <= toY; j++) {
+            for (int i = fromX; i <= toX; i++) {
+                paintTile(g, well.get(i, j).ordinal(), CELL_SIZE * i, CELL_SIZE * j);
             }
-            ammo -= BOMB_AMMO_COST;
         }
-
-        Point bombPosition = pieceOrigin;
-        bombPosition.x = bombPosition.x - 1;
-        bombPosition.y = bombPosition.y - 1;
-
-        for (int r = bombPosition.y; r < bombPosition.y + 5; r++) {
-            for (int c = bombPosition.x; c < bombPosition.x + 5; c++) {
-                if (!outOfBounds(c, r)) {
-                    if (well[c][r] != TColor.OPEN) {
-                        well[c][r] = TColor.OPEN;
-                        if (new Random().nextDouble() <= BOMB_DEBRIS_ATTACK_CHANCE_PER_CELL) {
-                            sendAttack(c, r, Rotation._0, Tetromino.SAND);
-                        }
-                    }
-                }
-            }
-        }
-        newPiece();
     }
 
-    public void updateBombCooldown() {
-        bombCooldown++;
-
-        if (this.bombCooldown == BOMB_COOLDOWN_LENGTH) {
-            setCurrentDisplayedMessage("BOMB READY", 3);
-        }
-    }
-
-    public void updateCostCooldown() {
-        ammoCostCooldown++;
-        if (this.ammoCostCooldown == AMMO_COST_COOLDOWN_LENGTH) {
-            AMMO_COST = 2;
+    private void paintTile(Graphics g, int tile, int x, int y) {
+        if (!useTileAtlas) {
+            g.setColor(TILE_COLORS[tile]);
+            g.fillRect(x, y, CELL_SIZE_PADDED, CELL_SIZE_PADDED);
+        } else if (tile < GRAY_GHOST_TILE) {
+            CELL_TILES.draw(g, tile, x, y);
+        } else {
+            OVERLAY_TILES.draw(g, tile - GRAY_GHOST_TILE, x, y);
         }
     }
 
-
-    public boolean outOfBounds(int xloc, int yloc) {
-        return xloc <= 0 || xloc >= 11 || yloc >= 22 || yloc <= 0;
+    // for benchmarking the atlas against plain fills
+    void setUseTileAtlas(boolean useTileAtlas) {
+        this.useTileAtlas = useTileAtlas;
     }
 
     static class TetrisKeyListener implements KeyListener {
-        private final Tetris game;
+        private final GameLoop game;
 
-        public TetrisKeyListener(Tetris game) {
+        public TetrisKeyListener(GameLoop game) {
             this.game = game;
         }
 
@@ -813,21 +653,21 @@ public class Tetris extends JPanel {
         public void keyPressed(KeyEvent e) {
             // TODO: read these from a config file?
             switch (e.getKeyCode()) {
-                case KeyEvent.VK_J -> game.rotate(-1);
-                case KeyEvent.VK_K -> game.rotate(+1);
-                case KeyEvent.VK_L -> game.rotate(2);
-                case KeyEvent.VK_A -> game.move(-1);
-                case KeyEvent.VK_D -> game.move(+1);
-                case KeyEvent.VK_S -> game.dropDown();
-                case KeyEvent.VK_SPACE -> game.dropToBottom();
-                case KeyEvent.VK_SHIFT -> game.toggleMode();
-                case KeyEvent.VK_Q -> game.bombBoard();
-                case KeyEvent.VK_E -> game.dropToBottomAndBomb();
-                case KeyEvent.VK_R -> game.init();
+                case KeyEvent.VK_J -> game.post(GameInput.ROTATE_CCW);
+                case KeyEvent.VK_K -> game.post(GameInput.ROTATE_CW);
+                case KeyEvent.VK_L -> game.post(GameInput.ROTATE_180);
+                case KeyEvent.VK_A -> game.post(GameInput.MOVE_LEFT);
+                case KeyEvent.VK_D -> game.post(GameInput.MOVE_RIGHT);
+                case KeyEvent.VK_S -> game.post(GameInput.SOFT_DROP);
+                case KeyEvent.VK_SPACE -> game.post(GameInput.HARD_DROP);
+                case KeyEvent.VK_SHIFT -> game.post(GameInput.TOGGLE_MODE);
+                case KeyEvent.VK_Q -> game.post(GameInput.BOMB);
+                case KeyEvent.VK_E -> game.post(GameInput.HARD_DROP_AND_BOMB);
+                case KeyEvent.VK_R -> game.post(GameInput.RESTART);
             }
         }
 
         public void keyReleased(KeyEvent e) {
         }
     }
-}
\ No newline at end of file
+}
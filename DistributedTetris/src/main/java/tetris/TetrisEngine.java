@@ -0,0 +1,704 @@
+package tetris;
+
+import networking.MessageType;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless game logic: owns the well, the falling piece, ammo, the bomb cooldown and the attack queue.
+// Nothing in here touches Swing; anything that has to leave the engine goes through TetrisListener.
+public class TetrisEngine {
+    public static final String BOARD_ROW_SEPARATOR = "S";
+    public static final int STARTING_AMMO = 8;
+    public static final int LEFTMOST_PLAYABLE_X = 1;
+    public static final int RIGHTMOST_PLAYABLE_X = Board.WIDTH - 1;
+    public static final int DEFAULT_MESSAGE_TIMEOUT = 5; // number of game ticks a message persists for, if no timeout period is given
+    public static final int BOMB_COOLDOWN_LENGTH = 15;
+    public static final int BOMB_AMMO_COST = 5;
+    public static final int AMMO_COST_COOLDOWN_LENGTH = 5;
+    public static final int MAX_AMMO_AMT = 20;
+    public static final int SAND_EVENT_NUM_PIECES = 7;
+    public static final int ATTACK_AMMO_COST = 2;
+    public static final double BOMB_DEBRIS_ATTACK_CHANCE_PER_CELL = 0.8;
+    private static final double RANDOM_EVENT_CHANCE = 0.02;
+    private final int softLockConstant = 2;
+    private static final int SPAWN_X = 5;
+    // size of writeState(): the game logic only, not the announcer text or anything else that's just for display
+    public static final int STATE_BYTES = Long.BYTES + 3 + 3 * Integer.BYTES + Long.BYTES + 4 * Integer.BYTES + 1
+            + Tetromino.ORDER.length + 1 + Board.WIDTH * Board.HEIGHT;
+    private final Tetromino[] nextPieces = Tetromino.ORDER.clone(); // the current bag, shuffled in place
+    private int nextPieceIndex = nextPieces.length;
+    private final List<TetrisListener> listeners = new ArrayList<>();
+    // rows deleted since the last board update, in order, so deltas can send them as row shifts
+    private final int[] deletedRows = new int[Board.HEIGHT];
+    private int deletedRowCount;
+    // one generator for every roll the engine makes, instead of a new Random per call
+    private final Random random;
+    private int pieceX;
+    private int pieceY;
+    private Tetromino currentPiece;
+    private Rotation currentRotation;
+    private long score;
+    private Board well;
+    private int softLock = softLockConstant;
+    private TGameStatus status;
+    // receiver threads offer into this directly, only the game loop takes from it
+    private final IncomingAttacks attackQueue;
+    private final AtomicLong attacksReceived = new AtomicLong();
+    private volatile int lastAttacker;
+    private long attacksNoticed;
+    private int ammo;
+    private boolean attacking = false;
+    private String currentDisplayedMessage = "";
+    private int messageTimeout;
+    private int bombCooldown;
+    private int AMMO_COST = 2;
+    private int ammoCostCooldown;
+
+    public TetrisEngine() {
+        this(new GameRandom());
+    }
+
+    public TetrisEngine(Random random) {
+        this(random, new AttackQueue());
+    }
+
+    // a replay passes a queue that hands back the attacks a journal recorded
+    public TetrisEngine(Random random, IncomingAttacks attackQueue) {
+        this.random = random;
+        this.attackQueue = attackQueue;
+    }
+
+    public void addListener(TetrisListener listener) {
+        listeners.add(listener);
+    }
+
+    // One gravity tick: everything the game timer used to do. The cooldowns change what's shown (the message, the bomb
+    // indicator) after dropDown() already reported its move, so listeners hear about the tick once more at the end.
+    public void tick() {
+        dropDown();
+        attemptRandomEvent();
+        updateBombCooldown();
+        updateMessageCooldown();
+        updateCostCooldown();
+        stateChanged();
+    }
+
+    public void attemptRandomEvent() {
+        double roll = random.nextDouble();
+        if (roll <= RANDOM_EVENT_CHANCE) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onRandomEventRoll();
+            }
+        }
+    }
+
+    public void triggerRandomEvent(RandomEvent event) {
+        //System.out.println("Triggering RandomEvent: " + event);
+        setCurrentDisplayedMessage("Random Event: " + event);
+        switch (event) {
+            case ADD_AMMO -> ammo += 5;
+            case REMOVE_AMMO -> {
+                ammo -= 5;
+                if (ammo < 0) ammo = 0;
+            }
+            case CLEAR_LINES -> {
+                deleteRow(21);
+                deleteRow(21);
+                sendBoardUpdate();
+            }
+            case CLEAR_VERTICAL_LINE -> {
+                //Choose random line from 1 - 11 to remove
+                int roll = random.nextInt(11) + 1;
+                for (int i = 0; i < Board.FLOOR_ROW; i++) {
+                    well.set(roll, i, TColor.OPEN);
+                }
+            }
+            case DISCOUNT_AMMO_COST -> {
+                AMMO_COST = 1;
+                ammoCostCooldown = 0;
+            }
+            case REDUCE_ATTACK_QUEUE -> {
+                attackQueue.dropOldestHalf();
+            }
+            case MAX_AMMO -> ammo = MAX_AMMO_AMT;
+            case SAND_DROP -> {
+                dropSandEvent();
+            }
+            case NO_EVENT -> {
+            }
+        }
+    }
+
+    private void dropSandEvent() {
+        for (int i = 0; i < SAND_EVENT_NUM_PIECES; i++) {
+            dropSandPiece();
+        }
+        clearRows();
+        sendBoardUpdate();
+    }
+
+    private void dropSandPiece() {
+        int x = random.nextInt(RIGHTMOST_PLAYABLE_X - LEFTMOST_PLAYABLE_X) + LEFTMOST_PLAYABLE_X;
+        int dropY = checkTheoreticalPos(Tetromino.SAND, Rotation._0, x, 0);
+        // write sand (it's 1x1 now, but this can support bigger sand if we do that)
+        well.place(Tetromino.SAND, Rotation._0, x, dropY);
+    }
+
+    public void handleDeath(int fromProcess) {
+        System.out.println(fromProcess + " has topped out!");
+
+        //TODO: other death related things
+    }
+
+    // Safe to call from any thread (receiver threads call it directly)
+    public void handleAttack(EnemyPiece piece, int from) {
+        handleAttack(piece.pack(), from);
+    }
+
+    public void handleAttack(long packedAttack, int from) {
+        if (attackQueue.offer(packedAttack)) {
+            lastAttacker = from;
+            attacksReceived.incrementAndGet();
+        }
+    }
+
+    // Game loop only: announce attacks that arrived since the last check
+    public void noticeAttacks() {
+        long received = attacksReceived.get();
+        if (received != attacksNoticed) {
+            attacksNoticed = received;
+            setCurrentDisplayedMessage("Attack from P" + lastAttacker, 1);
+            stateChanged(); // the message and the damage gauge
+        }
+    }
+
+    // listeners pick the encoding (delta, packed or BoardToString text) per peer
+    private void sendBoardUpdate() {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onBoardChanged(well, deletedRows, deletedRowCount);
+        }
+        deletedRowCount = 0;
+    }
+
+    public void broadcastMessage(String message) {
+        broadcastMessage(MessageType.TETRIS_EVENT, message);
+    }
+
+    public void broadcastMessage(MessageType type, String message) {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onBroadcast(type, message);
+        }
+    }
+
+    private void stateChanged() {
+        for (int i = 0; i < listeners.size(); i++) {
+            listeners.get(i).onStateChanged();
+        }
+    }
+
+    public String BoardToString(Board board) {
+        StringBuilder result = new StringBuilder();
+        for (int x = 0; x < Board.WIDTH; x++) {
+            for (int y = 0; y < Board.HEIGHT; y++) {
+                result.append(board.get(x, y));
+            }
+            result.append(BOARD_ROW_SEPARATOR);
+        }
+        return result.toString();
+    }
+
+    // Creates a border around the well and initializes the dropping piece
+    public void init() {
+        well = new Board();
+        deletedRowCount = 0;
+        sendBoardUpdate();
+        attackQueue.clear();
+        this.score = 0;
+        this.ammo = STARTING_AMMO;
+        newPiece();
+        this.status = TGameStatus.PLAYING;
+        stateChanged();
+    }
+
+    // accidental on purpose recursion here
+    public boolean takeAttackFromQueue() {
+        boolean success = false;
+        long toTake = attackQueue.poll();
+        if (toTake != IncomingAttacks.EMPTY) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onAttackTaken(toTake);
+            }
+            if (EnemyPiece.isDebris(toTake)) {
+                takeDebris(toTake);
+                return true;
+            }
+            if (ammo > 0) {
+                ammo--;
+                return true;
+            }
+
+            setCurrentDisplayedMessage("RECEIVED AN ATTACK!", 2);
+
+            pieceX = EnemyPiece.packedX(toTake);
+            pieceY = EnemyPiece.packedY(toTake);
+            currentRotation = EnemyPiece.packedRotation(toTake);
+            currentPiece = EnemyPiece.packedPiece(toTake);
+
+            pieceY = checkTheoreticalPos(currentPiece, currentRotation, pieceX, pieceY);
+
+            fixToWellNoNewPiece();
+            stateChanged();
+
+            success = true;
+        }
+        return success;
+    }
+
+    // Ammo absorbs debris a grain at a time; whatever gets through falls in together, top row first
+    private void takeDebris(long debris) {
+        int grains = EnemyPiece.packedDebris(debris);
+        while (grains != 0 && ammo > 0) {
+            grains &= grains - 1;
+            ammo--;
+        }
+        if (grains == 0) {
+            return;
+        }
+        setCurrentDisplayedMessage("RECEIVED AN ATTACK!", 2);
+
+        int x = EnemyPiece.packedX(debris);
+        int y = EnemyPiece.packedY(debris);
+        for (; grains != 0; grains &= grains - 1) {
+            int grain = Integer.numberOfTrailingZeros(grains);
+            int grainX = x + grain % EnemyPiece.DEBRIS_SIZE;
+            int grainY = y + grain / EnemyPiece.DEBRIS_SIZE;
+            if (!outOfBounds(grainX, grainY)) {
+                well.place(Tetromino.SAND, Rotation._0, grainX, checkTheoreticalPos(Tetromino.SAND, Rotation._0, grainX, grainY));
+            }
+        }
+        clearRows();
+        sendBoardUpdate();
+
+        checkForTopOut();
+        if (this.status == TGameStatus.GAME_OVER) {
+            this.broadcastMessage(MessageType.DEATH, "");
+        }
+        stateChanged();
+    }
+
+    // Put a new, random piece into the dropping position
+    public void newPiece() {
+        boolean attackTaken = takeAttackFromQueue();
+        if (this.status == TGameStatus.GAME_OVER) {
+            return;
+        }
+
+        softLock = softLockConstant; // reset softlock
+        pieceX = SPAWN_X; // TODO: spawn piece above the board
+        pieceY = 0;
+        currentRotation = Rotation._0;
+        if (nextPieceIndex == nextPieces.length) {
+            shuffleBag();
+            // TODO: change nextPieces to be able to be modified by outside events
+            // TODO: add piece preview
+        }
+        currentPiece = nextPieces[nextPieceIndex++];
+    }
+
+    // Fisher-Yates over the bag array, so a new bag doesn't allocate
+    private void shuffleBag() {
+        for (int i = nextPieces.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Tetromino swap = nextPieces[i];
+            nextPieces[i] = nextPieces[j];
+            nextPieces[j] = swap;
+        }
+        nextPieceIndex = 0;
+    }
+
+    // Collision test for the dropping piece
+    private boolean collidesAt(int x, int y, Rotation rotation) {
+        if (x < 0 || x > RIGHTMOST_PLAYABLE_X) {
+            return true;
+        }
+        return well.collides(currentPiece, rotation, x, y);
+    }
+
+    // Rotate the piece clockwise or counterclockwise
+    public void rotate(int i) {
+        //hacky workaround for t rotation?
+        if (currentPiece == Tetromino.T_PIECE && (i == 1 || i == -1)) {
+            i *= -1;
+        }
+
+        int newRotationIndex = (currentRotation.toInt() + i) % 4;
+        if (newRotationIndex < 0) {
+            newRotationIndex = 3;
+        }
+        Rotation newRotation = Rotation.fromInt(newRotationIndex);
+        if (!collidesAt(pieceX, pieceY, newRotation)) {
+            currentRotation = newRotation;
+        }
+        stateChanged();
+    }
+
+    // Move the piece left or right
+    public void move(int i) {
+        if (!collidesAt(pieceX + i, pieceY, currentRotation)) {
+            pieceX += i;
+        }
+        stateChanged();
+    }
+
+    public void toggleMode() {
+        this.attacking = !this.attacking;
+    }
+
+    // Drops the piece one line or fixes it to the well if it can't drop
+    public void dropDown() {
+        if (this.status == TGameStatus.PLAYING) {
+            if (!collidesAt(pieceX, pieceY + 1, currentRotation)) {
+                pieceY += 1;
+            } else {
+                if (softLock > 0) {
+                    softLock--;
+                } else {
+                    fixToWell();
+                    softLock = softLockConstant;
+                }
+            }
+            stateChanged();
+        }
+
+    }
+
+    private void sendAttack(int x, int y, Rotation rotation, Tetromino piece) {
+        this.broadcastMessage(MessageType.ATTACK, x + " " + y + " " + rotation.toInt() + " " + piece.legacyInt);
+    }
+
+    // Make the dropping piece part of the well, so it is available for
+    // collision detection.
+    public void fixToWell() {
+
+        if (ammo >= AMMO_COST && this.attacking) {
+            // "send" piece to other board(s) // TODO: actually have either random or fixed targeting maybe?
+            sendAttack(pieceX, 0, currentRotation, currentPiece);
+            ammo -= ATTACK_AMMO_COST;
+            newPiece();
+            // skip placement of piece on player's board since it "went" to the other board(s)
+            return;
+        }
+
+        well.place(currentPiece, currentRotation, pieceX, pieceY);
+        clearRows(pieceY, pieceY + currentPiece.height(currentRotation) - 1);
+
+        sendBoardUpdate();
+
+        checkForTopOut();
+        if (this.status == TGameStatus.PLAYING) {
+            newPiece();
+        } else {
+            this.broadcastMessage(MessageType.DEATH, "");
+        }
+    }
+
+    // TODO why is this a tweaked copy-paste of fixToWell?
+    public void fixToWellNoNewPiece() {
+        well.place(currentPiece, currentRotation, pieceX, pieceY);
+        clearRows(pieceY, pieceY + currentPiece.height(currentRotation) - 1);
+
+        sendBoardUpdate();
+
+        checkForTopOut();
+
+        if (this.status == TGameStatus.GAME_OVER) {
+            this.broadcastMessage(MessageType.DEATH, "");
+        }
+    }
+
+    public void checkForTopOut() {
+        if (well.isToppedOut()) {
+            this.status = TGameStatus.GAME_OVER;
+        }
+    }
+
+    public void dropToBottom() {
+        pieceY = checkTheoreticalPos(currentPiece, currentRotation, pieceX, pieceY);
+
+        fixToWell();
+        stateChanged();
+    }
+
+    public void dropToBottomAndBomb() {
+        if (canBomb()) {
+            pieceY = checkTheoreticalPos(currentPiece, currentRotation, pieceX, pieceY);
+            bombBoard();
+        }
+    }
+
+    public void deleteRow(int row) {
+        well.deleteRow(row);
+        if (deletedRowCount < deletedRows.length) {
+            deletedRows[deletedRowCount++] = row; // past that a delta just lists the shifted cells instead
+        }
+    }
+
+    // Clear completed rows from the field and award score according to
+    // the number of simultaneously cleared rows.
+    public void clearRows() {
+        clearRows(1, Board.BOTTOM_PLAYABLE_ROW);
+    }
+
+    // Same as clearRows(), but only looks at rows fromRow..toRow (the rows a piece just landed in)
+    public void clearRows(int fromRow, int toRow) {
+        int numClears = 0;
+
+        int top = Math.max(fromRow, 1);
+        int j = Math.min(toRow, Board.BOTTOM_PLAYABLE_ROW);
+        while (j >= top) {
+            if (well.isRowFull(j)) {
+                deleteRow(j);
+                // the rows above slid down into j, so check it again; the range slid down with them
+                top += 1;
+                numClears += 1;
+            } else {
+                j--;
+            }
+        }
+        int ammoToAdd = 0;
+        switch (numClears) {
+            case 1 -> {
+                score += 100;
+                this.broadcastMessage("LINE_CLEAR SINGLE");
+                ammoToAdd = 1;
+            }
+            case 2 -> {
+                score += 300;
+                this.broadcastMessage("LINE_CLEAR DOUBLE");
+                ammoToAdd = 2;
+            }
+            case 3 -> {
+                score += 500;
+                this.broadcastMessage("LINE_CLEAR TRIPLE");
+                ammoToAdd = 3;
+            }
+            case 4 -> {
+                score += 800;
+                this.broadcastMessage("LINE_CLEAR TETRIS");
+                ammoToAdd = 5;
+            }
+        }
+        ammo += ammoToAdd;
+        if (ammo > 20) {
+            ammo = 20; //hard cap at 20
+        }
+    }
+
+    //checks for the theoretical y position of the gray Tetris.Tetromino (shadow piece)
+    // TODO make a data holder class for this maybe?
+    public int checkTheoreticalPos(Tetromino piece, Rotation rotation, int xPos, int yPos) {
+        return well.dropDistance(piece, rotation, xPos, yPos) + yPos;
+    }
+
+    private void setCurrentDisplayedMessage(String message) {
+        this.currentDisplayedMessage = message;
+        this.messageTimeout = DEFAULT_MESSAGE_TIMEOUT;
+    }
+
+    private void setCurrentDisplayedMessage(String message, int timeout) {
+        this.currentDisplayedMessage = message;
+        this.messageTimeout = timeout;
+    }
+
+    private void updateMessageCooldown() {
+        this.messageTimeout--;
+        if (messageTimeout == 0) {
+            this.currentDisplayedMessage = "";
+        }
+    }
+
+    public void bombBoard() {
+        //From the tetris piece origin, erase surrounding area and send "debris" to random process
+        //Other process must call clear line for sand
+        if (bombCooldown < BOMB_COOLDOWN_LENGTH) {
+            //System.out.println("Bomb on cooldown");
+            setCurrentDisplayedMessage("BOMB ON COOLDOWN! (SPENDING AMMO)", 2);
+        }
+
+        if (bombCooldown >= BOMB_COOLDOWN_LENGTH) {
+            bombCooldown = 0;
+        } else {
+            if (ammo < BOMB_AMMO_COST) {
+                setCurrentDisplayedMessage("NOT ENOUGH AMMO FOR BOMB!", 2);
+                return;
+            }
+            ammo -= BOMB_AMMO_COST;
+        }
+
+        pieceX = pieceX - 1;
+        pieceY = pieceY - 1;
+
+        // the debris goes out as one attack, its area clipped to the well so the corner is never negative
+        int debrisX = Math.max(pieceX, 0);
+        int debrisY = Math.max(pieceY, 0);
+        int debris = 0;
+        for (int r = pieceY; r < pieceY + EnemyPiece.DEBRIS_SIZE; r++) {
+            for (int c = pieceX; c < pieceX + EnemyPiece.DEBRIS_SIZE; c++) {
+                if (!outOfBounds(c, r)) {
+                    if (!well.isOpen(c, r)) {
+                        well.set(c, r, TColor.OPEN);
+                        if (random.nextDouble() <= BOMB_DEBRIS_ATTACK_CHANCE_PER_CELL) {
+                            debris |= 1 << (r - debrisY) * EnemyPiece.DEBRIS_SIZE + (c - debrisX);
+                        }
+                    }
+                }
+            }
+        }
+        if (debris != 0) {
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onDebris(debrisX, debrisY, debris);
+            }
+        }
+        newPiece();
+        stateChanged();
+    }
+
+    public void updateBombCooldown() {
+        bombCooldown++;
+
+        if (this.bombCooldown == BOMB_COOLDOWN_LENGTH) {
+            setCurrentDisplayedMessage("BOMB READY", 3);
+        }
+    }
+
+    public void updateCostCooldown() {
+        ammoCostCooldown++;
+        if (this.ammoCostCooldown == AMMO_COST_COOLDOWN_LENGTH) {
+            AMMO_COST = 2;
+        }
+    }
+
+
+    public boolean outOfBounds(int xloc, int yloc) {
+        return xloc <= 0 || xloc >= 11 || yloc >= 22 || yloc <= 0;
+    }
+
+    // free bomb off cooldown, or enough ammo to pay for one
+    public boolean canBomb() {
+        return bombCooldown >= BOMB_COOLDOWN_LENGTH || ammo >= BOMB_AMMO_COST;
+    }
+
+    public Board getBoard() {
+        return well;
+    }
+
+    public Tetromino getCurrentPiece() {
+        return currentPiece;
+    }
+
+    public Rotation getCurrentRotation() {
+        return currentRotation;
+    }
+
+    public int getPieceX() {
+        return pieceX;
+    }
+
+    public int getPieceY() {
+        return pieceY;
+    }
+
+    // y position the current piece would land at (ghost piece)
+    public int getGhostY() {
+        return checkTheoreticalPos(currentPiece, currentRotation, pieceX, pieceY);
+    }
+
+    public long getScore() {
+        return score;
+    }
+
+    public int getAmmo() {
+        return ammo;
+    }
+
+    public boolean isAttacking() {
+        return attacking;
+    }
+
+    public TGameStatus getStatus() {
+        return status;
+    }
+
+    public String getCurrentDisplayedMessage() {
+        return currentDisplayedMessage;
+    }
+
+    public int getAttackQueueSize() {
+        return attackQueue.size();
+    }
+
+    public IncomingAttacks getAttackQueue() {
+        return attackQueue;
+    }
+
+    // Everything that decides how the game plays out from here, for journal keyframes. Needs a GameRandom.
+    public void writeState(ByteBuffer out) {
+        out.putLong(gameRandom().getState());
+        out.put(status == null ? -1 : (byte) status.ordinal());
+        out.put(currentPiece == null ? -1 : (byte) currentPiece.ordinal());
+        out.put(currentRotation == null ? -1 : (byte) currentRotation.ordinal());
+        out.putInt(pieceX);
+        out.putInt(pieceY);
+        out.putInt(softLock);
+        out.putLong(score);
+        out.putInt(ammo);
+        out.putInt(bombCooldown);
+        out.putInt(AMMO_COST);
+        out.putInt(ammoCostCooldown);
+        out.put(attacking ? (byte) 1 : 0);
+        for (Tetromino piece : nextPieces) {
+            out.put((byte) piece.ordinal());
+        }
+        out.put((byte) nextPieceIndex);
+        (well != null ? well : new Board()).writeTo(out);
+    }
+
+    public void readState(ByteBuffer in) {
+        gameRandom().setState(in.getLong());
+        byte statusOrdinal = in.get();
+        byte pieceOrdinal = in.get();
+        byte rotationOrdinal = in.get();
+        status = statusOrdinal < 0 ? null : TGameStatus.values()[statusOrdinal];
+        currentPiece = pieceOrdinal < 0 ? null : Tetromino.values()[pieceOrdinal];
+        currentRotation = rotationOrdinal < 0 ? null : Rotation.fromInt(rotationOrdinal);
+        pieceX = in.getInt();
+        pieceY = in.getInt();
+        softLock = in.getInt();
+        score = in.getLong();
+        ammo = in.getInt();
+        bombCooldown = in.getInt();
+        AMMO_COST = in.getInt();
+        ammoCostCooldown = in.getInt();
+        attacking = in.get() != 0;
+        for (int i = 0; i < nextPieces.length; i++) {
+            nextPieces[i] = Tetromino.values()[in.get()];
+        }
+        nextPieceIndex = in.get();
+        if (well == null) {
+            well = new Board();
+        }
+        well.readFrom(in);
+        stateChanged();
+    }
+
+    private GameRandom gameRandom() {
+        if (!(random instanceof GameRandom)) {
+            throw new IllegalStateException("engine state can only be saved with a GameRandom");
+        }
+        return (GameRandom) random;
+    }
+}
@@ -0,0 +1,32 @@
+package tetris;
+
+import networking.MessageType;
+
+// Outbound events from a TetrisEngine. Everything is a no-op by default so a listener only overrides what it cares about.
+public interface TetrisListener {
+    // the engine wants something sent to every other player
+    default void onBroadcast(MessageType type, String message) {
+    }
+
+    // a bomb's debris (see EnemyPiece.packDebris) for every other player; sent as one DEBRIS message to peers that take
+    // it, and as an ATTACK per grain to the rest
+    default void onDebris(int x, int y, int mask) {
+    }
+
+    // the well changed and should be sent to every other player; game loop thread, so `board` can be read directly
+    // `deletedRows` are the rows deleted since the last call, in order (only the first deletedCount are valid)
+    default void onBoardChanged(Board board, int[] deletedRows, int deletedCount) {
+    }
+
+    // the engine rolled for a random event and the roll succeeded
+    default void onRandomEventRoll() {
+    }
+
+    // something visible changed (piece moved, board changed, etc.)
+    default void onStateChanged() {
+    }
+
+    // an attack came off the AttackQueue (either placed or absorbed by ammo); the queue's pollCount() already counts it
+    default void onAttackTaken(long packedAttack) {
+    }
+}
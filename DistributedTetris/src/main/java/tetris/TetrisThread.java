@@ -9,14 +9,20 @@ import java.awt.event.KeyListener;
 public class TetrisThread implements Runnable {
     private final RealClient client;
     private final Tetris game;
+    private final int activeFps;
 
     public TetrisThread(Tetris game, RealClient client) {
+        this(game, client, 0);
+    }
+
+    public TetrisThread(Tetris game, RealClient client, int activeFps) {
         this.game = game;
         this.client = client;
+        this.activeFps = activeFps;
     }
 
     @Override
     public void run() {
-        Tetris.setUpGame(game, client);
+        Tetris.setUpGame(game, client, activeFps);
     }
 }
@@ -1,6 +1,7 @@
 package tetris;
 
 import java.awt.Point;
+import java.util.Arrays;
 
 public enum Tetromino {
     I_PIECE(0, new Point[][]{
@@ -54,24 +55,85 @@ public enum Tetromino {
     }, TColor.SAND);
 
     public static final Tetromino[] ORDER = new Tetromino[]{I_PIECE, J_PIECE, L_PIECE, O_PIECE, S_PIECE, T_PIECE, Z_PIECE};
+    private static final Tetromino[] VALUES = values(); // fromInt without values()'s copy, it's on the ATTACK path
+    public static final int COUNT = VALUES.length;
     public final Point[][] shapeRotations;
     public final int legacyInt;
     public final TColor tcolor;
+    // Primitive copies of shapeRotations, indexed by rotation, so the hot paths never walk Points:
+    // cell offsets, one occupancy mask per piece row (bit x = column offset x), the lowest filled row offset of each
+    // column (-1 if the column is empty), and the bounding box measured from the origin.
+    private final int[][] cellXs;
+    private final int[][] cellYs;
+    private final int[][] rowMasks;
+    private final int[][] columnBottoms;
+    private final int[] widths;
+    private final int[] heights;
 
     Tetromino(int legacyInt, Point[][] shapeRot, TColor tcolor) {
         this.legacyInt = legacyInt;
         this.shapeRotations = shapeRot;
         this.tcolor = tcolor;
+
+        int rotations = shapeRot.length;
+        cellXs = new int[rotations][];
+        cellYs = new int[rotations][];
+        rowMasks = new int[rotations][];
+        columnBottoms = new int[rotations][];
+        widths = new int[rotations];
+        heights = new int[rotations];
+        for (int r = 0; r < rotations; r++) {
+            Point[] cells = shapeRot[r];
+            cellXs[r] = new int[cells.length];
+            cellYs[r] = new int[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                cellXs[r][i] = cells[i].x;
+                cellYs[r][i] = cells[i].y;
+                widths[r] = Math.max(widths[r], cells[i].x + 1);
+                heights[r] = Math.max(heights[r], cells[i].y + 1);
+            }
+            rowMasks[r] = new int[heights[r]];
+            columnBottoms[r] = new int[widths[r]];
+            Arrays.fill(columnBottoms[r], -1);
+            for (Point p : cells) {
+                rowMasks[r][p.y] |= 1 << p.x;
+                columnBottoms[r][p.x] = Math.max(columnBottoms[r][p.x], p.y);
+            }
+        }
     }
 
     public static Tetromino fromInt(int index) {
-        if (index < 0 || index >= values().length) {
+        if (index < 0 || index >= VALUES.length) {
             throw new RuntimeException("Invalid type index " + index);
         }
-        return values()[index];
+        return VALUES[index];
     }
 
     public Point[] inRotation(Rotation rot) {
         return this.shapeRotations[rot.toInt()];
     }
+
+    public int[] cellXs(Rotation rot) {
+        return cellXs[rot.index];
+    }
+
+    public int[] cellYs(Rotation rot) {
+        return cellYs[rot.index];
+    }
+
+    public int[] rowMasks(Rotation rot) {
+        return rowMasks[rot.index];
+    }
+
+    public int[] columnBottoms(Rotation rot) {
+        return columnBottoms[rot.index];
+    }
+
+    public int width(Rotation rot) {
+        return widths[rot.index];
+    }
+
+    public int height(Rotation rot) {
+        return heights[rot.index];
+    }
 }
@@ -0,0 +1,63 @@
+package tetris;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+// Every kind of square the view paints (one per TColor, plus the ghost and bomb indicator variants), pre-rendered
+// side by side into a single image, so painting a cell is a blit out of that image instead of a color change and a
+// fill. Consecutive blits from the same source image are what Java2D's accelerated pipelines batch best.
+// Tiles are rendered at the screen's scale (HiDPI), so the blit maps device pixels one to one instead of resampling.
+final class TileAtlas {
+    private final BufferedImage image; // one row of tiles
+    private final BufferedImage[] tiles; // views of each tile in `image`, sharing its pixels
+    private final int size; // tile size in user space
+    private final int devicePx; // tile size in the image
+
+    // an atlas of only opaque colors is made opaque, so its blits are plain copies rather than blends
+    TileAtlas(int size, double scale, Color[] tileColors, GraphicsConfiguration config) {
+        this.size = size;
+        this.devicePx = (int) Math.ceil(size * scale);
+        int width = devicePx * tileColors.length;
+        boolean opaque = true;
+        for (Color color : tileColors) {
+            opaque &= color.getAlpha() == 255;
+        }
+        if (config == null) {
+            image = new BufferedImage(width, devicePx, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        } else {
+            image = config.createCompatibleImage(width, devicePx, opaque ? Transparency.OPAQUE : Transparency.TRANSLUCENT);
+        }
+        tiles = new BufferedImage[tileColors.length];
+        Graphics2D g = image.createGraphics();
+        for (int tile = 0; tile < tileColors.length; tile++) {
+            g.setColor(tileColors[tile]);
+            g.fillRect(tile * devicePx, 0, devicePx, devicePx);
+            tiles[tile] = image.getSubimage(tile * devicePx, 0, devicePx, devicePx);
+        }
+        g.dispose();
+    }
+
+    // scaled for (and compatible with) the default screen, or plain 1:1 ARGB when there isn't one
+    static TileAtlas forDefaultScreen(int size, Color[] tileColors) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new TileAtlas(size, 1, tileColors, null);
+        }
+        GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        return new TileAtlas(size, config.getDefaultTransform().getScaleX(), tileColors, config);
+    }
+
+    void draw(Graphics g, int tile, int x, int y) {
+        if (devicePx == size) {
+            g.drawImage(tiles[tile], x, y, null);
+        } else {
+            int sourceX = tile * devicePx;
+            g.drawImage(image, x, y, x + size, y + size, sourceX, 0, sourceX + devicePx, devicePx, null);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package networking;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MessageDecoderTest {
+    private final MessageDecoder decoder = new MessageDecoder();
+    private final List<String> attacks = new ArrayList<>();
+    private final MessageHandler handler = new MessageHandler() {
+        @Override
+        public void onAttack(int x, int y, int rotation, int piece, int from) {
+            attacks.add(x + " " + y + " " + rotation + " " + piece);
+        }
+    };
+
+    private void decode(MessageType type, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        decoder.decode(type.opcode, bytes, 0, bytes.length, 1, handler);
+    }
+
+    @Test
+    public void anAttackInsideTheWellIsDelivered() {
+        decode(MessageType.ATTACK, "4 0 1 0");
+        decode(MessageType.ATTACK, "8 20 0 0"); // an I piece flat against the right wall, on the floor
+        decode(MessageType.ATTACK, "10 22 0 7"); // a grain of sand
+        assertEquals(List.of("4 0 1 0", "8 20 0 0", "10 22 0 7"), attacks);
+    }
+
+    // out of range, any of these used to throw on the receiving thread or, once queued, on the game loop
+    @Test
+    public void anAttackOutsideTheWellOrOfNoKnownPieceIsDropped() {
+        decode(MessageType.ATTACK, "4 0 4 0");
+        decode(MessageType.ATTACK, "4 0 -1 0");
+        decode(MessageType.ATTACK, "4 0 0 8");
+        decode(MessageType.ATTACK, "4 0 0 -1");
+        decode(MessageType.ATTACK, "-1 0 0 3");
+        decode(MessageType.ATTACK, "4 -1 0 3");
+        decode(MessageType.ATTACK, "9 0 0 0"); // the I piece's last cell past the right wall
+        decode(MessageType.ATTACK, "4 23 1 0"); // standing up, it runs off the bottom
+        decode(MessageType.ATTACK, "300 0 0 3");
+        decode(MessageType.ATTACK, "4 0 0");
+        assertEquals(List.of(), attacks);
+        decode(MessageType.ATTACK, "4 0 0 3");
+        assertEquals(List.of("4 0 0 3"), attacks, "the decoder carries on after a bad one");
+    }
+}
@@ -0,0 +1,72 @@
+package networking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RealClientTest {
+    private static final int SELF = 0;
+
+    private static RealClient client(int neighbors, boolean relaying) {
+        RealClient client = new RealClient();
+        client.processID = SELF;
+        client.relaying = relaying;
+        for (int i = 1; i <= neighbors; i++) {
+            Transceiver neighbor = new Transceiver(i, new ByteArrayInputStream(new byte[0]), OutputStream.nullOutputStream());
+            neighbor.localID = SELF;
+            client.connections.add(neighbor);
+        }
+        return client;
+    }
+
+    @Test
+    public void aMeshWaitsForEveryConnection() {
+        RealClient client = client(3, false);
+        client.startRandomEvent();
+        client.onPropose(1, 1);
+        client.onPropose(1, 2);
+        assertTrue(client.isChoosingRandomEvent());
+        client.onPropose(1, 3);
+        assertFalse(client.isChoosingRandomEvent());
+    }
+
+    // peers 1 and 2 are its parent and child on the tree, 3 to 5 are further away and their votes arrive relayed
+    @Test
+    public void aTreeNodeWaitsForTheWholeLobbyNotJustItsNeighbors() {
+        RealClient client = client(2, true);
+        client.onLobbySize(6, -1);
+        assertEquals(6, client.votesNeeded());
+        client.startRandomEvent();
+        for (int peer = 1; peer <= 4; peer++) {
+            client.onPropose(1, peer);
+            assertTrue(client.isChoosingRandomEvent(), (peer + 1) + " of 6 votes");
+        }
+        client.onPropose(1, 5);
+        assertFalse(client.isChoosingRandomEvent());
+    }
+
+    @Test
+    public void aPeerLeavingMidVoteLetsTheVoteFinish() {
+        RealClient client = client(2, true);
+        client.onLobbySize(4, -1);
+        client.startRandomEvent();
+        client.onPropose(1, 1);
+        client.onPropose(1, 2);
+        assertTrue(client.isChoosingRandomEvent());
+        client.onLobbySize(3, -1);
+        assertFalse(client.isChoosingRandomEvent());
+    }
+
+    @Test
+    public void aTreeNodeCountsItsNeighborsUntilTheMatchmakerSaysOtherwise() {
+        RealClient client = client(2, true);
+        assertEquals(3, client.votesNeeded());
+        client.onLobbySize(2, -1); // stale, it can't have fewer peers than connections
+        assertEquals(3, client.votesNeeded());
+    }
+}
@@ -0,0 +1,49 @@
+package networking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SnapshotChannelTest {
+    private static final int PEER = 3;
+    private static final InetSocketAddress ANNOUNCED = new InetSocketAddress(InetAddress.getLoopbackAddress(), 27900);
+
+    // the datagram SnapshotChannel.send would make
+    private static ByteBuffer snapshot(int sender, String content) {
+        byte[] bytes = content.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer datagram = ByteBuffer.allocate(Connection.PREAMBLE_BYTES + Connection.HEADER_BYTES + bytes.length);
+        datagram.putInt(Connection.PROTOCOL_MAGIC);
+        datagram.put((byte) MessageType.UPDATE_BOARD_PACKED.opcode);
+        datagram.putInt(sender);
+        datagram.putInt(bytes.length);
+        datagram.put(bytes);
+        return datagram.flip();
+    }
+
+    @Test
+    public void onlySnapshotsFromTheAnnouncedAddressAreApplied() throws IOException {
+        List<String> applied = new ArrayList<>();
+        MessageHandler boards = new MessageHandler() {
+            @Override
+            public void onPackedBoard(CharSequence board, int version, int from) {
+                applied.add(board + " " + version + " " + from);
+            }
+        };
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (SnapshotChannel channel = new SnapshotChannel(loopback, boards, sender -> sender == PEER ? ANNOUNCED : null)) {
+            channel.received(snapshot(PEER, "board 1"), ANNOUNCED);
+            channel.received(snapshot(PEER, "forged 2"), new InetSocketAddress(InetAddress.getLoopbackAddress(), 27901));
+            channel.received(snapshot(PEER + 1, "unannounced 1"), ANNOUNCED);
+            channel.received(snapshot(PEER, "board 3"), new InetSocketAddress(ANNOUNCED.getAddress(), ANNOUNCED.getPort()));
+        }
+        assertEquals(List.of("board 1 3", "board 3 3"), applied);
+    }
+}
@@ -0,0 +1,370 @@
+package networking;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TransceiverTest {
+    private static final int SENDER = 5;
+
+    // what a handler heard, one line per callback
+    private static final class Recorder implements MessageHandler {
+        final List<String> heard = new ArrayList<>();
+
+        @Override
+        public void onShutdown(int from) {
+            heard.add("shutdown " + from);
+        }
+
+        @Override
+        public void onNormal(String text, int from) {
+            heard.add("normal " + text.length() + " " + (text.length() > 32 ? text.substring(0, 32) : text) + " " + from);
+        }
+
+        @Override
+        public void onAttack(int x, int y, int rotation, int piece, int from) {
+            heard.add("attack " + x + " " + y + " " + rotation + " " + piece + " " + from);
+        }
+
+        @Override
+        public void onDeath(int from) {
+            heard.add("death " + from);
+        }
+
+        @Override
+        public void onPropose(int event, int from) {
+            heard.add("propose " + event + " " + from);
+        }
+
+        @Override
+        public void onPackedBoard(CharSequence board, int version, int from) {
+            heard.add("packed " + board + " " + version + " " + from);
+        }
+
+        @Override
+        public void onBoardDelta(int version, CharSequence deletedRows, CharSequence changedCells, int from) {
+            heard.add("delta " + version + " " + from);
+        }
+    }
+
+    // hands out at most `chunk` bytes per read (a random amount up to it if `random` is set), the way a socket may
+    private static final class Trickle extends InputStream {
+        private final byte[] bytes;
+        private final int chunk;
+        private final Random random;
+        private int position;
+
+        Trickle(byte[] bytes, int chunk, Random random) {
+            this.bytes = bytes;
+            this.chunk = chunk;
+            this.random = random;
+        }
+
+        @Override
+        public int read() {
+            return position < bytes.length ? bytes[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] into, int offset, int length) {
+            if (position == bytes.length) {
+                return -1;
+            }
+            int most = random == null ? chunk : 1 + random.nextInt(chunk);
+            int count = Math.min(Math.min(length, most), bytes.length - position);
+            System.arraycopy(bytes, position, into, offset, count);
+            position += count;
+            return count;
+        }
+    }
+
+    static Transceiver sender(ByteArrayOutputStream wire) {
+        Transceiver sender = new Transceiver(1, new ByteArrayInputStream(new byte[0]), wire);
+        sender.localID = SENDER;
+        return sender;
+    }
+
+    static Transceiver receiver(InputStream wire) {
+        return new Transceiver(-1, wire, OutputStream.nullOutputStream());
+    }
+
+    // everything the receiver gets until the connection is done
+    static List<String> receiveAll(Transceiver receiver) {
+        Recorder recorder = new Recorder();
+        while (receiver.receive(recorder)) {
+        }
+        return recorder.heard;
+    }
+
+    // a frame written by hand, after the preamble
+    private static byte[] rawFrame(int opcode, int sender, int length, byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Connection.PROTOCOL_MAGIC);
+        out.writeByte(opcode);
+        out.writeInt(sender);
+        out.writeInt(length);
+        out.write(content);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void framesSurviveReadsOfOneByteAtATime() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.send(MessageType.NORMAL, "hello there");
+        sender.send(MessageType.ATTACK, "3 4 1 2");
+        sender.send(MessageType.DEATH, "");
+
+        Transceiver receiver = receiver(new Trickle(wire.toByteArray(), 1, null));
+        assertEquals(List.of("normal 11 hello there 5", "attack 3 4 1 2 5", "death 5", "shutdown 5"), receiveAll(receiver));
+        assertEquals(SENDER, receiver.contactID, "an accepted connection learns its peer from the first frame");
+        assertTrue(receiver.isClosed);
+    }
+
+    @Test
+    public void framesSurviveReadsSplitAnywhere() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            char[] text = new char[i * 37 % 3000];
+            Arrays.fill(text, (char) ('a' + i % 26));
+            String message = new String(text);
+            sender.send(MessageType.NORMAL, message);
+            expected.add("normal " + message.length() + " " + message.substring(0, Math.min(32, message.length())) + " " + SENDER);
+        }
+        expected.add("shutdown " + SENDER);
+
+        Transceiver receiver = receiver(new Trickle(wire.toByteArray(), 700, new Random(17)));
+        assertEquals(expected, receiveAll(receiver));
+    }
+
+    @Test
+    public void contentIsUtf8AndMayHoldSpacesAndNewlines() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        sender(wire).send(MessageType.NORMAL, "größer\nals π");
+        assertEquals(List.of("normal 12 größer\nals π 5", "shutdown 5"),
+                receiveAll(receiver(new ByteArrayInputStream(wire.toByteArray()))));
+    }
+
+    @Test
+    public void aFrameOfTheLargestLengthIsRead() throws IOException {
+        byte[] content = new byte[Connection.MAX_CONTENT_BYTES];
+        Arrays.fill(content, (byte) 'x');
+        byte[] frame = rawFrame(MessageType.NORMAL.opcode, SENDER, content.length, content);
+        List<String> heard = receiveAll(receiver(new Trickle(frame, 64 * 1024, new Random(3))));
+        assertEquals(2, heard.size());
+        assertTrue(heard.get(0).startsWith("normal " + Connection.MAX_CONTENT_BYTES + " xxx"));
+    }
+
+    @Test
+    public void anOversizeLengthClosesTheConnectionWithoutReadingIt() throws IOException {
+        byte[] frame = rawFrame(MessageType.NORMAL.opcode, SENDER, Connection.MAX_CONTENT_BYTES + 1, new byte[16]);
+        Transceiver receiver = receiver(new ByteArrayInputStream(frame));
+        assertEquals(List.of("shutdown -1"), receiveAll(receiver), "it never got as far as learning who sent it");
+        assertTrue(receiver.isClosed);
+        assertFalse(receiver.receive(new Recorder()));
+    }
+
+    @Test
+    public void aNegativeLengthClosesTheConnection() throws IOException {
+        byte[] frame = rawFrame(MessageType.NORMAL.opcode, SENDER, -1, new byte[0]);
+        Transceiver receiver = receiver(new ByteArrayInputStream(frame));
+        assertEquals(List.of("shutdown -1"), receiveAll(receiver));
+    }
+
+    @Test
+    public void anotherProtocolIsTurnedAway() {
+        byte[] http = "GET / HTTP/1.1\r\n\r\n".getBytes();
+        Transceiver receiver = receiver(new ByteArrayInputStream(http));
+        assertEquals(List.of("shutdown -1"), receiveAll(receiver));
+        assertTrue(receiver.isClosed);
+    }
+
+    @Test
+    public void anotherVersionOfThisProtocolIsTurnedAway() throws IOException {
+        byte[] frame = rawFrame(MessageType.NORMAL.opcode, SENDER, 2, "hi".getBytes());
+        frame[3]++; // "TRF1" -> "TRF2"
+        Transceiver receiver = receiver(new ByteArrayInputStream(frame));
+        assertEquals(List.of("shutdown -1"), receiveAll(receiver));
+        assertTrue(receiver.isClosed);
+        assertEquals("speaks protocol version 2 where this build speaks " + Connection.PROTOCOL_VERSION,
+                Connection.preambleMismatch(Connection.PROTOCOL_MAGIC + 1));
+    }
+
+    @Test
+    public void opcodesAreFixedPerType() {
+        // on the wire, so a renumbering would break every peer built before it (see MessageType)
+        int[] expected = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 255};
+        MessageType[] types = MessageType.values();
+        assertEquals(expected.length, types.length, "a new type needs its opcode pinned here");
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(expected[i], types[i].opcode, types[i].name());
+            assertEquals(types[i], MessageType.fromOpcode(types[i].opcode));
+        }
+        assertEquals(MessageType.UNKNOWN, MessageType.fromOpcode(200));
+    }
+
+    @Test
+    public void hangingUpMidFrameIsAShutdown() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.send(MessageType.ATTACK, "3 4 1 2");
+        sender.send(MessageType.NORMAL, "cut short");
+        byte[] bytes = wire.toByteArray();
+        byte[] cut = Arrays.copyOf(bytes, bytes.length - 4);
+        assertEquals(List.of("attack 3 4 1 2 5", "shutdown 5"), receiveAll(receiver(new ByteArrayInputStream(cut))));
+    }
+
+    @Test
+    public void aBatchIsUnpackedInOrderMostUrgentFirst() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.batches = true;
+        sender.queue(MessageType.NORMAL, "first normal");
+        sender.queue(MessageType.ATTACK, "1 2 0 3");
+        sender.queue(MessageType.NORMAL, "second normal");
+        sender.queue(MessageType.DEATH, "");
+        sender.flush();
+
+        byte[] bytes = wire.toByteArray();
+        assertEquals(MessageType.BATCH.opcode, bytes[Connection.PREAMBLE_BYTES], "one frame for the whole flush");
+        assertEquals(List.of("attack 1 2 0 3 5", "death 5", "normal 12 first normal 5", "normal 13 second normal 5",
+                "shutdown 5"), receiveAll(receiver(new Trickle(bytes, 3, new Random(5)))));
+    }
+
+    @Test
+    public void aFlushOfOneMessageIsAPlainFrame() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.batches = true;
+        sender.send(MessageType.NORMAL, "alone");
+        assertEquals(MessageType.NORMAL.opcode, wire.toByteArray()[Connection.PREAMBLE_BYTES]);
+        assertEquals(List.of("normal 5 alone 5", "shutdown 5"),
+                receiveAll(receiver(new ByteArrayInputStream(wire.toByteArray()))));
+    }
+
+    @Test
+    public void aShutdownInsideABatchStopsThere() throws IOException {
+        byte[] content = batch(MessageType.DEATH, "", MessageType.SHUTDOWN, "", MessageType.NORMAL, "never seen");
+        Transceiver receiver = receiver(new ByteArrayInputStream(rawFrame(MessageType.BATCH.opcode, SENDER, content.length, content)));
+        assertEquals(List.of("death 5", "shutdown 5"), receiveAll(receiver));
+        assertTrue(receiver.isClosed);
+    }
+
+    @Test
+    public void aMalformedBatchKeepsWhatCameBeforeTheBadEntry() throws IOException {
+        byte[] good = batch(MessageType.DEATH, "", MessageType.NORMAL, "fine");
+        // then an entry claiming more content than the batch holds, and the next frame after the batch
+        byte[] content = Arrays.copyOf(good, good.length + Connection.BATCHED_HEADER_BYTES + 2);
+        content[good.length] = (byte) MessageType.NORMAL.opcode;
+        content[good.length + 4] = 100;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(rawFrame(MessageType.BATCH.opcode, SENDER, content.length, content));
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MessageType.NORMAL.opcode);
+        out.writeInt(SENDER);
+        out.writeInt(5);
+        out.writeBytes("after");
+
+        Transceiver receiver = receiver(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(List.of("death 5", "normal 4 fine 5", "normal 5 after 5", "shutdown 5"), receiveAll(receiver),
+                "the connection stays up");
+    }
+
+    @Test
+    public void aBatchCutShortInsideAnEntryHeaderIsDropped() throws IOException {
+        byte[] good = batch(MessageType.DEATH, "");
+        byte[] content = Arrays.copyOf(good, good.length + 3);
+        Transceiver receiver = receiver(new ByteArrayInputStream(rawFrame(MessageType.BATCH.opcode, SENDER, content.length, content)));
+        assertEquals(List.of("death 5", "shutdown 5"), receiveAll(receiver));
+    }
+
+    // BATCH content by hand: [opcode][length][content] per (type, text) pair
+    private static byte[] batch(Object... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int i = 0; i < entries.length; i += 2) {
+            byte[] text = ((String) entries[i + 1]).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(((MessageType) entries[i]).opcode);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void relaysAreQueuedInTheLaneOfWhatTheyCarry() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.queue(MessageType.NORMAL, "chatter");
+        sender.queueRelay(3, 1, MessageType.UPDATE_BOARD_PACKED, "board3 1");
+        sender.queueRelay(3, 2, MessageType.PROPOSE, "4");
+        sender.flush();
+        assertEquals(List.of("propose 4 3", "normal 7 chatter 5", "packed board3 1 3", "shutdown 5"),
+                receiveAll(receiver(new ByteArrayInputStream(wire.toByteArray()))));
+    }
+
+    @Test
+    public void aRelayedKeyframeReplacesOnlyItsOriginsQueuedBoards() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.queueRelay(3, 1, MessageType.UPDATE_BOARD_PACKED, "old3 1");
+        sender.queueRelay(3, 2, MessageType.BOARD_DELTA, "2 - AAB");
+        sender.queueRelay(4, 1, MessageType.BOARD_DELTA, "7 - AAB");
+        sender.queueRelay(3, 3, MessageType.UPDATE_BOARD_PACKED, "new3 3");
+        sender.queueRelay(3, 4, MessageType.BOARD_DELTA, "4 - AAB");
+        sender.queueRelay(4, 2, MessageType.BOARD_DELTA, "8 - AAB");
+        sender.flush();
+        assertEquals(List.of("delta 7 4", "packed new3 3 3", "delta 4 3", "delta 8 4", "shutdown 5"),
+                receiveAll(receiver(new ByteArrayInputStream(wire.toByteArray()))),
+                "deltas never replace anything, they only apply on top of what came before");
+    }
+
+    // a delta the size of a small board's, so a few thousand of them fill the queue
+    private static final String DELTA = "9 - " + "AAB".repeat(40);
+
+    @Test
+    public void aFullQueueDropsTheRelayedBoardsBeforeDisconnecting() {
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        Transceiver sender = sender(wire);
+        sender.queue(MessageType.NORMAL, "before");
+        int room = Connection.MAX_QUEUED_BYTES - Connection.BATCHED_HEADER_BYTES - "before".length();
+        int fits = room / (Connection.BATCHED_HEADER_BYTES + Connection.RELAY_HEADER_BYTES + DELTA.length());
+        for (int sequence = 0; sequence < fits; sequence++) {
+            sender.queueRelay(3, sequence, MessageType.BOARD_DELTA, DELTA);
+        }
+        assertFalse(sender.isClosed);
+        String after = "after".repeat(DELTA.length()); // more than what's left
+        sender.queue(MessageType.NORMAL, after);
+        assertFalse(sender.isClosed, "the relayed boards made room");
+        sender.flush();
+        assertEquals(List.of("normal 6 before 5", "normal " + after.length() + " " + after.substring(0, 32) + " 5",
+                        "shutdown 5"),
+                receiveAll(receiver(new ByteArrayInputStream(wire.toByteArray()))));
+    }
+
+    @Test
+    public void aFullQueueWithNothingToDropDisconnects() {
+        Transceiver sender = sender(new ByteArrayOutputStream());
+        for (int i = 0; i <= Connection.MAX_QUEUED_BYTES / DELTA.length() && !sender.isClosed; i++) {
+            sender.queue(MessageType.NORMAL, DELTA);
+        }
+        assertTrue(sender.isClosed);
+    }
+}
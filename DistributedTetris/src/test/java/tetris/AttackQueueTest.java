@@ -0,0 +1,174 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AttackQueueTest {
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 200_000;
+
+    // a real piece, with the producer in x and a sequence number in the bits above the packed fields
+    private static long attack(int producer, long sequence) {
+        return EnemyPiece.pack(producer, 0, Rotation._0, Tetromino.T_PIECE) | sequence << 32;
+    }
+
+    private static int producer(long entry) {
+        return EnemyPiece.packedX(entry);
+    }
+
+    private static long sequence(long entry) {
+        return entry >>> 32;
+    }
+
+    @Test
+    public void capacityRoundsUpToAPowerOfTwo() {
+        assertEquals(64, new AttackQueue().capacity());
+        assertEquals(8, new AttackQueue(5).capacity());
+        assertEquals(8, new AttackQueue(8).capacity());
+    }
+
+    @Test
+    public void keepsOrderAcrossManyLapsOfTheRing() {
+        AttackQueue queue = new AttackQueue(8);
+        long next = 0;
+        long expected = 0;
+        for (int lap = 0; lap < 1_000; lap++) {
+            int batch = 1 + lap % 8;
+            for (int i = 0; i < batch; i++) {
+                assertTrue(queue.offer(attack(1, next++)));
+            }
+            assertEquals(batch, queue.size());
+            for (int i = 0; i < batch; i++) {
+                assertEquals(expected++, sequence(queue.poll()));
+            }
+            assertEquals(AttackQueue.EMPTY, queue.poll());
+        }
+        assertEquals(next, queue.pollCount() - 1_000);
+    }
+
+    @Test
+    public void dropsWhatDoesNotFit() {
+        AttackQueue queue = new AttackQueue(8);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(queue.offer(attack(1, i)));
+        }
+        assertFalse(queue.offer(attack(1, 8)));
+        assertEquals(1, queue.droppedCount());
+        assertEquals(0, sequence(queue.poll()));
+        assertTrue(queue.offer(attack(1, 9))); // the slot it freed
+    }
+
+    @Test
+    public void debrisOnlyFillsThreeQuartersAndLeavesRoomForPieces() {
+        AttackQueue queue = new AttackQueue(16);
+        int accepted = 0;
+        for (int i = 0; i < 16; i++) {
+            if (queue.offer(EnemyPiece.packDebris(3, 4, 0b111))) {
+                accepted++;
+            }
+        }
+        assertEquals(12, accepted);
+        assertEquals(4, queue.droppedDebrisCount());
+        assertEquals(0, queue.droppedCount());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(attack(1, i)), "pieces still get the headroom");
+        }
+        assertFalse(queue.offer(attack(1, 4)));
+    }
+
+    @Test
+    public void dropOldestHalfSkipsTheOldestEntries() {
+        AttackQueue queue = new AttackQueue(16);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(attack(1, i));
+        }
+        queue.dropOldestHalf();
+        assertEquals(5, queue.size());
+        for (int i = 5; i < 10; i++) {
+            assertEquals(i, sequence(queue.poll()));
+        }
+        assertEquals(AttackQueue.EMPTY, queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void clearSkipsEverythingOfferedSoFar() {
+        AttackQueue queue = new AttackQueue(16);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(attack(1, i));
+        }
+        queue.clear();
+        assertTrue(queue.isEmpty());
+        assertEquals(AttackQueue.EMPTY, queue.poll());
+        queue.offer(attack(1, 10));
+        assertEquals(10, sequence(queue.poll()));
+    }
+
+    // Producers offer while the consumer polls, halves and clears. Whatever comes out must have gone in, once, and in
+    // each producer's order; and once the producers are done and the queue is cleared, nothing is left.
+    @Test
+    public void trimmingWhileProducersOfferNeverDuplicatesOrReorders() throws InterruptedException {
+        AttackQueue queue = new AttackQueue(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (long i = 0; i < PER_PRODUCER; i++) {
+                    queue.offer(attack(producer, i));
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        long[] last = new long[PRODUCERS];
+        Arrays.fill(last, -1);
+        long polled = 0;
+        start.countDown();
+        for (int round = 0; producers.stream().anyMatch(Thread::isAlive); round++) {
+            switch (round % 7) {
+                case 3 -> queue.dropOldestHalf();
+                case 6 -> queue.clear();
+                default -> {
+                    long entry;
+                    while ((entry = queue.poll()) != AttackQueue.EMPTY) {
+                        int producer = producer(entry);
+                        assertTrue(sequence(entry) > last[producer], "entries of one producer came out in order, once");
+                        last[producer] = sequence(entry);
+                        polled++;
+                    }
+                }
+            }
+            assertTrue(queue.size() >= 0 && queue.size() <= queue.capacity());
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        queue.clear();
+        assertEquals(AttackQueue.EMPTY, queue.poll());
+        assertTrue(queue.isEmpty());
+        assertTrue(polled > 0);
+        assertEquals(queue.capacity(), countOffers(queue), "every slot was handed back");
+    }
+
+    private static int countOffers(AttackQueue queue) {
+        int accepted = 0;
+        while (queue.offer(attack(0, 0))) {
+            accepted++;
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,92 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoardCodecTest {
+    private static final TColor[] PLAYABLE = {TColor.CYAN, TColor.ORANGE, TColor.BLUE, TColor.YELLOW, TColor.GREEN,
+            TColor.PINK, TColor.RED, TColor.SAND, TColor.OPEN};
+
+    // the encoding byte, straight out of the first three base64 digits
+    private static int encodingOf(String encoded) {
+        int bits = BoardCodec.value(encoded.charAt(0)) << 12 | BoardCodec.value(encoded.charAt(1)) << 6
+                | BoardCodec.value(encoded.charAt(2));
+        return (bits >> 2) & 0xFF;
+    }
+
+    private static TColor[][] roundTrip(Board board) {
+        TColor[][] cells = new TColor[Board.WIDTH][Board.HEIGHT];
+        assertTrue(BoardCodec.decode(new BoardCodec().encode(board), cells));
+        return cells;
+    }
+
+    private static Board noise(long seed) {
+        Random random = new Random(seed);
+        Board board = new Board();
+        for (int y = 0; y < Board.FLOOR_ROW; y++) {
+            for (int x = 1; x < Board.WIDTH - 1; x++) {
+                board.set(x, y, PLAYABLE[random.nextInt(PLAYABLE.length)]);
+            }
+        }
+        return board;
+    }
+
+    @Test
+    public void anEmptyWellIsRunLengthEncodedAndComesBackTheSame() {
+        Board board = new Board();
+        String encoded = new BoardCodec().encode(board);
+        assertEquals(BoardCodec.RLE, encodingOf(encoded));
+        assertArrayEquals(board.toArray(), roundTrip(board));
+    }
+
+    @Test
+    public void aNoisyWellIsSentRawAndComesBackTheSame() {
+        for (long seed = 0; seed < 20; seed++) {
+            Board board = noise(seed);
+            String encoded = new BoardCodec().encode(board);
+            assertEquals(BoardCodec.RAW, encodingOf(encoded));
+            assertArrayEquals(board.toArray(), roundTrip(board));
+        }
+    }
+
+    @Test
+    public void runsLongerThanSixteenCellsAreSplit() {
+        Board board = new Board();
+        for (int y = Board.FLOOR_ROW - 3; y < Board.FLOOR_ROW; y++) {
+            for (int x = 1; x < Board.WIDTH - 1; x++) {
+                board.set(x, y, TColor.SAND);
+            }
+        }
+        board.set(5, Board.FLOOR_ROW - 4, TColor.RED);
+        assertEquals(BoardCodec.RLE, encodingOf(new BoardCodec().encode(board)));
+        assertArrayEquals(board.toArray(), roundTrip(board));
+    }
+
+    @Test
+    public void oneCodecEncodesOneBoardAfterAnother() {
+        BoardCodec codec = new BoardCodec();
+        TColor[][] cells = new TColor[Board.WIDTH][Board.HEIGHT];
+        for (long seed = 0; seed < 5; seed++) {
+            Board board = seed % 2 == 0 ? noise(seed) : new Board();
+            assertTrue(BoardCodec.decode(codec.encode(board), cells));
+            assertArrayEquals(board.toArray(), cells);
+        }
+    }
+
+    @Test
+    public void rejectsWhatIsNotABoard() {
+        TColor[][] cells = new TColor[Board.WIDTH][Board.HEIGHT];
+        String encoded = new BoardCodec().encode(noise(7));
+        assertFalse(BoardCodec.decode(encoded.substring(0, encoded.length() - 4), cells), "truncated");
+        assertFalse(BoardCodec.decode(encoded + "AAAA", cells), "too many cells");
+        assertFalse(BoardCodec.decode(encoded.replace(encoded.charAt(5), '*'), cells), "not base64");
+        assertFalse(BoardCodec.decode("C" + encoded.substring(1), cells), "unknown version");
+        assertFalse(BoardCodec.decode("", cells));
+    }
+}
@@ -0,0 +1,160 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BoardDeltaTest {
+    private static final int[] NO_ROWS = new int[0];
+    private static final int CELL_SIZE = 4;
+
+    private final Board board = new Board();
+    private final BoardDelta sender = new BoardDelta();
+
+    // one locked cell per update, walking along the bottom rows
+    private void changeOneCell(int update) {
+        board.set(1 + update % (Board.WIDTH - 2), Board.BOTTOM_PLAYABLE_ROW - update / (Board.WIDTH - 2) % 8, TColor.RED);
+        sender.next(board, NO_ROWS, 0);
+    }
+
+    private static String[] fields(String delta) {
+        String[] fields = delta.split(" ");
+        assertEquals(3, fields.length);
+        return fields;
+    }
+
+    private static TColor[][] emptyCells() {
+        return new Board().toArray();
+    }
+
+    @Test
+    public void sendsAKeyframeEveryIntervalAndDeltasInBetween() {
+        for (int update = 0; update < 3 * BoardDelta.KEYFRAME_INTERVAL; update++) {
+            changeOneCell(update);
+            int version = update + 1;
+            assertEquals(version, sender.version());
+            if (version % BoardDelta.KEYFRAME_INTERVAL == 1) {
+                assertNull(sender.delta(), "version " + version + " is a keyframe");
+            } else {
+                assertNotNull(sender.delta(), "version " + version + " is a delta");
+                assertEquals(Integer.toString(version), fields(sender.delta())[0]);
+            }
+        }
+    }
+
+    @Test
+    public void sendsAKeyframeWhenTheDeltaWouldBeLonger() {
+        changeOneCell(0);
+        changeOneCell(1);
+        assertNotNull(sender.delta());
+        for (int y = 4; y < Board.FLOOR_ROW; y++) {
+            for (int x = 1; x < Board.WIDTH - 1; x++) {
+                board.set(x, y, (x + y) % 2 == 0 ? TColor.SAND : TColor.BLUE);
+            }
+        }
+        sender.next(board, NO_ROWS, 0);
+        assertNull(sender.delta());
+    }
+
+    @Test
+    public void deltasRebuildTheBoardIncludingDeletedRows() {
+        TColor[][] cells = emptyCells();
+        changeOneCell(0);
+        assertTrue(BoardCodec.decode(sender.keyframe(), cells));
+        for (int update = 1; update < 12; update++) {
+            changeOneCell(update);
+            String[] fields = fields(sender.delta());
+            assertTrue(BoardDelta.apply(fields[1], fields[2], cells));
+        }
+        board.deleteRow(Board.BOTTOM_PLAYABLE_ROW);
+        board.set(3, 10, TColor.CYAN);
+        sender.next(board, new int[]{Board.BOTTOM_PLAYABLE_ROW}, 1);
+        String[] fields = fields(sender.delta());
+        assertEquals(String.valueOf(BoardCodec.digit(Board.BOTTOM_PLAYABLE_ROW)), fields[1]);
+        assertTrue(BoardDelta.apply(fields[1], fields[2], cells));
+        assertArrayEquals(board.toArray(), cells);
+    }
+
+    @Test
+    public void rejectsMalformedDeltas() {
+        TColor[][] cells = emptyCells();
+        assertFalse(BoardDelta.apply("*", "-", cells));
+        assertFalse(BoardDelta.apply("-", "AB", cells));
+        assertFalse(BoardDelta.apply("-", "///", cells), "cell index past the board");
+    }
+
+    @Test
+    public void aVersionGapAsksForOneKeyframeAndWaitsForIt() {
+        OpponentBoard opponent = new OpponentBoard(0);
+        changeOneCell(0);
+        assertTrue(opponent.updatePacked(sender.keyframe(), sender.version(), CELL_SIZE, Color.BLACK));
+
+        changeOneCell(1);
+        String[] second = fields(sender.delta());
+        assertEquals(OpponentBoard.DeltaResult.APPLIED, applyTo(opponent, 2, second));
+        assertEquals(OpponentBoard.DeltaResult.SKIPPED, applyTo(opponent, 2, second), "a repeat is stale");
+
+        changeOneCell(2); // lost on the way
+        changeOneCell(3);
+        String[] fourth = fields(sender.delta());
+        assertEquals(OpponentBoard.DeltaResult.NEEDS_KEYFRAME, applyTo(opponent, 4, fourth));
+        changeOneCell(4);
+        assertEquals(OpponentBoard.DeltaResult.SKIPPED, applyTo(opponent, 5, fields(sender.delta())),
+                "only one request per gap");
+
+        assertTrue(opponent.updatePacked(sender.keyframe(), sender.version(), CELL_SIZE, Color.BLACK));
+        changeOneCell(5);
+        assertEquals(OpponentBoard.DeltaResult.APPLIED, applyTo(opponent, 6, fields(sender.delta())));
+    }
+
+    @Test
+    public void aDeltaBeforeAnyKeyframeAsksForOne() {
+        OpponentBoard opponent = new OpponentBoard(0);
+        changeOneCell(0);
+        changeOneCell(1);
+        assertEquals(OpponentBoard.DeltaResult.NEEDS_KEYFRAME, applyTo(opponent, 2, fields(sender.delta())));
+    }
+
+    // the view's answer is what makes the client send REQUEST_KEYFRAME back to the sender
+    @Test
+    public void theViewSaysWhenToRequestAKeyframe() {
+        Tetris view = new Tetris();
+        changeOneCell(0);
+        view.handleRecvPackedBoard(sender.keyframe(), sender.version(), 7);
+        changeOneCell(1);
+        String[] second = fields(sender.delta());
+        assertFalse(view.handleRecvBoardDelta(2, second[1], second[2], 7));
+        changeOneCell(2);
+        changeOneCell(3);
+        String[] fourth = fields(sender.delta());
+        assertTrue(view.handleRecvBoardDelta(4, fourth[1], fourth[2], 7));
+        assertFalse(view.handleRecvBoardDelta(4, fourth[1], fourth[2], 7));
+    }
+
+    private static OpponentBoard.DeltaResult applyTo(OpponentBoard opponent, int version, String[] fields) {
+        return opponent.applyDelta(version, fields[1], fields[2], CELL_SIZE, Color.BLACK);
+    }
+
+    @Test
+    public void keyframesAreTheShadowTheDeltasWereTakenAgainst() {
+        for (int update = 0; update < 5; update++) {
+            changeOneCell(update);
+        }
+        TColor[][] cells = emptyCells();
+        for (TColor[] column : cells) {
+            Arrays.fill(column, TColor.UNKNOWN);
+        }
+        assertTrue(BoardCodec.decode(sender.keyframe(), cells));
+        assertArrayEquals(board.toArray(), cells);
+        assertSame(sender.keyframe(), sender.keyframe(), "encoded once per version");
+    }
+}
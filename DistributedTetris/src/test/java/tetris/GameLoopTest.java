@@ -0,0 +1,43 @@
+package tetris;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class GameLoopTest {
+    @Test
+    public void anEventThatThrowsDoesNotStopTheLoop() {
+        TetrisEngine engine = new TetrisEngine();
+        engine.init();
+        GameLoop loop = new GameLoop(engine);
+        List<String> ran = new ArrayList<>();
+        loop.post(GameEvent.callback(e -> {
+            throw new IllegalStateException("a bad event (this stack trace is expected)");
+        }));
+        loop.post(GameEvent.callback(e -> ran.add("same step")));
+        loop.runStep(System.nanoTime());
+        loop.post(GameEvent.callback(e -> ran.add("next step")));
+        loop.runStep(System.nanoTime());
+        assertEquals(List.of("same step", "next step"), ran);
+    }
+
+    @Test
+    public void anAfterStepThatThrowsRunsAgainNextStep() {
+        TetrisEngine engine = new TetrisEngine();
+        engine.init();
+        GameLoop loop = new GameLoop(engine);
+        int[] calls = {0};
+        loop.setAfterStep(() -> {
+            if (calls[0]++ == 0) {
+                throw new IllegalStateException("a bad flush (this stack trace is expected)");
+            }
+        });
+        for (int step = 0; step < 3; step++) {
+            loop.runStep(System.nanoTime());
+        }
+        assertEquals(3, calls[0]);
+    }
+}
@@ -0,0 +1,190 @@
+package tetris;
+
+import networking.MessageDecoder;
+import networking.MessageHandler;
+import networking.MessageType;
+import networking.RealClient;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Measures heap allocation with the JVM's per-thread allocation counter and fails if the steady-state game loop or the
+// decoder allocates anything.
+// "Steady state" is a piece falling in a game wired up the way RealClient runs one, with the network client and the
+// view listening: moves and rotations posted to the GameLoop the way keys and bots post them, the loop's steps
+// applying them and flushing the connections, the view publishing its snapshot and queueing dirty rectangles, ghost
+// lookups and gravity ticks. Locking a piece is excluded since that broadcasts the board, a random event roll (and
+// the rest of that piece and the next, which apply the vote's outcome) since that starts a vote over the network, and
+// the reset when a game ends.
+// So is decoding the messages a running game receives (ATTACK, DEBRIS, boards, DEATH, PROPOSE) out of a receive buffer.
+// Painting a frame is measured too, but only reported: what it allocates is Java2D's own (drawImage clips each blit
+// with a new Rectangle, which escape analysis removes most but not all of).
+public class TickAllocationTest {
+    private static final int WARMUP_PIECES = 20_000;
+    private static final int MEASURED_PIECES = 5_000;
+    private static final int RENDERED_FRAMES = 500;
+    private static final int DECODED_MESSAGES = 50_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static GameLoop loop;
+    private static TetrisEngine engine;
+    private static Tetris view;
+    private static long overhead;
+    private static boolean rolled; // set by the engine when a tick rolls a random event
+
+    @BeforeAll
+    public static void startGame() {
+        assertTrue(THREADS.isThreadAllocatedMemorySupported());
+        loop = new RealClient().createHeadlessGame(); // stepped by hand, its thread isn't started
+        engine = loop.getEngine();
+        engine.init();
+        view = new Tetris(loop); // never shown, so its dirty rectangles pile up and merge, as they would behind the EDT
+        engine.addListener(new TetrisListener() {
+            @Override
+            public void onRandomEventRoll() {
+                rolled = true;
+            }
+        });
+        overhead = measureOverhead();
+    }
+
+    @Test
+    public void aSteadyStateTickAllocatesNothing() {
+        runPieces(WARMUP_PIECES); // let the JIT settle first
+        long[] result = runPieces(MEASURED_PIECES);
+        long allocated = Math.max(0, result[0] - overhead * result[1]);
+        System.out.println("Measured " + result[1] + " ticks, " + allocated + " bytes allocated");
+        assertEquals(0, allocated, "bytes allocated over " + result[1] + " ticks");
+    }
+
+    @Test
+    public void decodingAllocatesNothing() {
+        long allocated = Math.max(0, measureDecoding() - overhead);
+        System.out.println("Decoded " + DECODED_MESSAGES + " messages, " + allocated + " bytes allocated");
+        assertEquals(0, allocated, "bytes allocated decoding " + DECODED_MESSAGES + " messages");
+    }
+
+    @Test
+    public void reportRendering() {
+        view.onStateChanged(); // publishes the snapshot it paints, as the loop would
+        BufferedImage image = new BufferedImage(1248, 650, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < RENDERED_FRAMES; i++) {
+            view.paintComponent(g);
+        }
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < RENDERED_FRAMES; i++) {
+            view.paintComponent(g);
+        }
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        g.dispose();
+        System.out.println("Rendering: " + (allocated / RENDERED_FRAMES) + " bytes allocated per frame (Java2D's, not checked)");
+    }
+
+    // returns {bytes allocated inside measured regions, number of measured regions}
+    private static long[] runPieces(int pieces) {
+        long allocated = 0;
+        long ticks = 0;
+        for (int i = 0; i < pieces; i++) {
+            if (engine.getStatus() == TGameStatus.GAME_OVER || engine.getBoard().columnTop(5) < 8) {
+                engine.init();
+            }
+            // only tick while the piece is clear of the stack, so nothing locks inside the measured region
+            boolean rolledLastPiece = rolled;
+            rolled = false;
+            while (engine.getGhostY() - engine.getPieceY() > 1) {
+                long before = THREADS.getCurrentThreadAllocatedBytes();
+                step();
+                long after = THREADS.getCurrentThreadAllocatedBytes();
+                if (!rolled && !rolledLastPiece) {
+                    allocated += after - before;
+                    ticks++;
+                }
+            }
+            engine.dropToBottom();
+        }
+        return new long[]{allocated, ticks};
+    }
+
+    // one gravity tick's worth of loop steps, the first applying the inputs and the last the gravity
+    private static void step() {
+        loop.post(GameInput.MOVE_RIGHT);
+        loop.post(GameInput.MOVE_LEFT);
+        loop.post(GameInput.ROTATE_CW);
+        loop.post(GameInput.ROTATE_CCW);
+        for (int i = 0; i < GameLoop.GRAVITY_STEPS; i++) {
+            loop.runStep(System.nanoTime());
+        }
+        engine.getGhostY();
+    }
+
+    // what the counter itself reports for an empty region
+    private static long measureOverhead() {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 1_000; i++) {
+            long before = THREADS.getCurrentThreadAllocatedBytes();
+            min = Math.min(min, THREADS.getCurrentThreadAllocatedBytes() - before);
+        }
+        return min;
+    }
+
+    // frames as they'd sit in a receive buffer, decoded into a handler doing what the client's would with the fields
+    private static long measureDecoding() {
+        Board board = new Board();
+        BoardDelta boardDelta = new BoardDelta();
+        boardDelta.next(board, new int[0], 0);
+        board.set(4, 20, TColor.RED);
+        boardDelta.next(board, new int[0], 0);
+        MessageType[] types = {MessageType.ATTACK, MessageType.DEBRIS, MessageType.UPDATE_BOARD_PACKED,
+                MessageType.BOARD_DELTA, MessageType.DEATH, MessageType.PROPOSE};
+        byte[][] contents = {
+                ("5 0 " + Rotation._90.toInt() + " " + Tetromino.T_PIECE.legacyInt).getBytes(StandardCharsets.UTF_8),
+                "3 14 4423".getBytes(StandardCharsets.UTF_8),
+                (new BoardCodec().encode(engine.getBoard()) + " 7").getBytes(StandardCharsets.UTF_8),
+                boardDelta.delta().getBytes(StandardCharsets.UTF_8),
+                new byte[0],
+                "3".getBytes(StandardCharsets.UTF_8)};
+        TColor[][] cells = new TColor[Board.WIDTH][Board.HEIGHT];
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            public void onAttack(int x, int y, int rotation, int piece, int from) {
+                engine.handleAttack(EnemyPiece.pack(x, y, Rotation.fromInt(rotation), Tetromino.fromInt(piece)), from);
+                engine.getAttackQueue().clear();
+            }
+
+            @Override
+            public void onDebris(int x, int y, int mask, int from) {
+                engine.handleAttack(EnemyPiece.packDebris(x, y, mask), from);
+                engine.getAttackQueue().clear();
+            }
+
+            @Override
+            public void onPackedBoard(CharSequence packed, int version, int from) {
+                BoardCodec.decode(packed, cells);
+            }
+
+            @Override
+            public void onBoardDelta(int version, CharSequence rows, CharSequence changed, int from) {
+                BoardDelta.apply(rows, changed, cells);
+            }
+        };
+        MessageDecoder decoder = new MessageDecoder();
+        for (int i = 0; i < 4 * DECODED_MESSAGES; i++) { // warm up
+            decoder.decode(types[i % types.length].opcode, contents[i % types.length], 0, contents[i % types.length].length, 1, handler);
+        }
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < DECODED_MESSAGES; i++) {
+            decoder.decode(types[i % types.length].opcode, contents[i % types.length], 0, contents[i % types.length].length, 1, handler);
+        }
+        return THREADS.getCurrentThreadAllocatedBytes() - before;
+    }
+}